@@ -1,43 +1,82 @@
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.List;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 
 public class AES {
 
-    //private String[] keySchedule = new String[11];
+    private final ExpandedKey key; // Expanded key schedule, shared with the table engine
+    private volatile String[] roundKey; // Round keys as hex strings, only built for the reference engine and the debug output
 
-    private static final HashMap<Integer, Integer> RC = new HashMap<>();
-    static {
-        RC.put(1, 0x01);
-        RC.put(2, 0x02);
-        RC.put(3, 0x04);
-        RC.put(4, 0x08);
-        RC.put(5, 0x10);
-        RC.put(6, 0x20);
-        RC.put(7, 0x40);
-        RC.put(8, 0x80);
-        RC.put(9, 0x1B);
-        RC.put(10, 0x36);
-    }
+    static final int BUFFER_SIZE = 8192; // Chunk size used for direct buffers and streams
+    static final int DECRYPT_BATCH = 64; // Blocks per batch when decrypting CBC with the table engine
+    static final int BATCH_LANES = 4; // Independent CBC chains stepped together by encryptBatch
 
-    private String[] roundKey = new String[11]; // round keys for AES-128
-    private int[] words = new int[44]; // 4 words for AES-128
+    /**
+     * <h3>Engine</h3>
+     * <p>Selects the BlockCipherEngine that runs the block function for every mode.</p>
+     * <p><b>REFERENCE</b> is the step-by-step String[][] pipeline, <b>TABLE</b> is the int state / T-table engine in TableAES.</p>
+     * <p><b>BITSLICED</b> is the constant-time engine in BitslicedAES. It works on 8 blocks per pass, so it is meant for
+     * bulk ECB, CTR and CBC decryption. CBC encryption has to go one block at a time and is much slower with it.</p>
+     * <p><b>VECTOR</b> uses the Vector API engine in vector/VectorAES.java for bulk ECB, CTR and CBC decryption, and the
+     * table engine for single blocks. When that class or the jdk.incubator.vector module is missing it is the same as TABLE.</p>
+     * <p><b>JCA</b> is JcaAES, which runs the platform's AES/ECB/NoPadding Cipher and so gets the CPU's AES instructions.</p>
+     */
+    public enum Engine { REFERENCE, TABLE, BITSLICED, VECTOR, JCA }
 
-    private String[][] iv = new String[4][4]; // Initialization vector (IV) for CBC mode
+    /**
+     * <h3>Mode</h3>
+     * <p>The block cipher modes of operation. ECB and CBC pad with PKCS#7, CTR produces ciphertext of the same length as the plaintext.</p>
+     * <p><b>CBC_CS3</b> is CBC with ciphertext stealing, variant CS3 of the NIST SP 800-38A addendum (the same as the
+     * Kerberos mode in RFC 3962 and the JCA's AES/CTS/NoPadding). The last block is zero filled instead of padded, and the
+     * last two ciphertext blocks are swapped with the second to last cut to the length of the last plaintext block, so
+     * the ciphertext is as long as the plaintext. The plaintext must be at least 16 bytes.</p>
+     */
+    public enum Mode { ECB, CBC, CTR, CBC_CS3 }
+
+    private final Engine requested; // Engine asked for, used again by withTraceListener(null)
+    private final Engine engine; // Block function implementation used by this instance
+    private final BlockCipherEngine blocks; // The block function itself
+    private final AesTraceListener trace; // Receives every round step, null when not tracing
+
+    static final Log LOG = Log.get("AES");
+
+    // The Vector API engine is compiled on its own since it needs the incubator module, so it is looked up at run time.
+    // This stays null when the class is not on the class path or the module was not added with --add-modules.
+    private static final Constructor<? extends BlockCipherEngine> VECTOR_ENGINE = vectorEngine();
 
     //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     ///  CONSTRUCTORS                                                                                                      ///
     //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
     public AES(String key) {
+        this(key, EngineCalibration.selected()); // The table engine until the background calibration has picked one
+    }
+
+    /**
+     * <h3>AES Constructor</h3>
+     * <p>Accepts a key String and the block function implementation to use.</p>
+     * <p>All engines produce identical output. The round trace is only available from the reference engine, so while
+     * the AES log is at TRACE level (which traces to it with AesTextTrace) the reference engine is used regardless of
+     * this setting.</p>
+     * <p>Each character of the key is one byte, and only the first 16 are used.</p>
+     * <p>An instance never changes after construction. IVs and chaining values are created per call and the IV is
+     * written in front of the ciphertext, so one instance can be shared by any number of threads without locking.</p>
+     * @param key The key (at least 16 characters).
+     * @param engine The block function implementation.
+     */
+    public AES(String key, Engine engine) {
         // Check if the key is valid
         if (key.length() < 16) {
             throw new IllegalArgumentException("Key must be at least 16 characters long.");
         }
-        // Initialize the key schedule and round keys
-        for (int j = 0; j < this.roundKey.length; j++)  {
-            this.roundKey[j] = ""; // Initialize round keys to empty strings
-        }
-        keyExpansion(key); // Generate the key schedule from the provided key.
+        this.key = KeyCache.get(stringToBytes(key)); // Expanded once per distinct key, then served from the cache
+        this.requested = engine;
+        this.trace = LOG.enabled(Log.Level.TRACE) ? new AesTextTrace() : null;
+        this.engine = this.trace != null ? Engine.REFERENCE : engine;
+        this.blocks = newEngine(this.engine, this.key);
 
         // String[][] blockA = hexToBlock(a);
         // String[][] blockB = hexToBlock(b);
@@ -53,67 +92,435 @@ public class AES {
 
     }
 
+    // Same key and engine as base, with another trace listener
+    private AES(AES base, AesTraceListener trace) {
+        this.key = base.key;
+        this.roundKey = base.roundKey;
+        this.requested = base.requested;
+        this.trace = trace;
+        this.engine = trace != null ? Engine.REFERENCE : base.requested;
+        this.blocks = newEngine(this.engine, this.key);
+    }
+
+    /**
+     * <h3>withTraceListener</h3>
+     * <p>Returns an instance with the same key that reports every step of every block to <b>listener</b>. The traced
+     * instance uses the reference engine, this instance is not changed. Passing null returns an untraced instance
+     * with the engine this one was created with.</p>
+     * @param listener The listener, or null.
+     * @return The new instance.
+     */
+    public AES withTraceListener(AesTraceListener listener) {
+        return new AES(this, listener);
+    }
+
     //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     ///  FUNCTIONS                                                                                                         ///
     //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * <h3>encrypt</h3>
+     * <p>Encrypts a String of plaintext and returns the ciphertext as a hex string.</p>
+     * <p>Each character is treated as one byte, and the work is done by the binary <b>encrypt()</b>.</p>
+     * @param plaintext The text to encrypt.
+     * @param cbcMode True for CBC mode, false for ECB mode.
+     * @return The ciphertext in hex.
+     */
     public String encrypt(String plaintext, boolean cbcMode) {
+        return encrypt(plaintext, cbcMode ? Mode.CBC : Mode.ECB);
+    }
+
+    /**
+     * <h3>encrypt</h3>
+     * <p>Encrypts a String of plaintext in the given mode and returns the ciphertext as a hex string.</p>
+     * @param plaintext The text to encrypt.
+     * @param mode The mode of operation.
+     * @return The ciphertext in hex, starting with the IV in CBC and CTR mode.
+     */
+    public String encrypt(String plaintext, Mode mode) {
+        byte[] in = stringToBytes(plaintext);
+        byte[] out = new byte[getOutputSize(in.length, mode)];
+        encrypt(in, 0, in.length, out, 0, mode);
+        return bytesToHex(out, 0, out.length);
+    }
+
+    /**
+     * <h3>getOutputSize</h3>
+     * <p>Returns the length of a plaintext of the given length after PKCS#7 padding.</p>
+     * @param len The plaintext length in bytes.
+     * @return The padded length, always a non-zero multiple of 16.
+     */
+    public static int getOutputSize(int len) {
+        return (len / 16 + 1) * 16;
+    }
+
+    /**
+     * <h3>getOutputSize</h3>
+     * <p>Returns the ciphertext length for a plaintext of the given length in the given mode, including the 16 byte IV
+     * in CBC, CTR and CBC_CS3 mode and the padding in ECB and CBC mode.</p>
+     */
+    public static int getOutputSize(int len, Mode mode) {
+        switch (mode) {
+            case ECB:
+                return getOutputSize(len);
+            case CBC:
+                return 16 + getOutputSize(len);
+            default:
+                return 16 + len;
+        }
+    }
+
+    /**
+     * <h3>encrypt</h3>
+     * <p>Encrypts <b>len</b> bytes of binary plaintext, applying PKCS#7 padding to the final block.</p>
+     * <p>In CBC mode a fresh random IV is generated for the call and written in front of the ciphertext.</p>
+     * <p>The output may be the same array as the input (encryption in place) as long as it has room for the IV and padding.</p>
+     * @param in The plaintext buffer.
+     * @param off The offset of the plaintext in <b>in</b>.
+     * @param len The plaintext length.
+     * @param out The ciphertext buffer, with room for getOutputSize(len, mode) bytes at <b>outOff</b>.
+     * @param outOff The offset at which to write the IV and ciphertext.
+     * @param cbcMode True for CBC mode, false for ECB mode.
+     * @return The number of bytes written to <b>out</b>.
+     */
+    public int encrypt(byte[] in, int off, int len, byte[] out, int outOff, boolean cbcMode) {
+        return encrypt(in, off, len, out, outOff, cbcMode ? Mode.CBC : Mode.ECB);
+    }
 
+    /**
+     * <h3>encrypt</h3>
+     * <p>Encrypts <b>len</b> bytes of binary plaintext in the given mode. See the boolean overload for the buffer rules.</p>
+     * <p>In CTR mode there is no padding, the output is the random initial counter block followed by exactly <b>len</b>
+     * bytes, and large inputs are split across the common ForkJoinPool.</p>
+     * <p>In CBC_CS3 mode there is no padding either, the output is the random IV followed by exactly <b>len</b> bytes.</p>
+     * @param mode The mode of operation.
+     * @return The number of bytes written to <b>out</b>.
+     * @throws IllegalArgumentException If the output buffer is too small, or in CBC_CS3 mode the plaintext is shorter than 16 bytes.
+     */
+    public int encrypt(byte[] in, int off, int len, byte[] out, int outOff, Mode mode) {
+        if (mode == Mode.CBC_CS3 && len < 16) {
+            throw new IllegalArgumentException("CBC_CS3 needs at least 16 bytes of plaintext, got " + len);
+        }
+        int outLen = getOutputSize(len, mode);
+        if (outOff + outLen > out.length) {
+            throw new IllegalArgumentException("Output buffer too small, need " + outLen + " bytes.");
+        }
         printKeySchedule();
-        String hexPlainText = stringToHex(plaintext); // Convert plaintext to hex
 
-        hexPlainText = assertPadding(hexPlainText); // Ensure padding is applied if needed
+        byte[] iv = mode == Mode.ECB ? null : getRandomIV(); // A new IV for every call, never stored on the instance
+        int textOff = iv == null ? outOff : outOff + 16;
+        System.arraycopy(in, off, out, textOff, len); // Work in place on the output buffer (arraycopy handles overlapping ranges)
+        if (iv != null) {
+            System.arraycopy(iv, 0, out, outOff, 16); // The IV goes in front of the ciphertext
+        }
+        if (mode == Mode.CTR) {
+            CTR.apply(this, iv, out, textOff, len, out, textOff);
+            return outLen;
+        }
+        if (mode == Mode.CBC_CS3) {
+            encryptStealing(out, textOff, len, iv);
+            return outLen;
+        }
+
+        int paddedLen = getOutputSize(len);
+        int paddingBytes = paddedLen - len;
+        if (len % 16 != 0) {
+            LOG.debug(() -> "Padding needed for input text! Length: " + len + " Padding Length: " + paddingBytes);
+        }
+        for (int i = textOff + len; i < textOff + paddedLen; i++) {
+            out[i] = (byte) paddingBytes; // PKCS#7 padding
+        }
 
-        int blocks = hexPlainText.length() / 32; // Calculate the number of blocks needed
+        if (mode == Mode.CBC && LOG.enabled(Log.Level.DEBUG)) {
+            LOG.log(Log.Level.DEBUG, "CBC Mode Enabled! Generating IV...");
+            LOG.log(Log.Level.DEBUG, "IV: " + System.lineSeparator() + blockText(iv, 0)); // Print the IV
+        }
 
-        String cipherText = ""; // Initialize ciphertext
+        encryptBlocks(out, textOff, paddedLen / 16, mode == Mode.CBC, iv);
+        return outLen;
+    }
 
+    /**
+     * <h3>encrypt</h3>
+     * <p>Encrypts the remaining bytes of <b>in</b> into <b>out</b>, applying PKCS#7 padding. Both heap and direct buffers are supported.</p>
+     * @param in The plaintext, read from its position to its limit.
+     * @param out The ciphertext destination, with at least getOutputSize(in.remaining(), mode) bytes remaining.
+     * @param cbcMode True for CBC mode, false for ECB mode.
+     * @return The number of bytes written to <b>out</b>.
+     */
+    public int encrypt(ByteBuffer in, ByteBuffer out, boolean cbcMode) {
+        return encrypt(in, out, cbcMode ? Mode.CBC : Mode.ECB);
+    }
 
-        this.iv = getRandomBlock(); // Get a random initialization vector (IV)
-        String[][] lastBlock = this.iv; // Initialize the last block with the IV
+    /**
+     * <h3>encrypt</h3>
+     * <p>Encrypts the remaining bytes of <b>in</b> into <b>out</b> in the given mode. Both heap and direct buffers are supported.</p>
+     * @param mode The mode of operation.
+     * @return The number of bytes written to <b>out</b>.
+     */
+    public int encrypt(ByteBuffer in, ByteBuffer out, Mode mode) {
+        int len = in.remaining();
+        int outLen = getOutputSize(len, mode);
+        if (out.remaining() < outLen) {
+            throw new IllegalArgumentException("Output buffer too small, need " + outLen + " bytes.");
+        }
+        if (mode == Mode.CBC_CS3 && !(in.hasArray() && out.hasArray())) {
+            byte[] buf = new byte[outLen]; // The final blocks change places, so the message is done in one piece
+            in.get(buf, 0, len);
+            encrypt(buf, 0, len, buf, 0, mode);
+            out.put(buf);
+            return outLen;
+        }
+        if (in.hasArray() && out.hasArray()) {
+            encrypt(in.array(), in.arrayOffset() + in.position(), len, out.array(), out.arrayOffset() + out.position(), mode);
+            in.position(in.limit());
+            out.position(out.position() + outLen);
+            return outLen;
+        }
 
-        if (cbcMode) {
-            Tools.debugLog("CBC Mode Enabled! Generating IV...");
-            Tools.debugLog("IV: ");
-            printBlock(iv); // Print the IV
+        printKeySchedule();
+        byte[] chain = null;
+        if (mode != Mode.ECB) {
+            chain = getRandomIV(); // A new IV for every call, written in front of the ciphertext
+            out.put(chain);
+        }
+        if (mode == Mode.CTR) {
+            ctrBuffers(in, out, chain);
+            return outLen;
+        }
+        boolean cbcMode = mode == Mode.CBC;
+        byte[] buf = new byte[Math.min(BUFFER_SIZE, outLen)];
+        while (in.remaining() >= buf.length) { // Whole chunks, padding is only added once the input runs out
+            in.get(buf);
+            encryptBlocks(buf, 0, buf.length / 16, cbcMode, chain);
+            out.put(buf);
+        }
+        int tail = in.remaining();
+        int tailLen = getOutputSize(tail);
+        in.get(buf, 0, tail);
+        for (int i = tail; i < tailLen; i++) {
+            buf[i] = (byte) (tailLen - tail); // PKCS#7 padding
         }
+        encryptBlocks(buf, 0, tailLen / 16, cbcMode, chain);
+        out.put(buf, 0, tailLen);
+        return outLen;
+    }
 
+    // CTR over buffers without backing arrays, one chunk at a time with the block index carried across chunks
+    private void ctrBuffers(ByteBuffer in, ByteBuffer out, byte[] counter) {
+        byte[] buf = new byte[Math.min(BUFFER_SIZE, Math.max(in.remaining(), 16))];
+        long block = 0;
+        while (in.hasRemaining()) {
+            int n = Math.min(buf.length, in.remaining());
+            in.get(buf, 0, n);
+            CTR.xor(this, counter, block, buf, 0, n, buf, 0, false);
+            out.put(buf, 0, n);
+            block += n / 16;
+        }
+    }
 
+    /**
+     * <h3>encryptBlocks</h3>
+     * <p>Encrypts whole blocks in place. In CBC mode <b>chain</b> holds the previous ciphertext block (the IV for the
+     * first call) and is updated with the last block produced, so a message can be encrypted in several calls.</p>
+     * @param buf The buffer holding the blocks.
+     * @param off The offset of the first block.
+     * @param blocks The number of 16 byte blocks.
+     * @param cbcMode True for CBC mode, false for ECB mode.
+     * @param chain The 16 byte chaining value (ignored in ECB mode).
+     */
+    void encryptBlocks(byte[] buf, int off, int blocks, boolean cbcMode, byte[] chain) {
+        if (!cbcMode) {
+            this.blocks.encryptBlocks(buf, off, buf, off, blocks); // ECB blocks are independent, so the engine gets them all at once
+            return;
+        }
         for (int i = 0; i < blocks; i++) {
-            String blockHex = hexPlainText.substring(i * 32, (i + 1) * 32); // Get the current block
-            String[][] block = hexToBlock(blockHex); // Convert hex string to block (4x4 matrix)
+            int pos = off + i * 16;
+            for (int j = 0; j < 16; j++) {
+                buf[pos + j] ^= chain[j]; // XOR the block with the last block (or IV for the first block)
+            }
+            if (LOG.enabled(Log.Level.DEBUG)) {
+                LOG.log(Log.Level.DEBUG, "XORing with last block: " + System.lineSeparator() + blockText(buf, pos));
+            }
+            this.blocks.encryptBlock(buf, pos, buf, pos); // Encrypt the block
+            System.arraycopy(buf, pos, chain, 0, 16); // Update the last block value with the current block
+        }
+    }
 
-            if (cbcMode) {
-                block = xorBlocks(block, lastBlock); // XOR the block with the last block (or IV for the first block)
-                Tools.debugLog("XORing with last block: ");
-                printBlock(block); // Print the XORed block
+    // CBC-CS3: CBC up to the last block, which is zero filled, then the last two blocks are swapped and the final one cut
+    // to the length of the last plaintext block. A message of exactly one block is plain CBC.
+    void encryptStealing(byte[] buf, int off, int len, byte[] chain) {
+        int blocks = (len + 15) / 16;
+        int tail = len - (blocks - 1) * 16; // Bytes in the last block, 1 to 16
+        if (blocks == 1) {
+            encryptBlocks(buf, off, 1, true, chain);
+            return;
+        }
+        encryptBlocks(buf, off, blocks - 1, true, chain); // chain is now the second to last ciphertext block
+        byte[] last = new byte[16];
+        System.arraycopy(buf, off + len - tail, last, 0, tail);
+        byte[] stolen = chain.clone();
+        encryptBlocks(last, 0, 1, true, chain);
+        System.arraycopy(last, 0, buf, off + (blocks - 2) * 16, 16); // The last block goes first
+        System.arraycopy(stolen, 0, buf, off + (blocks - 1) * 16, tail); // Then as much of the one before as is needed
+    }
+
+    // Inverse of encryptStealing. Decrypting the swapped final block gives the rest of the second to last ciphertext
+    // block, XORed with the last plaintext block, so both can be recovered before the ordinary CBC decryption.
+    void decryptStealing(byte[] buf, int off, int len, byte[] iv) {
+        int blocks = (len + 15) / 16;
+        int tail = len - (blocks - 1) * 16;
+        if (blocks == 1) {
+            CBC.decrypt(this, buf, off, 1, iv);
+            return;
+        }
+        int swapped = off + (blocks - 2) * 16;
+        byte[] z = Arrays.copyOfRange(buf, swapped, swapped + 16);
+        decryptBlocks(z, 0, 1, false, null);
+        byte[] lastPlain = new byte[tail];
+        for (int j = 0; j < tail; j++) {
+            lastPlain[j] = (byte) (z[j] ^ buf[swapped + 16 + j]);
+        }
+        System.arraycopy(buf, swapped + 16, buf, swapped, tail); // Rebuild the second to last ciphertext block
+        System.arraycopy(z, tail, buf, swapped + tail, 16 - tail);
+        CBC.decrypt(this, buf, off, blocks - 1, iv); // Runs in parallel for large inputs
+        System.arraycopy(lastPlain, 0, buf, swapped + 16, tail);
+    }
+
+    /**
+     * <h3>encryptBatch</h3>
+     * <p>CBC encrypts many independent messages with the same key. The result for each message is the same as calling
+     * the binary <b>encrypt()</b> in CBC mode with that message's IV (PKCS#7 padded, IV not included).</p>
+     * <p>With the table engine, up to BATCH_LANES chains are stepped through the rounds in lockstep, and a lane is
+     * refilled with the next message as soon as its current one is finished.</p>
+     * @param messages The plaintexts.
+     * @param ivs One 16 byte IV per message.
+     * @return The ciphertexts, in the same order as the messages.
+     */
+    public List<byte[]> encryptBatch(List<byte[]> messages, List<byte[]> ivs) {
+        if (messages.size() != ivs.size()) {
+            throw new IllegalArgumentException("Expected one IV per message, got " + ivs.size() + " for " + messages.size());
+        }
+        byte[][] results = new byte[messages.size()][];
+        for (int m = 0; m < results.length; m++) {
+            if (ivs.get(m).length != 16) {
+                throw new IllegalArgumentException("IV " + m + " must be 16 bytes.");
+            }
+            results[m] = new byte[getOutputSize(messages.get(m).length)];
+        }
+
+        if (!(this.blocks instanceof TableAES)) {
+            for (int m = 0; m < results.length; m++) {
+                byte[] msg = messages.get(m);
+                System.arraycopy(msg, 0, results[m], 0, msg.length);
+                for (int i = msg.length; i < results[m].length; i++) {
+                    results[m][i] = (byte) (results[m].length - msg.length); // PKCS#7 padding
+                }
+                encryptBlocks(results[m], 0, results[m].length / 16, true, ivs.get(m).clone());
+            }
+            return Arrays.asList(results);
+        }
+
+        TableAES tables = (TableAES) this.blocks;
+        int[] state = new int[BATCH_LANES * 4]; // Chaining value, then cipher state, of each lane
+        int[] laneMessage = new int[BATCH_LANES]; // Message index of each lane, -1 when idle
+        int[] laneBlock = new int[BATCH_LANES]; // Next block of each lane's message
+        byte[] block = new byte[16];
+        int next = 0;
+        int active = 0;
+        for (int l = 0; l < BATCH_LANES; l++) {
+            laneMessage[l] = -1;
+            if (next < results.length) {
+                loadLane(state, l, ivs.get(next), 0);
+                laneMessage[l] = next++;
+                active++;
+            }
+        }
+
+        while (active > 0) {
+            for (int l = 0; l < BATCH_LANES; l++) {
+                int m = laneMessage[l];
+                if (m >= 0) {
+                    byte[] msg = messages.get(m);
+                    int start = laneBlock[l] * 16;
+                    byte[] src = msg;
+                    if (start + 16 > msg.length) { // The final block carries the padding
+                        paddedBlock(msg, laneBlock[l], block);
+                        src = block;
+                        start = 0;
+                    }
+                    state[l * 4] ^= TableAES.getInt(src, start); // XOR with the chaining value
+                    state[l * 4 + 1] ^= TableAES.getInt(src, start + 4);
+                    state[l * 4 + 2] ^= TableAES.getInt(src, start + 8);
+                    state[l * 4 + 3] ^= TableAES.getInt(src, start + 12);
+                }
+            }
+            tables.encryptLanes(state, BATCH_LANES);
+            for (int l = 0; l < BATCH_LANES; l++) {
+                int m = laneMessage[l];
+                if (m < 0) {
+                    continue;
+                }
+                for (int w = 0; w < 4; w++) {
+                    TableAES.putInt(results[m], laneBlock[l] * 16 + w * 4, state[l * 4 + w]);
+                }
+                if (++laneBlock[l] * 16 == results[m].length) { // Message done, start the next one on this lane
+                    laneMessage[l] = -1;
+                    laneBlock[l] = 0;
+                    active--;
+                    if (next < results.length) {
+                        loadLane(state, l, ivs.get(next), 0);
+                        laneMessage[l] = next++;
+                        active++;
+                    }
+                }
             }
-            
-            cipher(block, true); // Encrypt the block
-            cipherText += blockToHex(block); // Add block to total output ciphertext
-            lastBlock = block; // Update the last block value with the current block
         }
+        return Arrays.asList(results);
+    }
 
-        return cipherText;
+    private static void loadLane(int[] state, int lane, byte[] src, int off) {
+        for (int w = 0; w < 4; w++) {
+            state[lane * 4 + w] = TableAES.getInt(src, off + w * 4);
+        }
+    }
+
+    // Copies block i of the PKCS#7 padded message into dst
+    private static void paddedBlock(byte[] msg, int i, byte[] dst) {
+        int start = i * 16;
+        int n = Math.max(0, Math.min(16, msg.length - start));
+        System.arraycopy(msg, start, dst, 0, n);
+        byte pad = (byte) (getOutputSize(msg.length) - msg.length);
+        for (int j = n; j < 16; j++) {
+            dst[j] = pad;
+        }
     }
 
     public String[][] xorBlocks(String[][] block1, String[][] block2) {
         String[][] result = new String[4][4]; // Create a new block to store the result
         for (int i = 0; i < 4; i++) {
             for (int j = 0; j < 4; j++) {
-                result[i][j] = Integer.toHexString(Integer.parseInt(block1[i][j], 16) ^ Integer.parseInt(block2[i][j], 16)); // XOR the blocks
-                result[i][j] = String.format("%2s", result[i][j]).replace(' ', '0'); // Pad with leading zeros
+                result[i][j] = Codec.hex(Codec.parseHex(block1[i][j], 0) ^ Codec.parseHex(block2[i][j], 0)); // XOR the blocks
             }
         }
         return result;
     }
 
+    /**
+     * <h3>getRandomIV</h3>
+     * <p>Generates a random 16 byte IV using the secure random source in Rand.</p>
+     */
+    static byte[] getRandomIV() {
+        byte[] iv = new byte[16];
+        Rand.getRand().nextBytes(iv);
+        return iv;
+    }
+
     public String[][] getRandomBlock() {
         String[][] block = new String[4][4]; // Create a new block to store the random values
         for (int i = 0; i < 4; i++) {
             for (int j = 0; j < 4; j++) {
-                block[i][j] = Integer.toHexString((int) (Math.random() * 256)); // Generate random hex values
-                block[i][j] = String.format("%2s", block[i][j]).replace(' ', '0'); // Pad with leading zeros
+                block[i][j] = Codec.hex((int) (Math.random() * 256)); // Generate random hex values
             }
         }
         return block;
@@ -127,106 +534,489 @@ public class AES {
         return copy;
     }
 
+    /**
+     * <h3>decrypt</h3>
+     * <p>Decrypts a hex string of ciphertext produced by <b>encrypt()</b> and returns the plaintext String.</p>
+     * @param ciphertext The ciphertext in hex.
+     * @param cbcMode True for CBC mode, false for ECB mode.
+     * @return The plaintext.
+     */
     public String decrypt(String ciphertext, boolean cbcMode) {
+        return decrypt(ciphertext, cbcMode ? Mode.CBC : Mode.ECB);
+    }
+
+    /**
+     * <h3>decrypt</h3>
+     * <p>Decrypts a hex string of ciphertext produced by <b>encrypt()</b> in the given mode and returns the plaintext String.</p>
+     * @param ciphertext The ciphertext in hex.
+     * @param mode The mode of operation.
+     * @return The plaintext.
+     */
+    public String decrypt(String ciphertext, Mode mode) {
+        byte[] buf = hexToBytes(ciphertext);
+        int len = decrypt(buf, 0, buf.length, buf, 0, mode);
+        return bytesToString(buf, 0, len);
+    }
+
+    /**
+     * <h3>decrypt</h3>
+     * <p>Decrypts <b>len</b> bytes of binary ciphertext and removes the PKCS#7 padding. In CBC mode the IV is read from
+     * the first 16 bytes, as written by <b>encrypt()</b>.</p>
+     * <p>The output may be the same array as the input (decryption in place).</p>
+     * @param in The ciphertext buffer.
+     * @param off The offset of the IV and ciphertext in <b>in</b>.
+     * @param len The length of the IV and ciphertext. The ciphertext is a non-zero multiple of 16.
+     * @param out The plaintext buffer, with room for the ciphertext length at <b>outOff</b>.
+     * @param outOff The offset at which to write the plaintext.
+     * @param cbcMode True for CBC mode, false for ECB mode.
+     * @return The plaintext length (padding removed).
+     */
+    public int decrypt(byte[] in, int off, int len, byte[] out, int outOff, boolean cbcMode) {
+        return decrypt(in, off, len, out, outOff, cbcMode ? Mode.CBC : Mode.ECB);
+    }
+
+    /**
+     * <h3>decrypt</h3>
+     * <p>Decrypts <b>len</b> bytes of binary ciphertext in the given mode. See the boolean overload for the buffer rules.</p>
+     * <p>In CTR mode the ciphertext after the initial counter block may be any length and the plaintext is the same length.
+     * In CBC_CS3 mode it may be any length of at least 16 bytes, again with a plaintext of the same length.</p>
+     * @param mode The mode of operation.
+     * @return The plaintext length.
+     */
+    public int decrypt(byte[] in, int off, int len, byte[] out, int outOff, Mode mode) {
+        int textLen = textLength(len, mode);
+        if (outOff + textLen > out.length) {
+            throw new IllegalArgumentException("Output buffer too small, need " + textLen + " bytes.");
+        }
         printKeySchedule();
 
-        int blocks = ciphertext.length() / 32; // Calculate the number of blocks needed
+        byte[] iv = mode == Mode.ECB ? null : Arrays.copyOfRange(in, off, off + 16); // Read before an in-place copy can overwrite it
+        System.arraycopy(in, off + len - textLen, out, outOff, textLen); // Work in place on the output buffer
+        if (mode == Mode.CTR) {
+            CTR.apply(this, iv, out, outOff, textLen, out, outOff);
+            return textLen;
+        }
+        if (mode == Mode.CBC_CS3) {
+            decryptStealing(out, outOff, textLen, iv);
+            return textLen;
+        }
+        if (mode == Mode.CBC) {
+            CBC.decrypt(this, out, outOff, textLen / 16, iv); // Runs in parallel for large inputs
+        } else {
+            decryptBlocks(out, outOff, textLen / 16, false, null);
+        }
+        if (LOG.enabled(Log.Level.DEBUG)) {
+            LOG.log(Log.Level.DEBUG, "Plaintext: " + bytesToHex(out, outOff, textLen));
+        }
+        return textLen - paddingLength(out, outOff + textLen - 16); // Remove PKCS#7 padding
+    }
 
-        String plainText = ""; // Initialize ciphertext
+    // Length of the ciphertext once the IV is taken off, checked against the block size for the padded modes
+    private static int textLength(int len, Mode mode) {
+        int textLen = mode == Mode.ECB ? len : len - 16;
+        if (textLen < 0) {
+            throw new IllegalArgumentException("Ciphertext is shorter than the 16 byte IV, got " + len);
+        }
+        if (mode == Mode.CBC_CS3) {
+            if (textLen < 16) {
+                throw new IllegalArgumentException("CBC_CS3 ciphertext must be at least 16 bytes, got " + textLen);
+            }
+            return textLen;
+        }
+        if (mode != Mode.CTR && (textLen == 0 || textLen % 16 != 0)) {
+            throw new IllegalArgumentException("Ciphertext length must be a non-zero multiple of 16, got " + textLen);
+        }
+        return textLen;
+    }
 
-        String[][] lastBlock = this.iv; // Initialize the last block with the IV
+    /**
+     * <h3>decrypt</h3>
+     * <p>Decrypts the remaining bytes of <b>in</b> into <b>out</b> and removes the PKCS#7 padding. Both heap and direct buffers are supported.</p>
+     * @param in The ciphertext, read from its position to its limit.
+     * @param out The plaintext destination, with room for the ciphertext without its IV.
+     * @param cbcMode True for CBC mode, false for ECB mode.
+     * @return The number of plaintext bytes written to <b>out</b>.
+     */
+    public int decrypt(ByteBuffer in, ByteBuffer out, boolean cbcMode) {
+        return decrypt(in, out, cbcMode ? Mode.CBC : Mode.ECB);
+    }
 
+    /**
+     * <h3>decrypt</h3>
+     * <p>Decrypts the remaining bytes of <b>in</b> into <b>out</b> in the given mode. Both heap and direct buffers are supported.</p>
+     * @param mode The mode of operation.
+     * @return The number of plaintext bytes written to <b>out</b>.
+     */
+    public int decrypt(ByteBuffer in, ByteBuffer out, Mode mode) {
+        int len = in.remaining();
+        int textLen = textLength(len, mode);
+        if (out.remaining() < textLen) {
+            throw new IllegalArgumentException("Output buffer too small, need " + textLen + " bytes.");
+        }
+        if (mode == Mode.CBC_CS3 && !(in.hasArray() && out.hasArray())) {
+            byte[] buf = new byte[len]; // The final blocks change places, so the message is done in one piece
+            in.get(buf);
+            decrypt(buf, 0, len, buf, 0, mode);
+            out.put(buf, 0, textLen);
+            return textLen;
+        }
+        if (in.hasArray() && out.hasArray()) {
+            int plainLen = decrypt(in.array(), in.arrayOffset() + in.position(), len, out.array(), out.arrayOffset() + out.position(), mode);
+            in.position(in.limit());
+            out.position(out.position() + plainLen);
+            return plainLen;
+        }
+
+        printKeySchedule();
+        byte[] chain = null;
+        if (mode != Mode.ECB) {
+            chain = new byte[16];
+            in.get(chain); // The IV written in front of the ciphertext
+        }
+        if (mode == Mode.CTR) {
+            ctrBuffers(in, out, chain);
+            return textLen;
+        }
+        boolean cbcMode = mode == Mode.CBC;
+        byte[] buf = new byte[Math.min(BUFFER_SIZE, textLen)];
+        int written = 0;
+        while (in.hasRemaining()) {
+            int n = Math.min(buf.length, in.remaining());
+            in.get(buf, 0, n);
+            decryptBlocks(buf, 0, n / 16, cbcMode, chain);
+            if (!in.hasRemaining()) {
+                n -= paddingLength(buf, n - 16); // Padding is only in the final block
+            }
+            out.put(buf, 0, n);
+            written += n;
+        }
+        return written;
+    }
+
+    /**
+     * <h3>decryptBlocks</h3>
+     * <p>Decrypts whole blocks in place. In CBC mode <b>chain</b> holds the previous ciphertext block (the IV for the
+     * first call) and is updated with the last ciphertext block consumed, so a message can be decrypted in several calls.</p>
+     * @param buf The buffer holding the blocks.
+     * @param off The offset of the first block.
+     * @param blocks The number of 16 byte blocks.
+     * @param cbcMode True for CBC mode, false for ECB mode.
+     * @param chain The 16 byte chaining value (ignored in ECB mode).
+     */
+    void decryptBlocks(byte[] buf, int off, int blocks, boolean cbcMode, byte[] chain) {
+        if (this.engine != Engine.REFERENCE) {
+            decryptBatches(buf, off, blocks, cbcMode, chain);
+            return;
+        }
+        byte[] prevCipher = cbcMode ? new byte[16] : null;
         for (int i = 0; i < blocks; i++) {
-            String blockHex = ciphertext.substring(i * 32, (i + 1) * 32); // Get the current block
-            String[][] block = hexToBlock(blockHex); // Convert hex string to block (4x4 matrix)
-            String[][] prevCipher = deepCopy(block); // Store the current block temporarily
-            cipher(block, false); // Decrypt the block
+            int pos = off + i * 16;
             if (cbcMode) {
-                Tools.debugLog("XORing with last block: ");
-                String[][] temp = deepCopy(block); // Store the decrypted block temporarily
+                System.arraycopy(buf, pos, prevCipher, 0, 16); // Store the current ciphertext block before it is overwritten
+            }
+            this.blocks.decryptBlock(buf, pos, buf, pos); // Decrypt the block
+            if (cbcMode) {
+                for (int j = 0; j < 16; j++) {
+                    buf[pos + j] ^= chain[j]; // XOR the block with the last ciphertext block (or the IV)
+                }
+                System.arraycopy(prevCipher, 0, chain, 0, 16); // Update the last block value
+                if (LOG.enabled(Log.Level.DEBUG)) {
+                    LOG.log(Log.Level.DEBUG, "XORing with last block: " + System.lineSeparator() + blockText(buf, pos));
+                }
+            }
+        }
+    }
 
-                printBlock(block);
-                printBlock(temp); // Print the last block
-                block = xorBlocks(block, lastBlock); // XOR the block with the IV
-                lastBlock = prevCipher; // Update the last block value with the decrypted block
-                printBlock(block); // Print the XORed block
+    // Fast engine version of decryptBlocks: the engine runs over a batch of blocks at a time, then each block
+    // is XORed with the ciphertext block before it (kept in a copy of the batch)
+    private void decryptBatches(byte[] buf, int off, int blocks, boolean cbcMode, byte[] chain) {
+        if (!cbcMode) {
+            this.blocks.decryptBlocks(buf, off, buf, off, blocks);
+            return;
+        }
+        byte[] batch = new byte[Math.min(blocks, DECRYPT_BATCH) * 16]; // Ciphertext of the current batch
+        for (int first = 0; first < blocks; first += DECRYPT_BATCH) {
+            int n = Math.min(DECRYPT_BATCH, blocks - first);
+            int pos = off + first * 16;
+            System.arraycopy(buf, pos, batch, 0, n * 16);
+            this.blocks.decryptBlocks(buf, pos, buf, pos, n);
+            for (int j = 0; j < 16; j++) {
+                buf[pos + j] ^= chain[j];
             }
-            plainText += blockToHex(block); // Add block to total output plaintext
+            for (int j = 16; j < n * 16; j++) {
+                buf[pos + j] ^= batch[j - 16];
+            }
+            System.arraycopy(batch, (n - 1) * 16, chain, 0, 16); // Update the last block value
         }
+    }
 
-        Tools.debugLog("Plaintext: " + plainText); // Print the ciphertext
-        
-        String paddingRemoved = removePKCS7PaddingFromHex(plainText); // Remove PKCS#7 padding
-        plainText = hexToString(paddingRemoved); // Convert hex string back to plaintext
-        return plainText;
+    // Creates the engine for this instance, falling back to the table engine when the vector engine is not available
+    private BlockCipherEngine newEngine(Engine engine, ExpandedKey key) {
+        switch (engine) {
+            case REFERENCE:
+                return new ReferenceEngine();
+            case BITSLICED:
+                return new BitslicedAES(key);
+            case JCA:
+                return new JcaAES(key);
+            case VECTOR:
+                if (VECTOR_ENGINE != null) {
+                    try {
+                        return VECTOR_ENGINE.newInstance(key);
+                    } catch (InvocationTargetException itEx) {
+                        throw new IllegalStateException("Could not create the vector engine", itEx.getCause());
+                    } catch (ReflectiveOperationException roEx) {
+                        throw new IllegalStateException("Could not create the vector engine", roEx);
+                    }
+                }
+                return new TableAES(key);
+            default:
+                return new TableAES(key);
+        }
+    }
+
+    private static Constructor<? extends BlockCipherEngine> vectorEngine() {
+        try {
+            Class<?> c = Class.forName("VectorAES"); // Initializing the class fails here if the module is missing
+            return c.asSubclass(BlockCipherEngine.class).getConstructor(ExpandedKey.class);
+        } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+            return null; // Fall back to the scalar engines
+        }
+    }
+
+    // A traced instance reports every block in order, so callers must not split its work across threads
+    boolean traced() {
+        return this.trace != null;
+    }
+
+    /**
+     * <h3>vectorAvailable</h3>
+     * @return True if the Vector API engine was found, so Engine.VECTOR is not just the table engine.
+     */
+    static boolean vectorAvailable() {
+        return VECTOR_ENGINE != null;
+    }
+
+    /**
+     * <h3>ReferenceEngine</h3>
+     * <p>The String[][] pipeline of <b>cipher()</b> as a BlockCipherEngine, one block at a time. It is the only engine
+     * that prints the debug trace.</p>
+     */
+    private final class ReferenceEngine implements BlockCipherEngine {
+
+        @Override
+        public void encryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+            run(in, inOff, out, outOff, blocks, true);
+        }
+
+        @Override
+        public void decryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+            run(in, inOff, out, outOff, blocks, false);
+        }
+
+        private void run(byte[] in, int inOff, byte[] out, int outOff, int blocks, boolean encryptMode) {
+            String[][] block = new String[4][4];
+            for (int i = 0; i < blocks; i++) {
+                bytesToBlock(in, inOff + i * 16, block);
+                cipherSteps(block, encryptMode);
+                blockToBytes(block, out, outOff + i * 16);
+            }
+        }
+    }
+
+    /**
+     * <h3>paddingLength</h3>
+     * <p>Reads and validates the PKCS#7 padding at the end of a decrypted final block.</p>
+     * @param buf The buffer holding the final block.
+     * @param blockOff The offset of the final block.
+     * @return The number of padding bytes (1 to 16).
+     */
+    static int paddingLength(byte[] buf, int blockOff) {
+        int paddingByte = buf[blockOff + 15] & 0xff;
+        if (paddingByte < 1 || paddingByte > 16) {
+            throw new IllegalArgumentException("Invalid PKCS#7 padding value: " + paddingByte);
+        }
+        for (int i = 16 - paddingByte; i < 16; i++) {
+            if ((buf[blockOff + i] & 0xff) != paddingByte) {
+                throw new IllegalArgumentException("Invalid PKCS#7 padding value: " + paddingByte);
+            }
+        }
+        return paddingByte;
     }
 
     public String assertPadding(String hex) {
         if (hex.length() % 32 != 0) { // Check if the length of the hex string is a multiple of 32
             int paddingLength = 32 - (hex.length() % 32); // Calculate the padding length needed
-            Tools.debugLog("Padding needed for input text! Length: " + hex.length()/2 + " Padding Length: " + paddingLength/2);
+            int textLength = hex.length() / 2;
+            LOG.debug(() -> "Padding needed for input text! Length: " + textLength + " Padding Length: " + paddingLength/2);
             int paddingBytes = paddingLength / 2; // Calculate the number of padding bytes needed
-            for (int i = 0; i < paddingBytes; i++) {
-                String temp = Integer.toHexString(paddingBytes); // Convert padding bytes to hex
-                temp = String.format("%2s", temp).replace(' ', '0'); // Pad with leading zeros
-                hex += temp; // Add padding bytes
-            }
+            hex += Codec.hex(paddingBytes).repeat(paddingBytes); // Add padding bytes
         } else {
             
             // Pad with 0x10 if the length is a multiple of 32
-            String temp = Integer.toHexString(0x10); // Convert 0x10 to hex
-            for (int i = 0; i < 16; i++) {
-                temp = String.format("%2s", temp).replace(' ', '0'); // Pad with leading zeros
-                hex += temp; // Add padding bytes
-            }
+            hex += Codec.hex(0x10).repeat(16); // Add padding bytes
         }
         return hex; // Return the padded hex string
     }
 
     public String cipher(String[][] block, boolean encryptMode) {
+        if (this.engine != Engine.REFERENCE) {
+            byte[] bytes = new byte[16];
+            blockToBytes(block, bytes, 0);
+            if (encryptMode) {
+                this.blocks.encryptBlock(bytes, 0, bytes, 0);
+            } else {
+                this.blocks.decryptBlock(bytes, 0, bytes, 0);
+            }
+            bytesToBlock(bytes, 0, block);
+            return "";
+        }
+        return cipherSteps(block, encryptMode);
+    }
+
+    // The step-by-step block function on the String[][] state, which is what prints the debug trace
+    private String cipherSteps(String[][] block, boolean encryptMode) {
+        AesTraceListener listener = this.trace;
+        if (listener != null) {
+            return tracedSteps(block, encryptMode, listener);
+        }
         if (encryptMode) {
-            addRoundKey(block, this.roundKey[0]);
+            addRoundKey(block, roundKey()[0]);
 
             for (int round = 1; round < 10; round++) {
                 subBytes(block, encryptMode);
                 shiftRows(block, encryptMode);
                 mixColumns(block, encryptMode);
-                addRoundKey(block, this.roundKey[round]);
+                addRoundKey(block, roundKey()[round]);
             }
 
             subBytes(block, encryptMode);
             shiftRows(block, encryptMode);
-            addRoundKey(block, this.roundKey[10]);
+            addRoundKey(block, roundKey()[10]);
         } else {
-            addRoundKey(block, roundKey[10]);
+            addRoundKey(block, roundKey()[10]);
             shiftRows(block, encryptMode);
             subBytes(block, encryptMode);
 
             for (int round = 1; round < 10; round++) {
-                addRoundKey(block, roundKey[10 - round]);
+                addRoundKey(block, roundKey()[10 - round]);
                 mixColumns(block, encryptMode);
                 shiftRows(block, encryptMode);
                 subBytes(block, encryptMode);
             }
 
-            addRoundKey(block, this.roundKey[0]);
+            addRoundKey(block, roundKey()[0]);
+        }
+        return "";
+    }
+
+    // cipherSteps with each step reported to the listener, rounds numbered as in FIPS 197 (see AesTraceListener)
+    private String tracedSteps(String[][] block, boolean encryptMode, AesTraceListener listener) {
+        if (encryptMode) {
+            traceStep(listener, 0, AesTraceListener.Step.ADD_ROUND_KEY, block, roundKey()[0]);
+            for (int round = 1; round < 10; round++) {
+                traceStep(listener, round, AesTraceListener.Step.SUB_BYTES, block, null);
+                traceStep(listener, round, AesTraceListener.Step.SHIFT_ROWS, block, null);
+                traceStep(listener, round, AesTraceListener.Step.MIX_COLUMNS, block, null);
+                traceStep(listener, round, AesTraceListener.Step.ADD_ROUND_KEY, block, roundKey()[round]);
+            }
+            traceStep(listener, 10, AesTraceListener.Step.SUB_BYTES, block, null);
+            traceStep(listener, 10, AesTraceListener.Step.SHIFT_ROWS, block, null);
+            traceStep(listener, 10, AesTraceListener.Step.ADD_ROUND_KEY, block, roundKey()[10]);
+        } else {
+            traceStep(listener, 0, AesTraceListener.Step.ADD_ROUND_KEY, block, roundKey()[10]);
+            traceStep(listener, 1, AesTraceListener.Step.INV_SHIFT_ROWS, block, null);
+            traceStep(listener, 1, AesTraceListener.Step.INV_SUB_BYTES, block, null);
+            for (int round = 1; round < 10; round++) {
+                traceStep(listener, round, AesTraceListener.Step.ADD_ROUND_KEY, block, roundKey()[10 - round]);
+                traceStep(listener, round, AesTraceListener.Step.INV_MIX_COLUMNS, block, null);
+                traceStep(listener, round + 1, AesTraceListener.Step.INV_SHIFT_ROWS, block, null);
+                traceStep(listener, round + 1, AesTraceListener.Step.INV_SUB_BYTES, block, null);
+            }
+            traceStep(listener, 10, AesTraceListener.Step.ADD_ROUND_KEY, block, roundKey()[0]);
         }
         return "";
     }
 
+    private void traceStep(AesTraceListener listener, int round, AesTraceListener.Step step, String[][] block, String roundKey) {
+        byte[] before = new byte[16];
+        blockToBytes(block, before, 0);
+        switch (step) {
+            case ADD_ROUND_KEY:
+                addRoundKey(block, roundKey);
+                break;
+            case SUB_BYTES:
+            case INV_SUB_BYTES:
+                subBytes(block, step == AesTraceListener.Step.SUB_BYTES);
+                break;
+            case SHIFT_ROWS:
+            case INV_SHIFT_ROWS:
+                shiftRows(block, step == AesTraceListener.Step.SHIFT_ROWS);
+                break;
+            default:
+                mixColumns(block, step == AesTraceListener.Step.MIX_COLUMNS);
+                break;
+        }
+        byte[] after = new byte[16];
+        blockToBytes(block, after, 0);
+        listener.onStep(round, step, before, after);
+    }
+
     public static String stringToHex(String str) {
-        StringBuilder hexString = new StringBuilder();
-        for (char c : str.toCharArray()) { // Convert each character to its hex representation
-            hexString.append(String.format("%02x", (int) c)); // Convert char to hex
+        StringBuilder hexString = new StringBuilder(str.length() * 2);
+        for (int i = 0; i < str.length(); i++) { // Convert each character to its hex representation
+            char c = str.charAt(i);
+            hexString.append(c <= 0xff ? Codec.hex(c) : Integer.toHexString(c)); // Convert char to hex
         }
         return hexString.toString();
     }
 
+    /**
+     * <h3>stringToBytes</h3>
+     * <p>Converts a String to bytes, one byte per character (the same mapping used by <b>stringToHex()</b>).</p>
+     */
+    public static byte[] stringToBytes(String str) {
+        byte[] bytes = new byte[str.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) str.charAt(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * <h3>bytesToString</h3>
+     * <p>Converts bytes back to a String, one character per byte.</p>
+     */
+    public static String bytesToString(byte[] bytes, int off, int len) {
+        char[] chars = new char[len];
+        for (int i = 0; i < len; i++) {
+            chars[i] = (char) (bytes[off + i] & 0xff);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * <h3>bytesToHex</h3>
+     * <p>Converts a range of bytes to a lowercase hex string.</p>
+     */
+    public static String bytesToHex(byte[] bytes, int off, int len) {
+        return Codec.toHex(bytes, off, len);
+    }
+
+    /**
+     * <h3>hexToBytes</h3>
+     * <p>Converts a hex string to bytes.</p>
+     * @throws IllegalArgumentException If the length is odd or a character is not a hex digit.
+     */
+    public static byte[] hexToBytes(String hex) {
+        return Codec.fromHex(hex);
+    }
+
     public static String removePKCS7PaddingFromHex(String hex) {
         if (hex.length() < 2 || hex.length() % 2 != 0)
             throw new IllegalArgumentException("Hex string must have even length and be non-empty.");
 
-        int paddingByte = Integer.parseInt(hex.substring(hex.length() - 2), 16);
+        int paddingByte = Codec.parseHex(hex, hex.length() - 2);
         int totalBytes = hex.length() / 2;
 
         if (paddingByte < 1 || paddingByte > 16 || paddingByte > totalBytes)
@@ -237,47 +1027,32 @@ public class AES {
 
 
     public static String hexToString(String hex) {
-        StringBuilder str = new StringBuilder();
-        for (int i = 0; i < hex.length(); i += 2) { // Convert each pair of hex digits to a character
-            String subStr = hex.substring(i, i + 2);
-            str.append((char) Integer.parseInt(subStr, 16)); // Convert hex to char
+        char[] str = new char[hex.length() / 2];
+        for (int i = 0; i < str.length; i++) { // Convert each pair of hex digits to a character
+            str[i] = (char) Codec.parseHex(hex, i * 2);
         }
-        return str.toString();
+        return new String(str);
     }
     // private byte[][] getBlock(String text, int blockIdx) {
 
     // }
 
     /**
-     * <h3>keyExpansion</h3>
-     * <p>>Accepts a hex string and expands it to have a total of 11 round keys.</p>
-     * @param hex A hex string representing the key.
+     * <h3>roundKey</h3>
+     * <p>Returns the 11 round keys as hex strings, building them from the expanded key on first use.</p>
      */
-    private void keyExpansion(String key) {
-        // TODO: Implement padding if a small key is used and cutoff is a large key is used.
-
-        // First, grab the first 4 words from our key
-        String hexKey = stringToHex(key);
-        for (int i = 0; i < 4; i++) {
-            this.words[i] = Integer.parseInt(hexKey.substring(i * 8, (i + 1) * 8), 16); // Convert hex to int
-        }
-        // Next, we will generate the remaining 40 words using the key schedule
-        for (int i = 4; i < 44; i++) {
-            
-            if (i % 4 == 0) {
-                int rconWord = RC.get(i/4) << 24;
-                this.words[i] = this.words[i - 4] ^ bytesToIntWord(subWord(rotWord(intWordToBytes(this.words[i - 1])))) ^ rconWord; // XOR with previous word and round constant
-            } else {
-                this.words[i] = this.words[i - 4] ^ this.words[i - 1]; // XOR with previous word
+    private String[] roundKey() {
+        String[] hex = this.roundKey;
+        if (hex == null) {
+            hex = new String[11];
+            for (int i = 0; i < 11; i++) {
+                hex[i] = this.key.roundKeyHex(i);
             }
+            this.roundKey = hex;
         }
-
-        for (int i = 0; i < 44; i++) {
-            roundKey[i / 4] += String.format("%08x", this.words[i]); // Convert each word to hex and append to round key
-        }
-
+        return hex;
     }
-    
+
     /**
      * <h3>hexToBlock</h3>
      * <p>Accepts a hex string an arranges it in column major form (4x4 matrix).</p>
@@ -294,6 +1069,45 @@ public class AES {
         return block;
     }
  
+    /**
+     * <h3>blockToBytes</h3>
+     * <p>Reads a column major block (4x4 matrix) into 16 bytes in input order.</p>
+     */
+    private static void blockToBytes(String[][] block, byte[] bytes, int off) {
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                bytes[off + i * 4 + j] = (byte) Codec.parseHex(block[j][i], 0);
+            }
+        }
+    }
+
+    /**
+     * <h3>bytesToBlock</h3>
+     * <p>Writes 16 bytes back into a column major block (4x4 matrix).</p>
+     */
+    private static void bytesToBlock(byte[] bytes, int off, String[][] block) {
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                block[j][i] = Codec.hex(bytes[off + i * 4 + j]);
+            }
+        }
+    }
+
+    /**
+     * <h3>blockText</h3>
+     * <p>Formats 16 bytes as a block (4x4 matrix) the way printBlock prints it, without the final line break.</p>
+     */
+    private static String blockText(byte[] bytes, int off) {
+        StringBuilder text = new StringBuilder(40);
+        for (int r = 0; r < 4; r++) {
+            for (int c = 0; c < 4; c++) {
+                text.append(Codec.hex(bytes[off + c * 4 + r]));
+            }
+            text.append(System.lineSeparator());
+        }
+        return text.toString();
+    }
+
     public static String blockToHex(String[][] block) {
         StringBuilder hex = new StringBuilder();
         for (int i = 0; i < 4; i++) {
@@ -305,7 +1119,8 @@ public class AES {
     }
 
     public static void printBlock(String[][] block) {
-        if (Tools.DEBUG) {
+        if (LOG.enabled(Log.Level.DEBUG)) {
+            Log.flush(); // Printed directly, so let the queued messages go first
                 for (int i = 0; i < 4; i++) {
                     for (int j = 0; j < 4; j++) {
                         System.out.print(block[i][j] + "");
@@ -317,12 +1132,11 @@ public class AES {
     }
 
     public static int[] intWordToBytes(int wordInt) {
-        String hex = Integer.toHexString(wordInt);
         int[] bytes = new int[4];
-        bytes[0] = Integer.parseInt(hex.substring(0, 2), 16); // First byte
-        bytes[1] = Integer.parseInt(hex.substring(2, 4), 16); // Second byte
-        bytes[2] = Integer.parseInt(hex.substring(4, 6), 16); // Third byte
-        bytes[3] = Integer.parseInt(hex.substring(6, 8), 16); // Fourth byte
+        bytes[0] = (wordInt >>> 24) & 0xff; // First byte
+        bytes[1] = (wordInt >>> 16) & 0xff; // Second byte
+        bytes[2] = (wordInt >>> 8) & 0xff; // Third byte
+        bytes[3] = wordInt & 0xff; // Fourth byte
         return bytes;
     }
 
@@ -330,45 +1144,18 @@ public class AES {
         return (bytes[0] << 24) | (bytes[1] << 16) | (bytes[2] << 8) | bytes[3]; // Combine bytes into an int
     }
 
-    private int[] rotWord(int[] word) {
-        int[] rot = new int[4];
-        rot[0] = word[1];
-        rot[1] = word[2];
-        rot[2] = word[3];
-        rot[3] = word[0];
-        return rot;
-    }
-
-    // Apply SubWord (substitute bytes using the AES S-box)
-    private int[] subWord(int[] word) {
-        int[] sub = new int[4];
-        for (int i = 0; i < word.length; i++) {
-            sub[i] = SBox.sbox(word[i]); // Apply S-box substitution
-        }
-        return sub;
-    }
-
     private void subBytes(String[][] block, boolean mode) {
-        Tools.debugLog("Substituting Bytes");
-
-        printBlock(block); // Print the original block
-
         int[][] blockInt = new int[4][4]; // Create a new block to store the substituted values
 
         for(int r = 0; r < 4; r++) {
             for(int c = 0; c < 4; c++) {
-                blockInt[r][c] = mode ? SBox.sbox(Integer.parseInt(block[r][c], 16)) : SBox.invSbox(Integer.parseInt(block[r][c], 16));
-                block[r][c] = String.format("%2s", Integer.toHexString(blockInt[r][c])).replace(' ', '0'); // Convert to hex and pad with leading zeros
+                blockInt[r][c] = mode ? SBox.sbox(Codec.parseHex(block[r][c], 0)) : SBox.invSbox(Codec.parseHex(block[r][c], 0));
+                block[r][c] = Codec.hex(blockInt[r][c]); // Convert to hex and pad with leading zeros
             }
         }
-
-        printBlock(block); // Print the block after substitution
     }
 
     private void shiftRows(String[][] block, boolean mode) {
-        Tools.debugLog("Shifting Rows");
-        printBlock(block); // Print the original block
-
         for (int r = 1; r < 4; r++) {
             String[] temp = new String[4];
             for (int c = 0; c < 4; c++) {
@@ -376,8 +1163,6 @@ public class AES {
             }
             block[r] = temp;
         }
-
-        printBlock(block); // Print the block after shifts
     }
 
     private int mulBy2(int b) {
@@ -399,8 +1184,6 @@ public class AES {
     private int mulBy14(int b) { return mulBy2(mulBy2(mulBy2(b))) ^ mulBy2(mulBy2(b)) ^ mulBy2(b); }
 
     private void mixColumns(String[][] block, boolean mode) {
-        Tools.debugLog("Mixing Columns");
-        printBlock(block); // Print the original block
         if (mode) {
             // Encrypt - Mix Columns
             for (int i = 0; i < 4; i++) {
@@ -408,7 +1191,7 @@ public class AES {
 
                 // Convert hex to int
                 for (int j = 0; j < 4; j++) {
-                    col[j] = Integer.parseInt(block[j][i], 16); // Convert hex to int
+                    col[j] = Codec.parseHex(block[j][i], 0); // Convert hex to int
                 }
 
                 int s0 = col[0], s1 = col[1], s2 = col[2], s3 = col[3];
@@ -420,10 +1203,10 @@ public class AES {
                 blockInt[2][i] = (s0 ^ s1 ^ mulBy2(s2) ^ mulBy3(s3));
                 blockInt[3][i] = (mulBy3(s0) ^ s1 ^ s2 ^ mulBy2(s3));
 
-                block[0][i] = String.format("%2s", Integer.toHexString(blockInt[0][i])).replace(' ', '0'); // Convert to hex and pad with leading zeros
-                block[1][i] = String.format("%2s", Integer.toHexString(blockInt[1][i])).replace(' ', '0'); // Convert to hex and pad with leading zeros
-                block[2][i] = String.format("%2s", Integer.toHexString(blockInt[2][i])).replace(' ', '0'); // Convert to hex and pad with leading zeros
-                block[3][i] = String.format("%2s", Integer.toHexString(blockInt[3][i])).replace(' ', '0'); // Convert to hex and pad with leading zeros
+                block[0][i] = Codec.hex(blockInt[0][i]); // Convert to hex and pad with leading zeros
+                block[1][i] = Codec.hex(blockInt[1][i]); // Convert to hex and pad with leading zeros
+                block[2][i] = Codec.hex(blockInt[2][i]); // Convert to hex and pad with leading zeros
+                block[3][i] = Codec.hex(blockInt[3][i]); // Convert to hex and pad with leading zeros
             }
 
         } else {
@@ -433,7 +1216,7 @@ public class AES {
 
                 // Convert hex to int
                 for (int j = 0; j < 4; j++) {
-                    col[j] = Integer.parseInt(block[j][i], 16); // Convert hex to int
+                    col[j] = Codec.parseHex(block[j][i], 0); // Convert hex to int
                 }
 
                 int s0 = col[0], s1 = col[1], s2 = col[2], s3 = col[3];
@@ -445,37 +1228,31 @@ public class AES {
                 blockInt[2][i] = mulBy13(s0) ^ mulBy9(s1)  ^ mulBy14(s2) ^ mulBy11(s3);
                 blockInt[3][i] = mulBy11(s0) ^ mulBy13(s1) ^ mulBy9(s2)  ^ mulBy14(s3);
 
-                block[0][i] = String.format("%2s", Integer.toHexString(blockInt[0][i])).replace(' ', '0'); // Convert to hex and pad with leading zeros
-                block[1][i] = String.format("%2s", Integer.toHexString(blockInt[1][i])).replace(' ', '0'); // Convert to hex and pad with leading zeros
-                block[2][i] = String.format("%2s", Integer.toHexString(blockInt[2][i])).replace(' ', '0'); // Convert to hex and pad with leading zeros
-                block[3][i] = String.format("%2s", Integer.toHexString(blockInt[3][i])).replace(' ', '0'); // Convert to hex and pad with leading zeros
+                block[0][i] = Codec.hex(blockInt[0][i]); // Convert to hex and pad with leading zeros
+                block[1][i] = Codec.hex(blockInt[1][i]); // Convert to hex and pad with leading zeros
+                block[2][i] = Codec.hex(blockInt[2][i]); // Convert to hex and pad with leading zeros
+                block[3][i] = Codec.hex(blockInt[3][i]); // Convert to hex and pad with leading zeros
             }
         }
-        // Print the block after mixing columns
-        printBlock(block); // Print the block after mixing columns
     }
 
     private void addRoundKey(String[][] block, String roundKey) {
-        Tools.debugLog("Adding Round Key");
-
         String[][] roundKeyBlock = hexToBlock(roundKey); // Convert the round key to a block
 
-        printBlock(block); // Print the original block
-        printBlock(roundKeyBlock); // Print the round key block
-
         for (int r = 0; r < 4; r++) {
             for (int c = 0; c < 4; c++) {
-                block[r][c] = Integer.toHexString(Integer.parseInt(block[r][c], 16) ^ Integer.parseInt(roundKeyBlock[r][c], 16));
-                block[r][c] = String.format("%2s", block[r][c]).replace(' ', '0'); // Pad with leading zeros
+                block[r][c] = Codec.hex(Codec.parseHex(block[r][c], 0) ^ Codec.parseHex(roundKeyBlock[r][c], 0));
             }
         }
-        printBlock(block); // Print the block after adding the round key
     }
 
     private void printKeySchedule() {
-        Tools.debugLog("\nKey Schedule:");
-        for (int i = 0; i < this.roundKey.length; i++) {
-            Tools.debugLog(this.roundKey[i]);
+        if (LOG.enabled(Log.Level.DEBUG)) {
+            LOG.log(Log.Level.DEBUG, "\nKey Schedule:");
+            String[] hex = roundKey();
+            for (int i = 0; i < hex.length; i++) {
+                LOG.log(Log.Level.DEBUG, hex[i]);
+            }
         }
     }
 
@@ -493,9 +1270,11 @@ public class AES {
         
         AES aes = new AES(key); // Create our AES object with the provided example key (AES Debug.txt)
         String cipherText = aes.encrypt(plainText, true); // Encrypt the provided example plaintext (AES Debug.txt)
+        Log.flush(); // Let the debug output finish first
         System.out.println("Encrypted: " + cipherText); // Print the ciphertext in hex format
 
         String decryptedText = aes.decrypt(cipherText, true); // Decrypt the ciphertext
+        Log.flush();
         System.out.println("Decrypted: " + decryptedText); // Print the decrypted text
 
     }
@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <h1>AESFile</h1>
+ * <p>Encrypts and decrypts whole files through FileChannel, using the same layout as AESOutputStream (IV first in CBC mode).</p>
+ * <p>The data is processed one fixed size chunk at a time, so memory use is bounded no matter how large the file is.
+ * Files of at least MAP_THRESHOLD bytes are read through memory mapped windows instead of read() calls.</p>
+ */
+public class AESFile {
+
+    static final int CHUNK_SIZE = 1 << 16; // Bytes encrypted per pass, a multiple of 16
+    static final long MAP_THRESHOLD = 64L << 20; // Files this large are memory mapped
+    static final long MAP_WINDOW = 256L << 20; // Size of each mapped region, a multiple of CHUNK_SIZE
+
+    private AESFile() {
+    }
+
+    /**
+     * <h3>encrypt</h3>
+     * <p>Encrypts <b>source</b> into <b>target</b>, replacing any existing target file.</p>
+     * @param aes The cipher to encrypt with.
+     * @param source The plaintext file.
+     * @param target The ciphertext file.
+     * @param cbcMode True for CBC mode, false for ECB mode.
+     * @return The number of bytes written to <b>target</b>.
+     * @throws IOException If either file cannot be read or written.
+     */
+    public static long encrypt(AES aes, Path source, Path target, boolean cbcMode) throws IOException {
+        try (FileChannel src = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ChunkReader reader = new ChunkReader(src, 0);
+            byte[] chain = AES.getRandomIV();
+            long written = 0;
+            if (cbcMode) {
+                written += writeFully(dst, chain, 16); // The IV travels with the ciphertext
+            }
+
+            byte[] buf = new byte[CHUNK_SIZE];
+            long remaining = reader.size;
+            while (remaining >= CHUNK_SIZE) { // Whole chunks, padding is only added at the end of the file
+                reader.read(buf, CHUNK_SIZE);
+                aes.encryptBlocks(buf, 0, CHUNK_SIZE / 16, cbcMode, chain);
+                written += writeFully(dst, buf, CHUNK_SIZE);
+                remaining -= CHUNK_SIZE;
+            }
+            int tail = (int) remaining;
+            int padded = AES.getOutputSize(tail);
+            reader.read(buf, tail);
+            for (int i = tail; i < padded; i++) {
+                buf[i] = (byte) (padded - tail); // PKCS#7 padding
+            }
+            aes.encryptBlocks(buf, 0, padded / 16, cbcMode, chain);
+            written += writeFully(dst, buf, padded);
+            return written;
+        }
+    }
+
+    /**
+     * <h3>decrypt</h3>
+     * <p>Decrypts <b>source</b> (as written by <b>encrypt()</b>) into <b>target</b>, replacing any existing target file.</p>
+     * @param aes The cipher to decrypt with.
+     * @param source The ciphertext file.
+     * @param target The plaintext file.
+     * @param cbcMode True for CBC mode, false for ECB mode.
+     * @return The number of plaintext bytes written to <b>target</b>.
+     * @throws IOException If either file cannot be read or written, or the ciphertext is truncated.
+     */
+    public static long decrypt(AES aes, Path source, Path target, boolean cbcMode) throws IOException {
+        try (FileChannel src = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            byte[] chain = new byte[16];
+            long offset = 0;
+            if (cbcMode) {
+                if (src.size() < 16) {
+                    throw new IOException("File ends before the IV.");
+                }
+                new ChunkReader(src, 0).read(chain, 16);
+                offset = 16;
+            }
+            ChunkReader reader = new ChunkReader(src, offset);
+            if (reader.size == 0 || reader.size % 16 != 0) {
+                throw new IOException("Ciphertext length must be a non-zero multiple of 16, got " + reader.size);
+            }
+
+            byte[] buf = new byte[CHUNK_SIZE];
+            long remaining = reader.size;
+            long written = 0;
+            while (remaining > 0) {
+                int n = (int) Math.min(CHUNK_SIZE, remaining);
+                reader.read(buf, n);
+                if (cbcMode) {
+                    CBC.decrypt(aes, buf, 0, n / 16, chain);
+                } else {
+                    aes.decryptBlocks(buf, 0, n / 16, false, null);
+                }
+                remaining -= n;
+                if (remaining == 0) {
+                    n -= AES.paddingLength(buf, n - 16); // Padding is only in the final block
+                }
+                written += writeFully(dst, buf, n);
+            }
+            return written;
+        }
+    }
+
+    private static int writeFully(FileChannel dst, byte[] buf, int len) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buf, 0, len);
+        while (bb.hasRemaining()) {
+            dst.write(bb);
+        }
+        return len;
+    }
+
+    /**
+     * <h3>ChunkReader</h3>
+     * <p>Reads a file sequentially from a start offset, either with positional reads or through mapped windows.</p>
+     */
+    private static class ChunkReader {
+        private final FileChannel channel;
+        private final long size; // Bytes from the start offset to the end of the file
+        private final long start;
+        private final boolean mapped;
+        private MappedByteBuffer window;
+        private long position; // Relative to start
+
+        ChunkReader(FileChannel channel, long start) throws IOException {
+            this.channel = channel;
+            this.start = start;
+            this.size = channel.size() - start;
+            this.mapped = this.size >= MAP_THRESHOLD;
+        }
+
+        void read(byte[] dst, int len) throws IOException {
+            int done = 0;
+            while (done < len) {
+                if (this.mapped) {
+                    if (this.window == null || !this.window.hasRemaining()) {
+                        long windowSize = Math.min(MAP_WINDOW, this.size - this.position);
+                        this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, this.start + this.position, windowSize);
+                    }
+                    int n = Math.min(len - done, this.window.remaining());
+                    this.window.get(dst, done, n);
+                    done += n;
+                    this.position += n;
+                } else {
+                    int n = this.channel.read(ByteBuffer.wrap(dst, done, len - done), this.start + this.position);
+                    if (n < 0) {
+                        throw new IOException("Unexpected end of file.");
+                    }
+                    done += n;
+                    this.position += n;
+                }
+            }
+        }
+    }
+}
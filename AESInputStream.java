@@ -0,0 +1,139 @@
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <h1>AESInputStream</h1>
+ * <p>An input stream which reads ciphertext written by AESOutputStream from the wrapped stream and returns the plaintext.</p>
+ * <p>Ciphertext is decrypted one fixed size buffer at a time. The last block read is held back until the end of the
+ * wrapped stream is reached, because only the final block carries the PKCS#7 padding.</p>
+ */
+public class AESInputStream extends FilterInputStream {
+
+    private final AES aes;
+    private final boolean cbcMode;
+    private final byte[] chain = new byte[16]; // Last ciphertext block decrypted (the IV before the first block)
+    private final byte[] buf = new byte[AES.BUFFER_SIZE]; // Plaintext in [pos, lim), ciphertext not yet decrypted in [lim, have)
+    private int pos;
+    private int lim;
+    private int have;
+    private boolean started; // Whether the IV has been read
+    private boolean finished; // Whether the final block has been decrypted
+
+    /**
+     * <h3>AESInputStream Constructor</h3>
+     * @param in The stream holding the ciphertext.
+     * @param aes The cipher to decrypt with.
+     * @param cbcMode True for CBC mode, false for ECB mode.
+     */
+    public AESInputStream(InputStream in, AES aes, boolean cbcMode) {
+        super(in);
+        this.aes = aes;
+        this.cbcMode = cbcMode;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int n = read(one, 0, 1);
+        return n < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (this.pos == this.lim) {
+            if (this.finished) {
+                return -1;
+            }
+            fill();
+        }
+        int n = Math.min(len, this.lim - this.pos);
+        System.arraycopy(this.buf, this.pos, b, off, n);
+        this.pos += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        byte[] scratch = new byte[(int) Math.min(n, 512)];
+        while (skipped < n) {
+            int r = read(scratch, 0, (int) Math.min(n - skipped, scratch.length));
+            if (r < 0) {
+                break;
+            }
+            skipped += r;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return this.lim - this.pos;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    // Reads more ciphertext and decrypts every block that is known not to be the final one
+    private void fill() throws IOException {
+        if (!this.started) {
+            this.started = true;
+            if (this.cbcMode) {
+                readIV();
+            }
+        }
+
+        // Move the ciphertext that was held back to the front of the buffer
+        System.arraycopy(this.buf, this.lim, this.buf, 0, this.have - this.lim);
+        this.have -= this.lim;
+        this.pos = 0;
+        this.lim = 0;
+
+        int n = this.in.read(this.buf, this.have, this.buf.length - this.have);
+        if (n < 0) {
+            if (this.have == 0 || this.have % 16 != 0) {
+                throw new IOException("Truncated ciphertext: " + this.have + " trailing bytes.");
+            }
+            this.aes.decryptBlocks(this.buf, 0, this.have / 16, this.cbcMode, this.chain);
+            this.lim = this.have - AES.paddingLength(this.buf, this.have - 16); // Remove PKCS#7 padding
+            this.finished = true;
+            return;
+        }
+        this.have += n;
+
+        // A whole block at the end of the buffer may be the final block, so it waits for the next fill
+        int whole = this.have - this.have % 16;
+        int ready = this.have % 16 == 0 ? whole - 16 : whole;
+        if (ready > 0) {
+            this.aes.decryptBlocks(this.buf, 0, ready / 16, this.cbcMode, this.chain);
+            this.lim = ready;
+        }
+    }
+
+    private void readIV() throws IOException {
+        int got = 0;
+        while (got < 16) {
+            int n = this.in.read(this.chain, got, 16 - got);
+            if (n < 0) {
+                throw new EOFException("Stream ended before the IV was read.");
+            }
+            got += n;
+        }
+    }
+}
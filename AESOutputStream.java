@@ -0,0 +1,106 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <h1>AESOutputStream</h1>
+ * <p>An output stream which encrypts everything written to it with AES and passes the ciphertext on to the wrapped stream.</p>
+ * <p>In CBC mode a random IV is written ahead of the ciphertext. Data is encrypted one fixed size buffer at a time, so the
+ * memory used does not depend on the length of the message. PKCS#7 padding is only added when the stream is closed.</p>
+ */
+public class AESOutputStream extends FilterOutputStream {
+
+    private final AES aes;
+    private final boolean cbcMode;
+    private final byte[] chain; // Last ciphertext block written (the IV before the first block)
+    private final byte[] buf = new byte[AES.BUFFER_SIZE]; // Plaintext waiting to be encrypted
+    private int count; // Number of bytes in buf
+    private boolean closed;
+
+    /**
+     * <h3>AESOutputStream Constructor</h3>
+     * @param out The stream which receives the ciphertext.
+     * @param aes The cipher to encrypt with.
+     * @param cbcMode True for CBC mode, false for ECB mode.
+     * @throws IOException If the IV cannot be written.
+     */
+    public AESOutputStream(OutputStream out, AES aes, boolean cbcMode) throws IOException {
+        super(out);
+        this.aes = aes;
+        this.cbcMode = cbcMode;
+        this.chain = AES.getRandomIV();
+        if (cbcMode) {
+            out.write(this.chain); // The IV travels with the ciphertext
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        this.buf[this.count++] = (byte) b;
+        if (this.count == this.buf.length) {
+            drain();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int n = Math.min(len, this.buf.length - this.count);
+            System.arraycopy(b, off, this.buf, this.count, n);
+            this.count += n;
+            off += n;
+            len -= n;
+            if (this.count == this.buf.length) {
+                drain();
+            }
+        }
+    }
+
+    /**
+     * <h3>flush</h3>
+     * <p>Flushes the wrapped stream. Bytes short of a whole buffer stay here until more data arrives or the stream is closed.</p>
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        this.out.flush();
+    }
+
+    /**
+     * <h3>close</h3>
+     * <p>Pads and encrypts the remaining bytes, writes them and closes the wrapped stream.</p>
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            int padded = AES.getOutputSize(this.count); // Never larger than the buffer, since a full buffer is always drained
+            for (int i = this.count; i < padded; i++) {
+                this.buf[i] = (byte) (padded - this.count); // PKCS#7 padding
+            }
+            this.aes.encryptBlocks(this.buf, 0, padded / 16, this.cbcMode, this.chain);
+            this.out.write(this.buf, 0, padded);
+            this.out.flush();
+        } finally {
+            this.out.close();
+        }
+    }
+
+    // Encrypts a full buffer and passes it on
+    private void drain() throws IOException {
+        this.aes.encryptBlocks(this.buf, 0, this.buf.length / 16, this.cbcMode, this.chain);
+        this.out.write(this.buf, 0, this.buf.length);
+        this.count = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
@@ -0,0 +1,288 @@
+import java.util.Arrays;
+
+/**
+ * <h1>AESSession</h1>
+ * <p>Encrypts or decrypts one message that arrives in pieces, in the style of a JCA Cipher: <b>init()</b>, then
+ * <b>update()</b> for each chunk, then <b>doFinal()</b>. Each update returns the output of every block that is
+ * complete and known not to be the last one, written into the caller's buffer, so output follows input chunk by chunk
+ * and the memory used does not depend on the length of the message.</p>
+ * <p>At most one block is held back between calls: the partial block (or, when decrypting, the last whole block, which
+ * may hold the padding) in ECB and CBC mode, and nothing in CTR mode, which keeps the rest of its current keystream
+ * block instead. CBC_CS3 has to hold back the last two blocks, since they are swapped.</p>
+ * <p>The output is the same as the binary <b>AES.encrypt()</b> and <b>decrypt()</b> without the IV, which is passed to
+ * <b>init()</b> and travels separately (see <b>getIV()</b>). After <b>doFinal()</b> the session has to be initialized
+ * again, so an IV is never reused by accident. A session is not thread-safe.</p>
+ */
+public class AESSession {
+
+    private AES aes; // Null until init() and after doFinal()
+    private AES.Mode mode;
+    private boolean encrypting;
+    private byte[] iv;
+    private final byte[] chain = new byte[16]; // Previous ciphertext block in CBC modes, initial counter in CTR mode
+    private final byte[] pending = new byte[32]; // Input held back for the next call
+    private int pendingLen;
+    private final byte[] keystream = new byte[16]; // CTR keystream block in use
+    private int keystreamUsed = 16; // Bytes of it already used, 16 when there is none
+    private long counterBlock; // Index of the next CTR keystream block
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  FUNCTIONS                                                                                                         ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>init</h3>
+     * <p>Starts a message with a new key. Keys are expanded through the key cache, so repeating a key is cheap.</p>
+     * @param encrypt True to encrypt, false to decrypt.
+     * @param key The key String.
+     * @param mode The mode of operation.
+     * @param iv The 16 byte IV or initial counter block, ignored in ECB mode. When encrypting it may be null to have a
+     *           random one generated.
+     */
+    public void init(boolean encrypt, String key, AES.Mode mode, byte[] iv) {
+        init(encrypt, new AES(key), mode, iv);
+    }
+
+    /**
+     * <h3>init</h3>
+     * <p>Starts a message with an existing cipher instance. Any message in progress is dropped.</p>
+     * @param encrypt True to encrypt, false to decrypt.
+     * @param aes The cipher.
+     * @param mode The mode of operation.
+     * @param iv The 16 byte IV or initial counter block, ignored in ECB mode. When encrypting it may be null to have a
+     *           random one generated.
+     * @throws IllegalArgumentException If the IV is missing when decrypting or is not 16 bytes.
+     */
+    public void init(boolean encrypt, AES aes, AES.Mode mode, byte[] iv) {
+        if (mode != AES.Mode.ECB) {
+            if (iv == null && encrypt) {
+                iv = AES.getRandomIV();
+            }
+            if (iv == null || iv.length != 16) {
+                throw new IllegalArgumentException(mode + " needs a 16 byte IV.");
+            }
+            System.arraycopy(iv, 0, this.chain, 0, 16);
+        }
+        this.iv = iv == null ? null : iv.clone();
+        this.aes = aes;
+        this.mode = mode;
+        this.encrypting = encrypt;
+        reset();
+    }
+
+    /**
+     * <h3>getIV</h3>
+     * @return A copy of the IV of the current message, or null in ECB mode.
+     */
+    public byte[] getIV() {
+        return this.iv == null ? null : this.iv.clone();
+    }
+
+    /**
+     * <h3>getOutputSize</h3>
+     * <p>Returns the most output that <b>update()</b> with <b>len</b> more bytes, or <b>doFinal()</b> after it, can
+     * write, for sizing the output buffer.</p>
+     * @param len The length of the next chunk.
+     * @return The output buffer size needed.
+     */
+    public int getOutputSize(int len) {
+        ensureInit();
+        int total = this.pendingLen + len;
+        return this.encrypting && padded() ? total + 16 : total;
+    }
+
+    /**
+     * <h3>update</h3>
+     * <p>Processes the next chunk of the message and writes the output of every block that is now complete.</p>
+     * <p>The output may be the same array as the input. When the ranges overlap the chunk is copied first.</p>
+     * @param in The input buffer.
+     * @param off The offset of the chunk.
+     * @param len The length of the chunk.
+     * @param out The output buffer.
+     * @param outOff The offset at which to write the output.
+     * @return The number of bytes written to <b>out</b>.
+     * @throws IllegalStateException If the session has not been initialized.
+     * @throws IllegalArgumentException If <b>out</b> is too small.
+     */
+    public int update(byte[] in, int off, int len, byte[] out, int outOff) {
+        ensureInit();
+        if (this.mode == AES.Mode.CTR) {
+            checkRoom(out, outOff, len);
+            xorKeystream(in, off, len, out, outOff);
+            return len;
+        }
+
+        int total = this.pendingLen + len;
+        int emit = total - heldBack(total);
+        if (emit == 0) {
+            System.arraycopy(in, off, this.pending, this.pendingLen, len);
+            this.pendingLen = total;
+            return 0;
+        }
+        checkRoom(out, outOff, emit);
+        if (in == out && off < outOff + emit && outOff < off + len) {
+            in = Arrays.copyOfRange(in, off, off + len); // Output would run ahead of the input still to be read
+            off = 0;
+        }
+
+        int fromPending = Math.min(this.pendingLen, emit);
+        int fromIn = emit - fromPending;
+        System.arraycopy(this.pending, 0, out, outOff, fromPending);
+        System.arraycopy(in, off, out, outOff + fromPending, fromIn);
+        System.arraycopy(this.pending, fromPending, this.pending, 0, this.pendingLen - fromPending); // Keep the rest
+        this.pendingLen -= fromPending;
+        System.arraycopy(in, off + fromIn, this.pending, this.pendingLen, len - fromIn);
+        this.pendingLen += len - fromIn;
+
+        int blocks = emit / 16;
+        if (this.encrypting) {
+            this.aes.encryptBlocks(out, outOff, blocks, this.mode != AES.Mode.ECB, this.chain);
+        } else if (this.mode == AES.Mode.ECB) {
+            this.aes.decryptBlocks(out, outOff, blocks, false, null);
+        } else {
+            CBC.decrypt(this.aes, out, outOff, blocks, this.chain); // CBC_CS3 is plain CBC up to the last two blocks
+        }
+        return emit;
+    }
+
+    /**
+     * <h3>update</h3>
+     * <p>Same as <b>update()</b> above, returning the output in a new array.</p>
+     * @param chunk The next chunk of the message.
+     * @return The output of the blocks completed by this chunk, possibly empty.
+     */
+    public byte[] update(byte[] chunk) {
+        byte[] out = new byte[getOutputSize(chunk.length)];
+        int n = update(chunk, 0, chunk.length, out, 0);
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    /**
+     * <h3>doFinal</h3>
+     * <p>Finishes the message: adds the PKCS#7 padding when encrypting in ECB and CBC mode, checks and removes it when
+     * decrypting, and swaps the last two blocks in CBC_CS3 mode. The session then has to be initialized again.</p>
+     * @param out The output buffer.
+     * @param outOff The offset at which to write the output.
+     * @return The number of bytes written to <b>out</b>.
+     * @throws IllegalArgumentException If the message length does not suit the mode, the padding is invalid or <b>out</b>
+     *                                  is too small.
+     */
+    public int doFinal(byte[] out, int outOff) {
+        ensureInit();
+        try {
+            return finish(out, outOff);
+        } finally {
+            Arrays.fill(this.pending, (byte) 0);
+            Arrays.fill(this.keystream, (byte) 0);
+            this.aes = null;
+        }
+    }
+
+    /**
+     * <h3>doFinal</h3>
+     * <p>Same as <b>doFinal()</b> above, returning the output in a new array.</p>
+     * @return The last of the output, possibly empty.
+     */
+    public byte[] doFinal() {
+        byte[] out = new byte[getOutputSize(0)];
+        int n = doFinal(out, 0);
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    private int finish(byte[] out, int outOff) {
+        int len = this.pendingLen;
+        switch (this.mode) {
+            case CTR:
+                return 0;
+            case CBC_CS3:
+                if (len < 16) {
+                    throw new IllegalArgumentException("CBC_CS3 messages must be at least 16 bytes, got " + len + " in the final blocks");
+                }
+                checkRoom(out, outOff, len);
+                if (this.encrypting) {
+                    this.aes.encryptStealing(this.pending, 0, len, this.chain);
+                } else {
+                    this.aes.decryptStealing(this.pending, 0, len, this.chain);
+                }
+                System.arraycopy(this.pending, 0, out, outOff, len);
+                return len;
+            default:
+                boolean cbcMode = this.mode == AES.Mode.CBC;
+                if (this.encrypting) {
+                    checkRoom(out, outOff, 16);
+                    for (int i = len; i < 16; i++) {
+                        this.pending[i] = (byte) (16 - len); // PKCS#7 padding
+                    }
+                    this.aes.encryptBlocks(this.pending, 0, 1, cbcMode, this.chain);
+                    System.arraycopy(this.pending, 0, out, outOff, 16);
+                    return 16;
+                }
+                if (len != 16) {
+                    throw new IllegalArgumentException("Ciphertext length must be a non-zero multiple of 16.");
+                }
+                this.aes.decryptBlocks(this.pending, 0, 1, cbcMode, this.chain);
+                int plainLen = 16 - AES.paddingLength(this.pending, 0);
+                checkRoom(out, outOff, plainLen);
+                System.arraycopy(this.pending, 0, out, outOff, plainLen);
+                return plainLen;
+        }
+    }
+
+    // Bytes of the input so far that have to wait for the next call or doFinal()
+    private int heldBack(int total) {
+        int partial = total % 16;
+        if (this.mode == AES.Mode.CBC_CS3) {
+            return Math.min(total, 16 + (partial == 0 ? 16 : partial)); // The last two blocks change places
+        }
+        if (this.encrypting) {
+            return partial; // A whole block can go, the padding block is added by doFinal()
+        }
+        return partial == 0 ? Math.min(total, 16) : partial; // The last whole block may carry the padding
+    }
+
+    // CTR: use up the current keystream block, run whole blocks through CTR, and start a new block for the rest
+    private void xorKeystream(byte[] in, int off, int len, byte[] out, int outOff) {
+        int i = 0;
+        while (i < len && this.keystreamUsed < 16) {
+            out[outOff + i] = (byte) (in[off + i] ^ this.keystream[this.keystreamUsed++]);
+            i++;
+        }
+        int whole = (len - i) & ~15;
+        if (whole > 0) {
+            CTR.apply(this.aes, this.chain, this.counterBlock, in, off + i, whole, out, outOff + i, false);
+            this.counterBlock += whole / 16;
+            i += whole;
+        }
+        if (i < len) {
+            Arrays.fill(this.keystream, (byte) 0);
+            CTR.xor(this.aes, this.chain, this.counterBlock++, this.keystream, 0, 16, this.keystream, 0, false);
+            this.keystreamUsed = 0;
+            while (i < len) {
+                out[outOff + i] = (byte) (in[off + i] ^ this.keystream[this.keystreamUsed++]);
+                i++;
+            }
+        }
+    }
+
+    private boolean padded() {
+        return this.mode == AES.Mode.ECB || this.mode == AES.Mode.CBC;
+    }
+
+    private void reset() {
+        this.pendingLen = 0;
+        this.keystreamUsed = 16;
+        this.counterBlock = 0;
+    }
+
+    private void ensureInit() {
+        if (this.aes == null) {
+            throw new IllegalStateException("Session not initialized, call init() first.");
+        }
+    }
+
+    private static void checkRoom(byte[] out, int outOff, int len) {
+        if (outOff + len > out.length) {
+            throw new IllegalArgumentException("Output buffer too small, need " + len + " bytes.");
+        }
+    }
+}
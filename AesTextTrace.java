@@ -0,0 +1,94 @@
+import java.io.PrintStream;
+
+/**
+ * <h1>AesTextTrace</h1>
+ * <p>An AesTraceListener that prints each step in the format of the AES debug output: a timestamped step name, the
+ * state before the step, the round key for AddRoundKey, then the state after the step, each as a 4x4 block of hex bytes.</p>
+ * <p>By default the steps go to the AES log at TRACE level, so they stay in order with the other AES debug messages.
+ * Given a stream, each step is printed to it with a single print call, so steps traced from different threads do not
+ * interleave.</p>
+ */
+public class AesTextTrace implements AesTraceListener {
+
+    private static final Log LOG = Log.get("AES");
+
+    private final PrintStream out; // Null to write to the log
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  CONSTRUCTORS                                                                                                      ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>AesTextTrace Constructor</h3>
+     * <p>Traces to the AES log at TRACE level.</p>
+     */
+    public AesTextTrace() {
+        this.out = null;
+    }
+
+    /**
+     * <h3>AesTextTrace Constructor</h3>
+     * @param out The stream to print the trace to.
+     */
+    public AesTextTrace(PrintStream out) {
+        this.out = out;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  FUNCTIONS                                                                                                         ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public void onStep(int round, Step step, byte[] before, byte[] after) {
+        if (this.out == null && !LOG.enabled(Log.Level.TRACE)) {
+            return;
+        }
+        StringBuilder text = new StringBuilder(256);
+        if (this.out != null) {
+            text.append(Tools.getDateString()).append(" - "); // The log adds its own timestamp
+        }
+        text.append(title(step)).append(System.lineSeparator());
+        appendBlock(text, before);
+        if (step == Step.ADD_ROUND_KEY) {
+            byte[] roundKey = new byte[16];
+            for (int i = 0; i < 16; i++) {
+                roundKey[i] = (byte) (before[i] ^ after[i]); // The key is whatever was XORed in
+            }
+            appendBlock(text, roundKey);
+        }
+        appendBlock(text, after);
+        if (this.out != null) {
+            this.out.print(text);
+        } else {
+            text.setLength(text.length() - System.lineSeparator().length()); // The log ends every message with a line break
+            LOG.log(Log.Level.TRACE, text.toString());
+        }
+    }
+
+    // Step names as the debug output has always printed them, the same for the inverse steps
+    private static String title(Step step) {
+        switch (step) {
+            case ADD_ROUND_KEY:
+                return "Adding Round Key";
+            case SUB_BYTES:
+            case INV_SUB_BYTES:
+                return "Substituting Bytes";
+            case SHIFT_ROWS:
+            case INV_SHIFT_ROWS:
+                return "Shifting Rows";
+            default:
+                return "Mixing Columns";
+        }
+    }
+
+    // One line per row, then a blank line, like AES.printBlock()
+    private static void appendBlock(StringBuilder text, byte[] state) {
+        for (int r = 0; r < 4; r++) {
+            for (int c = 0; c < 4; c++) {
+                text.append(Codec.hex(state[c * 4 + r]));
+            }
+            text.append(System.lineSeparator());
+        }
+        text.append(System.lineSeparator());
+    }
+}
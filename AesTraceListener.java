@@ -0,0 +1,29 @@
+/**
+ * <h1>AesTraceListener</h1>
+ * <p>Receives the state of a block around every step of the AES round function, for audits and for comparing against
+ * the worked example in AES Debug.txt. Register one with <b>AES.withTraceListener()</b>. AesTextTrace is a listener
+ * that prints the steps in the debug log format.</p>
+ * <p>Only the reference engine runs the steps one by one, so a traced AES instance always uses it. An instance shared
+ * between threads calls its listener from all of them.</p>
+ */
+public interface AesTraceListener {
+
+    /**
+     * <h3>Step</h3>
+     * <p>The steps of the cipher, and of the inverse cipher for the INV_ steps.</p>
+     */
+    enum Step { ADD_ROUND_KEY, SUB_BYTES, SHIFT_ROWS, MIX_COLUMNS, INV_SUB_BYTES, INV_SHIFT_ROWS, INV_MIX_COLUMNS }
+
+    /**
+     * <h3>onStep</h3>
+     * <p>Called after each step. Both states are 16 bytes in column order (the order of the plaintext bytes) and are
+     * fresh copies, so the listener may keep them.</p>
+     * <p>Rounds are numbered as in FIPS 197: 0 is the first AddRoundKey, and rounds 1 to 10 follow in the order they
+     * run, for decryption too. For ADD_ROUND_KEY, <b>before</b> XOR <b>after</b> is the round key.</p>
+     * @param round The round, 0 to 10.
+     * @param step The step that just ran.
+     * @param before The state before the step.
+     * @param after The state after the step.
+     */
+    void onStep(int round, Step step, byte[] before, byte[] after);
+}
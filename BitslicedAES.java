@@ -0,0 +1,466 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * <h1>BitslicedAES</h1>
+ * <p>A bitsliced implementation of the AES-128 block function which works on 8 blocks at a time.</p>
+ * <p>The 8 blocks are transposed into 8 bit-planes, one per bit of a byte. Each plane is 128 bits (two longs) with one
+ * byte per state position and one bit of that byte per block. SubBytes is computed with a Boolean circuit, ShiftRows and
+ * MixColumns are shifts and XORs of whole planes, so there are no table lookups or branches that depend on the data or
+ * the key.</p>
+ * <p>Within a plane, the first long holds rows 0 and 1 of the state and the second long holds rows 2 and 3. Each row is
+ * one 32-bit lane with column c in byte c, and bit k of every byte belongs to block k.</p>
+ */
+public class BitslicedAES implements BlockCipherEngine {
+
+    static final int BLOCKS = 8; // Blocks processed per pass
+
+    // State positions in plane byte order: rows 0 and 1 make up the first long of a plane, rows 2 and 3 the second
+    private static final int[] HALF_ORDER = {0, 4, 8, 12, 1, 5, 9, 13, 2, 6, 10, 14, 3, 7, 11, 15};
+
+    private static final VarHandle LE_LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  VARIABLES                                                                                                         ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private final long[] roundKeys = new long[11 * 16]; // Every round key in plane form, the same for all 8 blocks
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  CONSTRUCTORS                                                                                                      ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>BitslicedAES Constructor</h3>
+     * <p>Accepts an expanded key and converts its encryption round keys to plane form. Decryption runs the inverse cipher
+     * directly, so it uses the same round keys in reverse order.</p>
+     * @param key The expanded key.
+     */
+    public BitslicedAES(ExpandedKey key) {
+        for (int round = 0; round <= 10; round++) {
+            for (int pos = 0; pos < 16; pos++) {
+                int value = (key.enc[round * 4 + pos / 4] >>> (24 - 8 * (pos % 4))) & 0xff;
+                int row = pos % 4;
+                int shift = 8 * ((row & 1) * 4 + pos / 4);
+                for (int bit = 0; bit < 8; bit++) {
+                    if (((value >>> bit) & 1) != 0) {
+                        this.roundKeys[round * 16 + bit * 2 + (row >> 1)] |= 0xffL << shift; // Same key bit for every block
+                    }
+                }
+            }
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  FUNCTIONS                                                                                                         ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>encryptBlocks</h3>
+     * <p>Encrypts consecutive blocks, 8 per pass. The input and output ranges may be the same but must not partially overlap.</p>
+     * @param in The input buffer.
+     * @param inOff The offset of the first input block.
+     * @param out The output buffer.
+     * @param outOff The offset of the first output block.
+     * @param blocks The number of blocks.
+     */
+    @Override
+    public void encryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        long[] s = new long[16];
+        Work w = new Work();
+        for (int first = 0; first < blocks; first += BLOCKS) {
+            int n = Math.min(BLOCKS, blocks - first);
+            pack(in, inOff + first * 16, n, s, w);
+            addRoundKey(s, 0);
+            for (int round = 1; round < 10; round++) {
+                subBytes(s);
+                mixRound(s, round);
+            }
+            subBytes(s); // Final round has no MixColumns
+            shiftRows(s);
+            addRoundKey(s, 10);
+            unpack(s, out, outOff + first * 16, n, w);
+        }
+    }
+
+    /**
+     * <h3>decryptBlocks</h3>
+     * <p>Decrypts consecutive blocks, 8 per pass. The input and output ranges may be the same but must not partially overlap.</p>
+     * @param in The input buffer.
+     * @param inOff The offset of the first input block.
+     * @param out The output buffer.
+     * @param outOff The offset of the first output block.
+     * @param blocks The number of blocks.
+     */
+    @Override
+    public void decryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        long[] s = new long[16];
+        Work w = new Work();
+        for (int first = 0; first < blocks; first += BLOCKS) {
+            int n = Math.min(BLOCKS, blocks - first);
+            pack(in, inOff + first * 16, n, s, w);
+            addRoundKey(s, 10);
+            for (int round = 9; round > 0; round--) {
+                invShiftRows(s);
+                invSubBytes(s);
+                addRoundKey(s, round);
+                invMixColumns(s);
+            }
+            invShiftRows(s); // Final round has no InvMixColumns
+            invSubBytes(s);
+            addRoundKey(s, 0);
+            unpack(s, out, outOff + first * 16, n, w);
+        }
+    }
+
+    /**
+     * <h3>encryptBlock</h3>
+     * <p>Encrypts one 16 byte block. This still costs a full 8 block pass, so bulk callers should use <b>encryptBlocks()</b>.</p>
+     */
+    @Override
+    public void encryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        encryptBlocks(in, inOff, out, outOff, 1);
+    }
+
+    /**
+     * <h3>decryptBlock</h3>
+     * <p>Decrypts one 16 byte block. This still costs a full 8 block pass, so bulk callers should use <b>decryptBlocks()</b>.</p>
+     */
+    @Override
+    public void decryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        decryptBlocks(in, inOff, out, outOff, 1);
+    }
+
+    // Transposes up to 8 blocks into planes, missing blocks are zero. Byte transposes gather each state position of all
+    // 8 blocks into one long, a bit transpose turns that into one byte per plane, and a last byte transpose per half
+    // collects those bytes into the planes.
+    private static void pack(byte[] in, int off, int n, long[] s, Work w) {
+        long[] x = w.x;
+        for (int k = 0; k < BLOCKS; k++) {
+            x[k] = k < n ? (long) LE_LONG.get(in, off + k * 16) : 0; // Positions 0 to 7 of block k
+            x[8 + k] = k < n ? (long) LE_LONG.get(in, off + k * 16 + 8) : 0; // Positions 8 to 15
+        }
+        transposeBytes(x, 0);
+        transposeBytes(x, 8); // x[pos] now holds position pos of block k in byte k
+        long[] g = w.t;
+        for (int j = 0; j < 16; j++) {
+            g[j] = transpose8(x[HALF_ORDER[j]]);
+        }
+        transposeBytes(g, 0);
+        transposeBytes(g, 8);
+        for (int bit = 0; bit < 8; bit++) {
+            s[bit * 2] = g[bit];
+            s[bit * 2 + 1] = g[8 + bit];
+        }
+    }
+
+    // Inverse of pack for the first n blocks
+    private static void unpack(long[] s, byte[] out, int off, int n, Work w) {
+        long[] g = w.t;
+        for (int bit = 0; bit < 8; bit++) {
+            g[bit] = s[bit * 2];
+            g[8 + bit] = s[bit * 2 + 1];
+        }
+        transposeBytes(g, 0);
+        transposeBytes(g, 8);
+        long[] x = w.x;
+        for (int j = 0; j < 16; j++) {
+            x[HALF_ORDER[j]] = transpose8(g[j]);
+        }
+        transposeBytes(x, 0);
+        transposeBytes(x, 8);
+        for (int k = 0; k < n; k++) {
+            LE_LONG.set(out, off + k * 16, x[k]);
+            LE_LONG.set(out, off + k * 16 + 8, x[8 + k]);
+        }
+    }
+
+    // Transposes the 8x8 byte matrix a[off..off+7]: byte j of a[off+i] moves to byte i of a[off+j]
+    private static void transposeBytes(long[] a, int off) {
+        for (int i = off; i < off + 4; i++) {
+            long t = ((a[i] >>> 32) ^ a[i + 4]) & 0x00000000FFFFFFFFL;
+            a[i] ^= t << 32;
+            a[i + 4] ^= t;
+        }
+        for (int i = off; i < off + 8; i += (i & 1) == 0 ? 1 : 3) { // Pairs (0,2), (1,3), (4,6), (5,7)
+            long t = ((a[i] >>> 16) ^ a[i + 2]) & 0x0000FFFF0000FFFFL;
+            a[i] ^= t << 16;
+            a[i + 2] ^= t;
+        }
+        for (int i = off; i < off + 8; i += 2) {
+            long t = ((a[i] >>> 8) ^ a[i + 1]) & 0x00FF00FF00FF00FFL;
+            a[i] ^= t << 8;
+            a[i + 1] ^= t;
+        }
+    }
+
+    // Transposes an 8x8 bit matrix held as 8 bytes: bit j of byte i moves to bit i of byte j
+    private static long transpose8(long x) {
+        long t = (x ^ (x >>> 7)) & 0x00AA00AA00AA00AAL;
+        x = x ^ t ^ (t << 7);
+        t = (x ^ (x >>> 14)) & 0x0000CCCC0000CCCCL;
+        x = x ^ t ^ (t << 14);
+        t = (x ^ (x >>> 28)) & 0x00000000F0F0F0F0L;
+        return x ^ t ^ (t << 28);
+    }
+
+    private void addRoundKey(long[] s, int round) {
+        for (int i = 0; i < 16; i++) {
+            s[i] ^= this.roundKeys[round * 16 + i];
+        }
+    }
+
+    // Row r is rotated left by r bytes, which is a right rotate of its 32-bit lane since column c sits in byte c
+    private static void shiftRows(long[] s) {
+        for (int i = 0; i < 16; i += 2) {
+            s[i] = shiftTop(s[i]);
+            s[i + 1] = shiftBottom(s[i + 1]);
+        }
+    }
+
+    private static void invShiftRows(long[] s) {
+        for (int i = 0; i < 16; i += 2) {
+            s[i] = (s[i] & 0xffffffffL) | ((long) Integer.rotateLeft((int) (s[i] >>> 32), 8) << 32);
+            s[i + 1] = (Integer.rotateLeft((int) s[i + 1], 16) & 0xffffffffL) | ((long) Integer.rotateLeft((int) (s[i + 1] >>> 32), 24) << 32);
+        }
+    }
+
+    // ShiftRows for rows 0 and 1, and for rows 2 and 3
+    private static long shiftTop(long v) {
+        return (v & 0xffffffffL) | ((long) Integer.rotateRight((int) (v >>> 32), 8) << 32);
+    }
+
+    private static long shiftBottom(long v) {
+        return (Integer.rotateRight((int) v, 16) & 0xffffffffL) | ((long) Integer.rotateRight((int) (v >>> 32), 24) << 32);
+    }
+
+    // ShiftRows, MixColumns and AddRoundKey of a full round in one pass over the planes.
+    // MixColumns is b[r] = 2a[r] ^ 3a[r+1] ^ a[r+2] ^ a[r+3] = 2t[r] ^ a[r+1] ^ t[r+2], with t[r] = a[r] ^ a[r+1].
+    // Doubling moves plane i-1 into plane i and feeds the top plane back into planes 0, 1, 3 and 4 (the bits of 0x1b).
+    private void mixRound(long[] s, int round) {
+        final long[] rk = this.roundKeys;
+        int k = round * 16;
+        long topA = shiftTop(s[14]);
+        long topB = shiftBottom(s[15]);
+        long t7a = topA ^ ((topA >>> 32) | (topB << 32));
+        long t7b = topB ^ ((topB >>> 32) | (topA << 32));
+        long prevA = 0;
+        long prevB = 0;
+        for (int i = 0; i < 16; i += 2) {
+            long a = shiftTop(s[i]);
+            long b = shiftBottom(s[i + 1]);
+            long ra = (a >>> 32) | (b << 32); // Every row replaced by the row below it
+            long rb = (b >>> 32) | (a << 32);
+            long ta = a ^ ra;
+            long tb = b ^ rb;
+            long feedback = -((0x1b >>> (i >> 1)) & 1L);
+            s[i] = prevA ^ (t7a & feedback) ^ ra ^ tb ^ rk[k + i]; // Rotating by two rows swaps the halves
+            s[i + 1] = prevB ^ (t7b & feedback) ^ rb ^ ta ^ rk[k + i + 1];
+            prevA = ta;
+            prevB = tb;
+        }
+    }
+
+    // InvMixColumns is MixColumns after a[r] ^= 4(a[r] ^ a[r+2]), which is the same for both halves of a plane
+    private static void invMixColumns(long[] s) {
+        long u0 = s[0] ^ s[1], u1 = s[2] ^ s[3], u2 = s[4] ^ s[5], u3 = s[6] ^ s[7];
+        long u4 = s[8] ^ s[9], u5 = s[10] ^ s[11], u6 = s[12] ^ s[13], u7 = s[14] ^ s[15];
+        long[] w = {u6, u7 ^ u6, u0 ^ u7, u1 ^ u6, u2 ^ u7 ^ u6, u3 ^ u7, u4, u5}; // Multiplied by x^2
+        for (int i = 0; i < 16; i++) {
+            s[i] ^= w[i >> 1];
+        }
+        long t7a = s[14] ^ ((s[14] >>> 32) | (s[15] << 32));
+        long t7b = s[15] ^ ((s[15] >>> 32) | (s[14] << 32));
+        long prevA = 0;
+        long prevB = 0;
+        for (int i = 0; i < 16; i += 2) {
+            long a = s[i];
+            long b = s[i + 1];
+            long ra = (a >>> 32) | (b << 32);
+            long rb = (b >>> 32) | (a << 32);
+            long ta = a ^ ra;
+            long tb = b ^ rb;
+            long feedback = -((0x1b >>> (i >> 1)) & 1L);
+            s[i] = prevA ^ (t7a & feedback) ^ ra ^ tb;
+            s[i + 1] = prevB ^ (t7b & feedback) ^ rb ^ ta;
+            prevA = ta;
+            prevB = tb;
+        }
+    }
+
+    private static void subBytes(long[] s) {
+        for (int h = 0; h < 2; h++) {
+            sbox(s, h);
+        }
+    }
+
+    // The inverse S-box is A^-1(S(A^-1(x))): S = A(inverse), so undoing the affine map on both sides leaves the inverse
+    private static void invSubBytes(long[] s) {
+        for (int h = 0; h < 2; h++) {
+            invAffine(s, h);
+            sbox(s, h);
+            invAffine(s, h);
+        }
+    }
+
+    // Inverse affine map, b[i] = a[i+2] ^ a[i+5] ^ a[i+7] ^ 0x05[i], on the planes of one half
+    private static void invAffine(long[] s, int h) {
+        long a0 = s[h], a1 = s[2 + h], a2 = s[4 + h], a3 = s[6 + h], a4 = s[8 + h], a5 = s[10 + h], a6 = s[12 + h], a7 = s[14 + h];
+        s[h] = ~(a2 ^ a5 ^ a7);
+        s[2 + h] = a3 ^ a6 ^ a0;
+        s[4 + h] = ~(a4 ^ a7 ^ a1);
+        s[6 + h] = a5 ^ a0 ^ a2;
+        s[8 + h] = a6 ^ a1 ^ a3;
+        s[10 + h] = a7 ^ a2 ^ a4;
+        s[12 + h] = a0 ^ a3 ^ a5;
+        s[14 + h] = a1 ^ a4 ^ a6;
+    }
+
+    // The AES S-box on the planes of one half, using the 113 gate circuit of Boyar and Peralta (32 of them AND gates).
+    // x0 is the most significant bit. The affine constant is folded into the NOTs of the bottom layer.
+    private static void sbox(long[] s, int h) {
+        long x0 = s[14 + h], x1 = s[12 + h], x2 = s[10 + h], x3 = s[8 + h];
+        long x4 = s[6 + h], x5 = s[4 + h], x6 = s[2 + h], x7 = s[h];
+
+        // Top linear transformation
+        long y14 = x3 ^ x5;
+        long y13 = x0 ^ x6;
+        long y9 = x0 ^ x3;
+        long y8 = x0 ^ x5;
+        long t0 = x1 ^ x2;
+        long y1 = t0 ^ x7;
+        long y4 = y1 ^ x3;
+        long y12 = y13 ^ y14;
+        long y2 = y1 ^ x0;
+        long y5 = y1 ^ x6;
+        long y3 = y5 ^ y8;
+        long t1 = x4 ^ y12;
+        long y15 = t1 ^ x5;
+        long y20 = t1 ^ x1;
+        long y6 = y15 ^ x7;
+        long y10 = y15 ^ t0;
+        long y11 = y20 ^ y9;
+        long y7 = x7 ^ y11;
+        long y17 = y10 ^ y11;
+        long y19 = y10 ^ y8;
+        long y16 = t0 ^ y11;
+        long y21 = y13 ^ y16;
+        long y18 = x0 ^ y16;
+
+        // Non-linear section
+        long t2 = y12 & y15;
+        long t3 = y3 & y6;
+        long t4 = t3 ^ t2;
+        long t5 = y4 & x7;
+        long t6 = t5 ^ t2;
+        long t7 = y13 & y16;
+        long t8 = y5 & y1;
+        long t9 = t8 ^ t7;
+        long t10 = y2 & y7;
+        long t11 = t10 ^ t7;
+        long t12 = y9 & y11;
+        long t13 = y14 & y17;
+        long t14 = t13 ^ t12;
+        long t15 = y8 & y10;
+        long t16 = t15 ^ t12;
+        long t17 = t4 ^ t14;
+        long t18 = t6 ^ t16;
+        long t19 = t9 ^ t14;
+        long t20 = t11 ^ t16;
+        long t21 = t17 ^ y20;
+        long t22 = t18 ^ y19;
+        long t23 = t19 ^ y21;
+        long t24 = t20 ^ y18;
+
+        long t25 = t21 ^ t22;
+        long t26 = t21 & t23;
+        long t27 = t24 ^ t26;
+        long t28 = t25 & t27;
+        long t29 = t28 ^ t22;
+        long t30 = t23 ^ t24;
+        long t31 = t22 ^ t26;
+        long t32 = t31 & t30;
+        long t33 = t32 ^ t24;
+        long t34 = t23 ^ t33;
+        long t35 = t27 ^ t33;
+        long t36 = t24 & t35;
+        long t37 = t36 ^ t34;
+        long t38 = t27 ^ t36;
+        long t39 = t29 & t38;
+        long t40 = t25 ^ t39;
+
+        long t41 = t40 ^ t37;
+        long t42 = t29 ^ t33;
+        long t43 = t29 ^ t40;
+        long t44 = t33 ^ t37;
+        long t45 = t42 ^ t41;
+        long z0 = t44 & y15;
+        long z1 = t37 & y6;
+        long z2 = t33 & x7;
+        long z3 = t43 & y16;
+        long z4 = t40 & y1;
+        long z5 = t29 & y7;
+        long z6 = t42 & y11;
+        long z7 = t45 & y17;
+        long z8 = t41 & y10;
+        long z9 = t44 & y12;
+        long z10 = t37 & y3;
+        long z11 = t33 & y4;
+        long z12 = t43 & y13;
+        long z13 = t40 & y5;
+        long z14 = t29 & y2;
+        long z15 = t42 & y9;
+        long z16 = t45 & y14;
+        long z17 = t41 & y8;
+
+        // Bottom linear transformation
+        long t46 = z15 ^ z16;
+        long t47 = z10 ^ z11;
+        long t48 = z5 ^ z13;
+        long t49 = z9 ^ z10;
+        long t50 = z2 ^ z12;
+        long t51 = z2 ^ z5;
+        long t52 = z7 ^ z8;
+        long t53 = z0 ^ z3;
+        long t54 = z6 ^ z7;
+        long t55 = z16 ^ z17;
+        long t56 = z12 ^ t48;
+        long t57 = t50 ^ t53;
+        long t58 = z4 ^ t46;
+        long t59 = z3 ^ t54;
+        long t60 = t46 ^ t57;
+        long t61 = z14 ^ t57;
+        long t62 = t52 ^ t58;
+        long t63 = t49 ^ t58;
+        long t64 = z4 ^ t59;
+        long t65 = t61 ^ t62;
+        long t66 = z1 ^ t63;
+        long s0 = t59 ^ t63;
+        long s6 = t56 ^ ~t62;
+        long s7 = t48 ^ ~t60;
+        long t67 = t64 ^ t65;
+        long s3 = t53 ^ t66;
+        long s4 = t51 ^ t66;
+        long s5 = t47 ^ t65;
+        long s1 = t64 ^ ~s3;
+        long s2 = t55 ^ ~t67;
+
+        s[14 + h] = s0;
+        s[12 + h] = s1;
+        s[10 + h] = s2;
+        s[8 + h] = s3;
+        s[6 + h] = s4;
+        s[4 + h] = s5;
+        s[2 + h] = s6;
+        s[h] = s7;
+    }
+
+    /**
+     * <h3>Work</h3>
+     * <p>Scratch planes for one call, so the engine itself stays immutable and can be shared between threads.</p>
+     */
+    private static final class Work {
+        final long[] x = new long[16], t = new long[16];
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * <h1>BlockCipherEngine</h1>
+ * <p>An implementation of the raw AES-128 block function. The modes of operation in AES, CTR, CBC and GCM only call the
+ * block function through this interface, so any engine can be used with any mode.</p>
+ * <p>Engines are built from an ExpandedKey, keep no state between calls and must be safe to share between threads.
+ * The available engines are listed in <b>AES.Engine</b>, and EngineCalibration picks the default one.</p>
+ */
+public interface BlockCipherEngine {
+
+    /**
+     * <h3>encryptBlocks</h3>
+     * <p>Encrypts consecutive blocks. The input and output ranges may be the same but must not partially overlap.</p>
+     * @param in The input buffer.
+     * @param inOff The offset of the first input block.
+     * @param out The output buffer.
+     * @param outOff The offset of the first output block.
+     * @param blocks The number of blocks.
+     */
+    void encryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks);
+
+    /**
+     * <h3>decryptBlocks</h3>
+     * <p>Decrypts consecutive blocks. The input and output ranges may be the same but must not partially overlap.</p>
+     * @param in The input buffer.
+     * @param inOff The offset of the first input block.
+     * @param out The output buffer.
+     * @param outOff The offset of the first output block.
+     * @param blocks The number of blocks.
+     */
+    void decryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks);
+
+    /**
+     * <h3>encryptBlock</h3>
+     * <p>Encrypts one 16 byte block. Engines that work on several blocks per pass override this with a cheaper path.</p>
+     */
+    default void encryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        encryptBlocks(in, inOff, out, outOff, 1);
+    }
+
+    /**
+     * <h3>decryptBlock</h3>
+     * <p>Decrypts one 16 byte block. Engines that work on several blocks per pass override this with a cheaper path.</p>
+     */
+    default void decryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        decryptBlocks(in, inOff, out, outOff, 1);
+    }
+}
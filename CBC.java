@@ -0,0 +1,120 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <h1>CBC</h1>
+ * <p>Parallel CBC decryption for AES.</p>
+ * <p>Encryption is serial because every block is chained through the previous ciphertext, but each plaintext block only
+ * depends on two ciphertext blocks, so decryption can be split into ranges. The ciphertext block just before each range
+ * is copied up front, since the buffer is decrypted in place and the neighbouring range may overwrite it.</p>
+ */
+public class CBC {
+
+    static final int CHUNK_BLOCKS = 1024; // Blocks per task (16 KiB)
+
+    private CBC() {
+    }
+
+    /**
+     * <h3>decrypt</h3>
+     * <p>Decrypts whole blocks in place, using the common ForkJoinPool when the input is at least CTR.PARALLEL_THRESHOLD bytes.</p>
+     * @param aes The cipher.
+     * @param buf The buffer holding the ciphertext.
+     * @param off The offset of the first block.
+     * @param blocks The number of 16 byte blocks.
+     * @param chain The ciphertext block before the first one (the IV), updated to the last ciphertext block.
+     */
+    public static void decrypt(AES aes, byte[] buf, int off, int blocks, byte[] chain) {
+        if (aes.traced() || blocks * 16L < CTR.PARALLEL_THRESHOLD) {
+            aes.decryptBlocks(buf, off, blocks, true, chain);
+            return;
+        }
+        byte[] prev = boundaries(buf, off, blocks, chain);
+        ForkJoinPool.commonPool().invoke(new CBCTask(aes, buf, off, blocks, prev, 0, chunkCount(blocks)));
+    }
+
+    /**
+     * <h3>decrypt</h3>
+     * <p>Same as <b>decrypt()</b> above, but the ranges are run on the given executor.</p>
+     * @param executor The executor to run the ranges on.
+     */
+    public static void decrypt(AES aes, byte[] buf, int off, int blocks, byte[] chain, Executor executor) {
+        if (aes.traced() || blocks * 16L < CTR.PARALLEL_THRESHOLD) {
+            aes.decryptBlocks(buf, off, blocks, true, chain);
+            return;
+        }
+        byte[] prev = boundaries(buf, off, blocks, chain);
+        List<CompletableFuture<Void>> parts = new ArrayList<>();
+        for (int c = 0; c < chunkCount(blocks); c++) {
+            final int chunk = c;
+            parts.add(CompletableFuture.runAsync(() -> decryptChunk(aes, buf, off, blocks, prev, chunk), executor));
+        }
+        CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    private static int chunkCount(int blocks) {
+        return (blocks + CHUNK_BLOCKS - 1) / CHUNK_BLOCKS;
+    }
+
+    // Copies the ciphertext block preceding every chunk, and moves the chain on to the last ciphertext block
+    private static byte[] boundaries(byte[] buf, int off, int blocks, byte[] chain) {
+        int chunks = chunkCount(blocks);
+        byte[] prev = new byte[chunks * 16];
+        System.arraycopy(chain, 0, prev, 0, 16);
+        for (int c = 1; c < chunks; c++) {
+            System.arraycopy(buf, off + (c * CHUNK_BLOCKS - 1) * 16, prev, c * 16, 16);
+        }
+        System.arraycopy(buf, off + (blocks - 1) * 16, chain, 0, 16);
+        return prev;
+    }
+
+    private static void decryptChunk(AES aes, byte[] buf, int off, int blocks, byte[] prev, int chunk) {
+        int first = chunk * CHUNK_BLOCKS;
+        int n = Math.min(CHUNK_BLOCKS, blocks - first);
+        byte[] chain = new byte[16];
+        System.arraycopy(prev, chunk * 16, chain, 0, 16);
+        aes.decryptBlocks(buf, off + first * 16, n, true, chain);
+    }
+
+    /**
+     * <h3>CBCTask</h3>
+     * <p>Fork-join task which halves its range of chunks until a single chunk is left.</p>
+     */
+    static class CBCTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final AES aes;
+        private final byte[] buf;
+        private final int off;
+        private final int blocks;
+        private final byte[] prev;
+        private final int firstChunk;
+        private final int endChunk;
+
+        CBCTask(AES aes, byte[] buf, int off, int blocks, byte[] prev, int firstChunk, int endChunk) {
+            this.aes = aes;
+            this.buf = buf;
+            this.off = off;
+            this.blocks = blocks;
+            this.prev = prev;
+            this.firstChunk = firstChunk;
+            this.endChunk = endChunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.endChunk - this.firstChunk == 1) {
+                decryptChunk(this.aes, this.buf, this.off, this.blocks, this.prev, this.firstChunk);
+                return;
+            }
+            int mid = (this.firstChunk + this.endChunk) >>> 1;
+            invokeAll(
+                new CBCTask(this.aes, this.buf, this.off, this.blocks, this.prev, this.firstChunk, mid),
+                new CBCTask(this.aes, this.buf, this.off, this.blocks, this.prev, mid, this.endChunk));
+        }
+    }
+}
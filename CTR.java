@@ -0,0 +1,178 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <h1>CTR</h1>
+ * <p>Counter mode for AES. The keystream block for block i is the encryption of (initial counter + i), so every block
+ * can be computed independently and large buffers are split across threads.</p>
+ * <p>Inputs shorter than PARALLEL_THRESHOLD, and all input to a traced AES, are processed on the calling thread, so a
+ * trace reports the blocks in order. The output does not depend on how the work is split.</p>
+ */
+public class CTR {
+
+    static final int PARALLEL_THRESHOLD = 64 * 1024; // Inputs smaller than this are done sequentially
+    static final int CHUNK_BLOCKS = 1024; // Blocks per task (16 KiB)
+
+    private CTR() {
+    }
+
+    /**
+     * <h3>apply</h3>
+     * <p>XORs the keystream starting at <b>counter</b> into <b>len</b> bytes, using the common ForkJoinPool for large inputs.</p>
+     * <p>Encryption and decryption are the same operation. The output may be the same range as the input.</p>
+     * @param aes The cipher producing the keystream.
+     * @param counter The 16 byte initial counter block.
+     * @param in The input buffer.
+     * @param off The offset of the input.
+     * @param len The number of bytes to process.
+     * @param out The output buffer.
+     * @param outOff The offset at which to write the output.
+     */
+    public static void apply(AES aes, byte[] counter, byte[] in, int off, int len, byte[] out, int outOff) {
+        apply(aes, counter, 0, in, off, len, out, outOff, false);
+    }
+
+    /**
+     * <h3>apply</h3>
+     * <p>Same as <b>apply()</b> above, starting at block <b>firstBlock</b> and with a choice of counter increment.</p>
+     * @param firstBlock The index of the block the input starts at.
+     * @param inc32 True to only increment the low 32 bits of the counter (as GCM does), false for the whole block.
+     */
+    static void apply(AES aes, byte[] counter, long firstBlock, byte[] in, int off, int len, byte[] out, int outOff, boolean inc32) {
+        if (aes.traced() || len < PARALLEL_THRESHOLD) {
+            xor(aes, counter, firstBlock, in, off, len, out, outOff, inc32);
+        } else {
+            ForkJoinPool.commonPool().invoke(new CTRTask(aes, counter, firstBlock, (len + 15) / 16, in, off, len, out, outOff, inc32));
+        }
+    }
+
+    /**
+     * <h3>apply</h3>
+     * <p>Same as <b>apply()</b> above, but large inputs are split into equal ranges and run on the given executor.</p>
+     * @param executor The executor to run the ranges on.
+     */
+    public static void apply(AES aes, byte[] counter, byte[] in, int off, int len, byte[] out, int outOff, Executor executor) {
+        int blocks = (len + 15) / 16;
+        if (aes.traced() || len < PARALLEL_THRESHOLD) {
+            xor(aes, counter, 0, in, off, len, out, outOff, false);
+            return;
+        }
+        List<CompletableFuture<Void>> parts = new ArrayList<>();
+        for (long first = 0; first < blocks; first += CHUNK_BLOCKS) {
+            final long start = first;
+            final int bytes = (int) Math.min((long) CHUNK_BLOCKS * 16, len - start * 16);
+            parts.add(CompletableFuture.runAsync(() ->
+                xor(aes, counter, start, in, off + (int) start * 16, bytes, out, outOff + (int) start * 16, false), executor));
+        }
+        CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    /**
+     * <h3>xor</h3>
+     * <p>Sequentially XORs the keystream for blocks <b>firstBlock</b> onwards into <b>len</b> bytes.</p>
+     * @param aes The cipher producing the keystream.
+     * @param counter The 16 byte initial counter block (block 0).
+     * @param firstBlock The index of the block the input starts at.
+     * @param in The input buffer.
+     * @param off The offset of the input.
+     * @param len The number of bytes to process.
+     * @param out The output buffer.
+     * @param outOff The offset at which to write the output.
+     * @param inc32 True to only increment the low 32 bits of the counter (as GCM does), false for the whole block.
+     */
+    static void xor(AES aes, byte[] counter, long firstBlock, byte[] in, int off, int len, byte[] out, int outOff, boolean inc32) {
+        long hi = getLong(counter, 0);
+        long lo = getLong(counter, 8);
+        byte[] keystream = new byte[Math.min(len + 15, CHUNK_BLOCKS * 16) & ~15];
+        long block = firstBlock;
+        int done = 0;
+        while (done < len) {
+            int n = Math.min(len - done, keystream.length);
+            int blocks = (n + 15) / 16;
+            for (int i = 0; i < blocks; i++) {
+                counterBlock(hi, lo, block + i, inc32, keystream, i * 16);
+            }
+            aes.encryptBlocks(keystream, 0, blocks, false, null);
+            for (int i = 0; i < n; i++) {
+                out[outOff + done + i] = (byte) (in[off + done + i] ^ keystream[i]);
+            }
+            block += blocks;
+            done += n;
+        }
+    }
+
+    // Writes (counter + index) to dst, either as a 128-bit add or with the carry confined to the low 32 bits
+    private static void counterBlock(long hi, long lo, long index, boolean inc32, byte[] dst, int off) {
+        long h = hi;
+        long l;
+        if (inc32) {
+            l = (lo & 0xffffffff00000000L) | ((lo + index) & 0xffffffffL);
+        } else {
+            l = lo + index;
+            if (Long.compareUnsigned(l, lo) < 0) {
+                h++; // Carry into the high half
+            }
+        }
+        putLong(dst, off, h);
+        putLong(dst, off + 8, l);
+    }
+
+    static long getLong(byte[] b, int off) {
+        return ((long) TableAES.getInt(b, off) << 32) | (TableAES.getInt(b, off + 4) & 0xffffffffL);
+    }
+
+    static void putLong(byte[] b, int off, long v) {
+        TableAES.putInt(b, off, (int) (v >>> 32));
+        TableAES.putInt(b, off + 4, (int) v);
+    }
+
+    /**
+     * <h3>CTRTask</h3>
+     * <p>Fork-join task which halves its block range until it is at most CHUNK_BLOCKS long.</p>
+     */
+    static class CTRTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final AES aes;
+        private final byte[] counter;
+        private final long firstBlock;
+        private final long blocks;
+        private final byte[] in;
+        private final int off;
+        private final int len;
+        private final byte[] out;
+        private final int outOff;
+        private final boolean inc32;
+
+        CTRTask(AES aes, byte[] counter, long firstBlock, long blocks, byte[] in, int off, int len, byte[] out, int outOff, boolean inc32) {
+            this.aes = aes;
+            this.counter = counter;
+            this.firstBlock = firstBlock;
+            this.blocks = blocks;
+            this.in = in;
+            this.off = off;
+            this.len = len;
+            this.out = out;
+            this.outOff = outOff;
+            this.inc32 = inc32;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.blocks <= CHUNK_BLOCKS) {
+                xor(this.aes, this.counter, this.firstBlock, this.in, this.off, this.len, this.out, this.outOff, this.inc32);
+                return;
+            }
+            long half = this.blocks / 2;
+            int leftLen = (int) (half * 16);
+            invokeAll(
+                new CTRTask(this.aes, this.counter, this.firstBlock, half, this.in, this.off, leftLen, this.out, this.outOff, this.inc32),
+                new CTRTask(this.aes, this.counter, this.firstBlock + half, this.blocks - half, this.in, this.off + leftLen,
+                    this.len - leftLen, this.out, this.outOff + leftLen, this.inc32));
+        }
+    }
+}
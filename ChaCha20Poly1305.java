@@ -0,0 +1,394 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <h1>ChaCha20Poly1305</h1>
+ * <p>The ChaCha20-Poly1305 AEAD (RFC 8439), an alternative to AES for hosts where the JIT has no AES intrinsics. The
+ * ChaCha20 block function is only 32-bit additions, rotations and XORs, so it runs in constant time and at a similar
+ * speed in plain Java on any CPU, with no tables to leak through the cache.</p>
+ * <p>The keystream is XORed into the data one 64 byte block at a time, straight from the sixteen state words kept in
+ * local variables, and large inputs are split across the common ForkJoinPool like CTR mode. As in GCM, the message is
+ * processed in segments that are encrypted and then fed to Poly1305 while still in cache.</p>
+ * <p>Through the SymmetricCipher methods each call uses a random 12 byte nonce, written in front of the ciphertext,
+ * and the 16 byte tag follows it. The AEAD methods take the nonce and additional data from the caller instead.</p>
+ * <p>An instance never changes after construction and may be shared between threads.</p>
+ */
+public class ChaCha20Poly1305 implements SymmetricCipher {
+
+    static final int KEY_LENGTH = 32;
+    static final int NONCE_LENGTH = 12;
+    static final int TAG_LENGTH = Poly1305.TAG_LENGTH;
+    static final int SEGMENT_SIZE = GCM.SEGMENT_SIZE; // Bytes encrypted before they are authenticated
+    static final int CHUNK_SIZE = CTR.CHUNK_BLOCKS * 16; // Bytes per fork-join task
+
+    private static final VarHandle LE_INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final int SIGMA0 = 0x61707865; // "expand 32-byte k"
+    private static final int SIGMA1 = 0x3320646e;
+    private static final int SIGMA2 = 0x79622d32;
+    private static final int SIGMA3 = 0x6b206574;
+
+    private final int[] key = new int[8];
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  CONSTRUCTORS                                                                                                      ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>ChaCha20Poly1305 Constructor</h3>
+     * <p>Accepts a key String. Each character is one byte, as with AES, and only the first 32 are used.</p>
+     * @param key The key (at least 32 characters).
+     */
+    public ChaCha20Poly1305(String key) {
+        this(keyBytes(key));
+    }
+
+    /**
+     * <h3>ChaCha20Poly1305 Constructor</h3>
+     * @param key The 32 byte key.
+     */
+    public ChaCha20Poly1305(byte[] key) {
+        if (key.length != KEY_LENGTH) {
+            throw new IllegalArgumentException("Key must be 32 bytes long.");
+        }
+        for (int i = 0; i < 8; i++) {
+            this.key[i] = (int) LE_INT.get(key, i * 4);
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  FUNCTIONS                                                                                                         ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public int getOutputSize(int len) {
+        return NONCE_LENGTH + len + TAG_LENGTH;
+    }
+
+    /**
+     * <h3>encrypt</h3>
+     * <p>Encrypts <b>len</b> bytes under a fresh random nonce. The output is the nonce, the ciphertext and the tag.</p>
+     * <p>The output may be the same array as the input as long as it has room for getOutputSize(len) bytes.</p>
+     * @param in The plaintext buffer.
+     * @param off The offset of the plaintext.
+     * @param len The plaintext length.
+     * @param out The output buffer.
+     * @param outOff The offset at which to write the output.
+     * @return The number of bytes written (len + 28).
+     */
+    @Override
+    public int encrypt(byte[] in, int off, int len, byte[] out, int outOff) {
+        if (outOff + getOutputSize(len) > out.length) {
+            throw new IllegalArgumentException("Output buffer too small, need " + getOutputSize(len) + " bytes.");
+        }
+        byte[] nonce = new byte[NONCE_LENGTH];
+        Rand.getRand().nextBytes(nonce);
+        System.arraycopy(in, off, out, outOff + NONCE_LENGTH, len); // Work in place on the output buffer
+        System.arraycopy(nonce, 0, out, outOff, NONCE_LENGTH);
+        encrypt(nonce, null, out, outOff + NONCE_LENGTH, len, out, outOff + NONCE_LENGTH);
+        return getOutputSize(len);
+    }
+
+    /**
+     * <h3>decrypt</h3>
+     * <p>Decrypts and verifies the output of <b>encrypt()</b> above, reading the nonce from its first 12 bytes.</p>
+     * @param in The buffer holding the nonce, ciphertext and tag.
+     * @param off The offset of the nonce.
+     * @param len The total length.
+     * @param out The plaintext buffer, with room for len - 28 bytes at <b>outOff</b>.
+     * @param outOff The offset at which to write the plaintext.
+     * @return The plaintext length.
+     * @throws IllegalArgumentException If the input is too short or the tag does not match.
+     */
+    @Override
+    public int decrypt(byte[] in, int off, int len, byte[] out, int outOff) {
+        if (len < NONCE_LENGTH + TAG_LENGTH) {
+            throw new IllegalArgumentException("Ciphertext is shorter than the nonce and tag.");
+        }
+        byte[] nonce = Arrays.copyOfRange(in, off, off + NONCE_LENGTH);
+        return decrypt(nonce, null, in, off + NONCE_LENGTH, len - NONCE_LENGTH, out, outOff);
+    }
+
+    /**
+     * <h3>encrypt</h3>
+     * <p>Encrypts and authenticates <b>len</b> bytes, also authenticating (but not encrypting) the additional data.</p>
+     * <p>The output may be the same range as the input, with room for the tag after it.</p>
+     * @param nonce The 12 byte nonce. A nonce must never be reused with the same key.
+     * @param aad Additional authenticated data, or null.
+     * @param in The plaintext buffer.
+     * @param off The offset of the plaintext.
+     * @param len The plaintext length.
+     * @param out The output buffer, with room for len + 16 bytes at <b>outOff</b>.
+     * @param outOff The offset at which to write the ciphertext followed by the tag.
+     * @return The number of bytes written (len + 16).
+     */
+    public int encrypt(byte[] nonce, byte[] aad, byte[] in, int off, int len, byte[] out, int outOff) {
+        if (outOff + len + TAG_LENGTH > out.length) {
+            throw new IllegalArgumentException("Output buffer too small, need " + (len + TAG_LENGTH) + " bytes.");
+        }
+        int[] n = nonceWords(nonce);
+        Poly1305 mac = start(n, aad);
+        for (int done = 0; done < len; done += SEGMENT_SIZE) {
+            int count = Math.min(SEGMENT_SIZE, len - done);
+            apply(n, 1 + done / 64, in, off + done, count, out, outOff + done);
+            mac.update(out, outOff + done, count);
+        }
+        finish(mac, aad, len, out, outOff + len);
+        return len + TAG_LENGTH;
+    }
+
+    /**
+     * <h3>decrypt</h3>
+     * <p>Decrypts and verifies ciphertext produced by <b>encrypt()</b>. The tag is compared in constant time and if it
+     * does not match, the output range is wiped before the exception is thrown, so no unverified plaintext is returned.</p>
+     * @param nonce The nonce used for encryption.
+     * @param aad The additional authenticated data used for encryption, or null.
+     * @param in The buffer holding the ciphertext followed by the tag.
+     * @param off The offset of the ciphertext.
+     * @param len The length of the ciphertext including the 16 byte tag.
+     * @param out The plaintext buffer, with room for len - 16 bytes at <b>outOff</b>.
+     * @param outOff The offset at which to write the plaintext.
+     * @return The plaintext length (len - 16).
+     * @throws IllegalArgumentException If the input is shorter than a tag or the tag does not match.
+     */
+    public int decrypt(byte[] nonce, byte[] aad, byte[] in, int off, int len, byte[] out, int outOff) {
+        if (len < TAG_LENGTH) {
+            throw new IllegalArgumentException("Ciphertext is shorter than the authentication tag.");
+        }
+        int textLen = len - TAG_LENGTH;
+        if (outOff + textLen > out.length) {
+            throw new IllegalArgumentException("Output buffer too small, need " + textLen + " bytes.");
+        }
+        byte[] received = Arrays.copyOfRange(in, off + textLen, off + len); // Saved before an in-place decrypt can touch it
+        int[] n = nonceWords(nonce);
+        Poly1305 mac = start(n, aad);
+        for (int done = 0; done < textLen; done += SEGMENT_SIZE) {
+            int count = Math.min(SEGMENT_SIZE, textLen - done);
+            mac.update(in, off + done, count); // Authenticate the ciphertext before it may be overwritten
+            apply(n, 1 + done / 64, in, off + done, count, out, outOff + done);
+        }
+        byte[] expected = new byte[TAG_LENGTH];
+        finish(mac, aad, textLen, expected, 0);
+        if (!MessageDigest.isEqual(expected, received)) { // Constant time comparison
+            Arrays.fill(out, outOff, outOff + textLen, (byte) 0);
+            throw new IllegalArgumentException("ChaCha20-Poly1305 authentication tag mismatch.");
+        }
+        return textLen;
+    }
+
+    @Override
+    public String toString() {
+        return "ChaCha20-Poly1305";
+    }
+
+    // The Poly1305 key is the first half of keystream block 0, then the additional data is authenticated
+    private Poly1305 start(int[] n, byte[] aad) {
+        byte[] block = new byte[64];
+        blocks(n, 0, block, 0, block, 0, 1);
+        Poly1305 mac = new Poly1305(block, 0);
+        Arrays.fill(block, (byte) 0);
+        if (aad != null) {
+            mac.update(aad, 0, aad.length);
+            mac.padToBlock();
+        }
+        return mac;
+    }
+
+    // Pads the ciphertext, authenticates both lengths as 64-bit little-endian values and writes the tag
+    private static void finish(Poly1305 mac, byte[] aad, long textLen, byte[] out, int outOff) {
+        mac.padToBlock();
+        byte[] lengths = new byte[16];
+        long aadLen = aad == null ? 0 : aad.length;
+        LE_INT.set(lengths, 0, (int) aadLen);
+        LE_INT.set(lengths, 4, (int) (aadLen >>> 32));
+        LE_INT.set(lengths, 8, (int) textLen);
+        LE_INT.set(lengths, 12, (int) (textLen >>> 32));
+        mac.update(lengths, 0, 16);
+        mac.finish(out, outOff);
+    }
+
+    // XORs the keystream from block counter on into len bytes, using the common ForkJoinPool for large inputs
+    private void apply(int[] n, int counter, byte[] in, int off, int len, byte[] out, int outOff) {
+        if (len < CTR.PARALLEL_THRESHOLD) {
+            xor(n, counter, in, off, len, out, outOff);
+        } else {
+            ForkJoinPool.commonPool().invoke(new ChaChaTask(this, n, counter, in, off, len, out, outOff));
+        }
+    }
+
+    // Whole blocks are XORed as they are generated, a partial last block goes through a keystream buffer
+    private void xor(int[] n, int counter, byte[] in, int off, int len, byte[] out, int outOff) {
+        int whole = len >>> 6;
+        blocks(n, counter, in, off, out, outOff, whole);
+        int done = whole * 64;
+        if (done < len) {
+            byte[] keystream = new byte[64];
+            blocks(n, counter + whole, keystream, 0, keystream, 0, 1);
+            for (int i = done; i < len; i++) {
+                out[outOff + i] = (byte) (in[off + i] ^ keystream[i - done]);
+            }
+        }
+    }
+
+    // The ChaCha20 block function (RFC 8439, section 2.3) for count consecutive blocks, XORed into 64 bytes each
+    private void blocks(int[] n, int counter, byte[] in, int off, byte[] out, int outOff, int count) {
+        int k0 = this.key[0], k1 = this.key[1], k2 = this.key[2], k3 = this.key[3];
+        int k4 = this.key[4], k5 = this.key[5], k6 = this.key[6], k7 = this.key[7];
+        int n0 = n[0], n1 = n[1], n2 = n[2];
+        for (int b = 0; b < count; b++, counter++, off += 64, outOff += 64) {
+            int x0 = SIGMA0, x1 = SIGMA1, x2 = SIGMA2, x3 = SIGMA3;
+            int x4 = k0, x5 = k1, x6 = k2, x7 = k3;
+            int x8 = k4, x9 = k5, x10 = k6, x11 = k7;
+            int x12 = counter, x13 = n0, x14 = n1, x15 = n2;
+            for (int i = 0; i < 10; i++) {
+                // Column round
+                x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 16); x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 12);
+                x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 8); x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 7);
+                x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 16); x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 12);
+                x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 8); x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 7);
+                x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 16); x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 12);
+                x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 8); x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 7);
+                x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 16); x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 12);
+                x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 8); x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 7);
+                // Diagonal round
+                x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 16); x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 12);
+                x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 8); x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 7);
+                x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 16); x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 12);
+                x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 8); x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 7);
+                x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 16); x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 12);
+                x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 8); x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 7);
+                x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 16); x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 12);
+                x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 8); x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 7);
+            }
+            // Add the input state back in and XOR with the data, one little-endian word at a time
+            LE_INT.set(out, outOff, (int) LE_INT.get(in, off) ^ (x0 + SIGMA0));
+            LE_INT.set(out, outOff + 4, (int) LE_INT.get(in, off + 4) ^ (x1 + SIGMA1));
+            LE_INT.set(out, outOff + 8, (int) LE_INT.get(in, off + 8) ^ (x2 + SIGMA2));
+            LE_INT.set(out, outOff + 12, (int) LE_INT.get(in, off + 12) ^ (x3 + SIGMA3));
+            LE_INT.set(out, outOff + 16, (int) LE_INT.get(in, off + 16) ^ (x4 + k0));
+            LE_INT.set(out, outOff + 20, (int) LE_INT.get(in, off + 20) ^ (x5 + k1));
+            LE_INT.set(out, outOff + 24, (int) LE_INT.get(in, off + 24) ^ (x6 + k2));
+            LE_INT.set(out, outOff + 28, (int) LE_INT.get(in, off + 28) ^ (x7 + k3));
+            LE_INT.set(out, outOff + 32, (int) LE_INT.get(in, off + 32) ^ (x8 + k4));
+            LE_INT.set(out, outOff + 36, (int) LE_INT.get(in, off + 36) ^ (x9 + k5));
+            LE_INT.set(out, outOff + 40, (int) LE_INT.get(in, off + 40) ^ (x10 + k6));
+            LE_INT.set(out, outOff + 44, (int) LE_INT.get(in, off + 44) ^ (x11 + k7));
+            LE_INT.set(out, outOff + 48, (int) LE_INT.get(in, off + 48) ^ (x12 + counter));
+            LE_INT.set(out, outOff + 52, (int) LE_INT.get(in, off + 52) ^ (x13 + n0));
+            LE_INT.set(out, outOff + 56, (int) LE_INT.get(in, off + 56) ^ (x14 + n1));
+            LE_INT.set(out, outOff + 60, (int) LE_INT.get(in, off + 60) ^ (x15 + n2));
+        }
+    }
+
+    private static int[] nonceWords(byte[] nonce) {
+        if (nonce == null || nonce.length != NONCE_LENGTH) {
+            throw new IllegalArgumentException("ChaCha20-Poly1305 requires a 12 byte nonce.");
+        }
+        return new int[] {(int) LE_INT.get(nonce, 0), (int) LE_INT.get(nonce, 4), (int) LE_INT.get(nonce, 8)};
+    }
+
+    private static byte[] keyBytes(String key) {
+        if (key.length() < KEY_LENGTH) {
+            throw new IllegalArgumentException("Key must be at least 32 characters long.");
+        }
+        return Arrays.copyOf(AES.stringToBytes(key), KEY_LENGTH);
+    }
+
+    /**
+     * <h3>ChaChaTask</h3>
+     * <p>Fork-join task which halves its range on block boundaries until it is at most CHUNK_SIZE bytes long.</p>
+     */
+    static class ChaChaTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ChaCha20Poly1305 cipher;
+        private final int[] nonce;
+        private final int counter;
+        private final byte[] in;
+        private final int off;
+        private final int len;
+        private final byte[] out;
+        private final int outOff;
+
+        ChaChaTask(ChaCha20Poly1305 cipher, int[] nonce, int counter, byte[] in, int off, int len, byte[] out, int outOff) {
+            this.cipher = cipher;
+            this.nonce = nonce;
+            this.counter = counter;
+            this.in = in;
+            this.off = off;
+            this.len = len;
+            this.out = out;
+            this.outOff = outOff;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.len <= CHUNK_SIZE) {
+                this.cipher.xor(this.nonce, this.counter, this.in, this.off, this.len, this.out, this.outOff);
+                return;
+            }
+            int leftLen = (this.len / 2) & ~63;
+            invokeAll(
+                new ChaChaTask(this.cipher, this.nonce, this.counter, this.in, this.off, leftLen, this.out, this.outOff),
+                new ChaChaTask(this.cipher, this.nonce, this.counter + leftLen / 64, this.in, this.off + leftLen,
+                    this.len - leftLen, this.out, this.outOff + leftLen));
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  MAIN                                                                                                              ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>main</h3>
+     * <p>Compares the throughput of ChaCha20-Poly1305 with AES in CTR and GCM mode (using the engine picked by
+     * EngineCalibration) for a few message sizes. The optional argument is the time per measurement in milliseconds.</p>
+     */
+    public static void main(String[] args) {
+        if (AES.LOG.enabled(Log.Level.DEBUG)) { // Every AES call would print its debug output, and that would be timed too
+            System.out.println("The AES log is at DEBUG level or above. Run with -Dlog.level.AES=INFO to benchmark.");
+            return;
+        }
+        int millis = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        String key = "Thats my Kung Fu, thats my Kung Fu"; // The AES Debug.txt key, long enough for ChaCha20
+        AES.Engine engine = EngineCalibration.await(); // The calibrated engine rather than the one used until it is ready
+        AES aes = new AES(key, engine);
+        GCM gcm = new GCM(aes);
+        ChaCha20Poly1305 chacha = new ChaCha20Poly1305(key);
+        byte[] iv = AES.getRandomIV();
+        byte[] nonce = Arrays.copyOf(iv, NONCE_LENGTH); // Reused on every call, which is only acceptable in a benchmark
+
+        System.out.println("AES engine: " + engine + ", MB/s");
+        System.out.printf("%10s %10s %10s %18s%n", "Size", "AES-CTR", "AES-GCM", "ChaCha20-Poly1305");
+        for (int size : new int[] {1024, 16 * 1024, 1024 * 1024, 16 * 1024 * 1024}) {
+            byte[] buf = new byte[size + TAG_LENGTH];
+            double ctr = measure(size, millis, () -> CTR.apply(aes, iv, buf, 0, size, buf, 0));
+            double aead = measure(size, millis, () -> gcm.encrypt(nonce, null, buf, 0, size, buf, 0));
+            double cc = measure(size, millis, () -> chacha.encrypt(nonce, null, buf, 0, size, buf, 0));
+            System.out.printf("%10d %10.1f %10.1f %18.1f%n", size, ctr, aead, cc);
+        }
+    }
+
+    // Runs op for about millis milliseconds, the first quarter as warm-up, and returns MB/s of size bytes per call
+    private static double measure(int size, int millis, Runnable op) {
+        long warmup = millis * 250_000L;
+        long budget = millis * 750_000L;
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < warmup) {
+            op.run();
+        }
+        long bytes = 0;
+        long begin = System.nanoTime();
+        long elapsed;
+        do {
+            op.run();
+            bytes += size;
+            elapsed = System.nanoTime() - begin;
+        } while (elapsed < budget);
+        return bytes * 1000.0 / elapsed; // Bytes per nanosecond * 1000 = MB/s
+    }
+}
@@ -0,0 +1,481 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * <h1>Codec</h1>
+ * <p>Hex and Base64 text encodings of binary data, shared by the AES and RSA text APIs.</p>
+ * <p>Hex goes through lookup tables: every byte value has its two digits ready, and every character its digit value,
+ * so no String.format, substring or Integer.parseInt call is made per byte. Hex output is lowercase, input may be
+ * either case. The Strings are built from Latin-1 bytes, which Java stores without converting them.</p>
+ * <p>Base64 (RFC 4648) is java.util.Base64, which is table driven as well and which HotSpot replaces with vectorized
+ * code on CPUs that support it. The URL-safe alphabet is written without padding and read with or without it.</p>
+ * <p>Invalid input is reported with an IllegalArgumentException.</p>
+ */
+public final class Codec {
+
+    private static final byte[] DIGITS = "0123456789abcdef".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] PAIRS = new byte[512]; // The two hex digits of every byte value
+    private static final String[] BYTE_HEX = new String[256]; // The same as Strings, for the reference engine's blocks
+    private static final byte[] VALUES = new byte[128]; // Value of every hex digit, -1 for other characters
+
+    private static final Base64.Encoder BASE64 = Base64.getEncoder();
+    private static final Base64.Decoder BASE64_DECODER = Base64.getDecoder();
+    private static final Base64.Encoder BASE64_URL = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder BASE64_URL_DECODER = Base64.getUrlDecoder();
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            PAIRS[b * 2] = DIGITS[b >>> 4];
+            PAIRS[b * 2 + 1] = DIGITS[b & 0xf];
+            BYTE_HEX[b] = new String(PAIRS, b * 2, 2, StandardCharsets.ISO_8859_1);
+        }
+        Arrays.fill(VALUES, (byte) -1);
+        for (int d = 0; d < 10; d++) {
+            VALUES['0' + d] = (byte) d;
+        }
+        for (int d = 0; d < 6; d++) {
+            VALUES['a' + d] = (byte) (10 + d);
+            VALUES['A' + d] = (byte) (10 + d);
+        }
+    }
+
+    private Codec() {
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  HEX                                                                                                               ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>hex</h3>
+     * <p>Returns the two hex digits of a byte. The Strings are shared, so this does not allocate.</p>
+     * @param b The byte value, 0 to 255 (higher bits are ignored).
+     * @return Two lowercase hex digits.
+     */
+    public static String hex(int b) {
+        return BYTE_HEX[b & 0xff];
+    }
+
+    /**
+     * <h3>parseHex</h3>
+     * <p>Reads the byte written as two hex digits at <b>index</b>.</p>
+     * @param hex The text.
+     * @param index The position of the first digit.
+     * @return The byte value, 0 to 255.
+     * @throws IllegalArgumentException If either character is not a hex digit.
+     */
+    public static int parseHex(CharSequence hex, int index) {
+        int hi = digit(hex, index);
+        int lo = digit(hex, index + 1);
+        return (hi << 4) | lo;
+    }
+
+    /**
+     * <h3>toHex</h3>
+     * @param bytes The bytes.
+     * @return The bytes as lowercase hex, two digits per byte.
+     */
+    public static String toHex(byte[] bytes) {
+        return toHex(bytes, 0, bytes.length);
+    }
+
+    /**
+     * <h3>toHex</h3>
+     * @param bytes The buffer.
+     * @param off The first byte to encode.
+     * @param len The number of bytes to encode.
+     * @return The bytes as lowercase hex, two digits per byte.
+     */
+    public static String toHex(byte[] bytes, int off, int len) {
+        byte[] text = new byte[len * 2];
+        encodeHex(bytes, off, len, text, 0);
+        return new String(text, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * <h3>toHex</h3>
+     * <p>Encodes the remaining bytes of a buffer and advances its position to the limit.</p>
+     * @param buf The buffer.
+     * @return The bytes as lowercase hex, two digits per byte.
+     */
+    public static String toHex(ByteBuffer buf) {
+        int len = buf.remaining();
+        if (buf.hasArray()) {
+            String hex = toHex(buf.array(), buf.arrayOffset() + buf.position(), len);
+            buf.position(buf.limit());
+            return hex;
+        }
+        byte[] text = new byte[len * 2];
+        for (int i = 0; i < len; i++) {
+            int b = buf.get() & 0xff;
+            text[i * 2] = PAIRS[b * 2];
+            text[i * 2 + 1] = PAIRS[b * 2 + 1];
+        }
+        return new String(text, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * <h3>appendHex</h3>
+     * <p>Appends bytes as lowercase hex to a StringBuilder, without an intermediate String.</p>
+     * @param out The builder to append to.
+     * @param bytes The buffer.
+     * @param off The first byte to encode.
+     * @param len The number of bytes to encode.
+     * @return <b>out</b>.
+     */
+    public static StringBuilder appendHex(StringBuilder out, byte[] bytes, int off, int len) {
+        out.ensureCapacity(out.length() + len * 2);
+        for (int i = off; i < off + len; i++) {
+            int b = bytes[i] & 0xff;
+            out.append((char) PAIRS[b * 2]).append((char) PAIRS[b * 2 + 1]);
+        }
+        return out;
+    }
+
+    /**
+     * <h3>fromHex</h3>
+     * @param hex Hex digits, two per byte, in either case.
+     * @return The bytes.
+     * @throws IllegalArgumentException If the length is odd or a character is not a hex digit.
+     */
+    public static byte[] fromHex(CharSequence hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Hex string must have even length.");
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        fromHex(hex, bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * <h3>fromHex</h3>
+     * <p>Decodes hex into an existing array.</p>
+     * @param hex Hex digits, two per byte, in either case.
+     * @param out The array to write to.
+     * @param off The position of the first byte.
+     * @return The number of bytes written.
+     * @throws IllegalArgumentException If the length is odd or a character is not a hex digit.
+     */
+    public static int fromHex(CharSequence hex, byte[] out, int off) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Hex string must have even length.");
+        }
+        int len = hex.length() / 2;
+        for (int i = 0; i < len; i++) {
+            out[off + i] = (byte) parseHex(hex, i * 2);
+        }
+        return len;
+    }
+
+    /**
+     * <h3>fromHex</h3>
+     * <p>Decodes hex into a buffer, advancing its position.</p>
+     * @param hex Hex digits, two per byte, in either case.
+     * @param out The buffer to write to.
+     * @return The number of bytes written.
+     * @throws IllegalArgumentException If the length is odd or a character is not a hex digit.
+     */
+    public static int fromHex(CharSequence hex, ByteBuffer out) {
+        if (out.hasArray()) {
+            int len = fromHex(hex, out.array(), out.arrayOffset() + out.position());
+            out.position(out.position() + len);
+            return len;
+        }
+        byte[] bytes = fromHex(hex);
+        out.put(bytes);
+        return bytes.length;
+    }
+
+    /**
+     * <h3>hexOutputStream</h3>
+     * <p>Returns a stream that writes every byte given to it to <b>out</b> as two hex digits. Closing it closes
+     * <b>out</b>.</p>
+     * @param out The writer that receives the hex text.
+     * @return The stream.
+     */
+    public static OutputStream hexOutputStream(Writer out) {
+        return new HexOutputStream(out);
+    }
+
+    /**
+     * <h3>hexInputStream</h3>
+     * <p>Returns a stream of the bytes that <b>in</b> spells out in hex. Whitespace between the digits is skipped, so
+     * line-wrapped dumps can be read. Closing it closes <b>in</b>.</p>
+     * @param in The reader supplying the hex text.
+     * @return The stream. Its read methods throw an IOException if the text is not valid hex.
+     */
+    public static InputStream hexInputStream(Reader in) {
+        return new HexInputStream(in);
+    }
+
+    private static void encodeHex(byte[] bytes, int off, int len, byte[] text, int textOff) {
+        for (int i = 0; i < len; i++) {
+            int b = bytes[off + i] & 0xff;
+            text[textOff + i * 2] = PAIRS[b * 2];
+            text[textOff + i * 2 + 1] = PAIRS[b * 2 + 1];
+        }
+    }
+
+    private static int digit(CharSequence hex, int index) {
+        char c = hex.charAt(index);
+        int value = c < 128 ? VALUES[c] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid hex digit '" + c + "' at index " + index);
+        }
+        return value;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  BASE64                                                                                                            ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>toBase64</h3>
+     * @param bytes The bytes.
+     * @return The bytes in standard Base64, with padding.
+     */
+    public static String toBase64(byte[] bytes) {
+        return BASE64.encodeToString(bytes);
+    }
+
+    /**
+     * <h3>toBase64</h3>
+     * @param bytes The buffer.
+     * @param off The first byte to encode.
+     * @param len The number of bytes to encode.
+     * @return The bytes in standard Base64, with padding.
+     */
+    public static String toBase64(byte[] bytes, int off, int len) {
+        return toBase64(ByteBuffer.wrap(bytes, off, len));
+    }
+
+    /**
+     * <h3>toBase64</h3>
+     * <p>Encodes the remaining bytes of a buffer and advances its position to the limit.</p>
+     * @param buf The buffer.
+     * @return The bytes in standard Base64, with padding.
+     */
+    public static String toBase64(ByteBuffer buf) {
+        ByteBuffer text = BASE64.encode(buf);
+        return new String(text.array(), text.arrayOffset() + text.position(), text.remaining(), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * <h3>toBase64Url</h3>
+     * @param bytes The bytes.
+     * @return The bytes in URL and filename safe Base64, without padding.
+     */
+    public static String toBase64Url(byte[] bytes) {
+        return BASE64_URL.encodeToString(bytes);
+    }
+
+    /**
+     * <h3>fromBase64</h3>
+     * @param text Standard Base64.
+     * @return The bytes.
+     * @throws IllegalArgumentException If the text is not valid Base64.
+     */
+    public static byte[] fromBase64(String text) {
+        return BASE64_DECODER.decode(text);
+    }
+
+    /**
+     * <h3>fromBase64</h3>
+     * <p>Decodes the remaining bytes of a buffer holding standard Base64 text, advancing its position.</p>
+     * @param text The Base64 text, one byte per character.
+     * @return A new buffer with the decoded bytes.
+     * @throws IllegalArgumentException If the text is not valid Base64.
+     */
+    public static ByteBuffer fromBase64(ByteBuffer text) {
+        return BASE64_DECODER.decode(text);
+    }
+
+    /**
+     * <h3>fromBase64Url</h3>
+     * @param text URL and filename safe Base64, with or without padding.
+     * @return The bytes.
+     * @throws IllegalArgumentException If the text is not valid Base64.
+     */
+    public static byte[] fromBase64Url(String text) {
+        return BASE64_URL_DECODER.decode(text);
+    }
+
+    /**
+     * <h3>toBase64</h3>
+     * <p>Encodes a non-negative number as the Base64 of its big-endian bytes, without a sign byte and zero padded on the
+     * left to at least <b>length</b> bytes. Passing the byte length of a modulus gives every value mod it the same
+     * length of text.</p>
+     * @param value The number, at least zero.
+     * @param length The minimum number of bytes, 0 for as few as possible.
+     * @return The number in standard Base64.
+     * @throws IllegalArgumentException If the number is negative.
+     */
+    public static String toBase64(BigInteger value, int length) {
+        if (value.signum() < 0) {
+            throw new IllegalArgumentException("Cannot encode a negative number: " + value);
+        }
+        byte[] bytes = value.toByteArray();
+        int skip = bytes.length > 1 && bytes[0] == 0 ? 1 : 0; // The sign byte
+        if (value.signum() == 0) {
+            skip = bytes.length; // Zero has no digits
+        }
+        int size = bytes.length - skip;
+        if (size >= length) {
+            return toBase64(bytes, skip, size);
+        }
+        byte[] padded = new byte[length];
+        System.arraycopy(bytes, skip, padded, length - size, size);
+        return toBase64(padded);
+    }
+
+    /**
+     * <h3>bigIntegerFromBase64</h3>
+     * <p>The inverse of <b>toBase64(BigInteger, int)</b>: reads Base64 bytes as an unsigned big-endian number.</p>
+     * @param text Standard Base64.
+     * @return The number, at least zero.
+     * @throws IllegalArgumentException If the text is not valid Base64.
+     */
+    public static BigInteger bigIntegerFromBase64(String text) {
+        return new BigInteger(1, fromBase64(text));
+    }
+
+    /**
+     * <h3>base64OutputStream</h3>
+     * <p>Returns a stream that writes the bytes given to it to <b>out</b> as Base64. It must be closed to write the
+     * final group, which also closes <b>out</b>.</p>
+     * @param out The stream that receives the Base64 text.
+     * @param url True for the URL and filename safe alphabet without padding.
+     * @return The stream.
+     */
+    public static OutputStream base64OutputStream(OutputStream out, boolean url) {
+        return (url ? BASE64_URL : BASE64).wrap(out);
+    }
+
+    /**
+     * <h3>base64InputStream</h3>
+     * <p>Returns a stream of the bytes that <b>in</b> holds in Base64. Closing it closes <b>in</b>.</p>
+     * @param in The stream supplying the Base64 text.
+     * @param url True for the URL and filename safe alphabet.
+     * @return The stream. Its read methods throw an IOException if the text is not valid Base64.
+     */
+    public static InputStream base64InputStream(InputStream in, boolean url) {
+        return (url ? BASE64_URL_DECODER : BASE64_DECODER).wrap(in);
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  STREAMS                                                                                                           ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private static final class HexOutputStream extends OutputStream {
+
+        private final Writer out;
+        private final char[] text = new char[4096]; // Digits waiting to be written
+
+        HexOutputStream(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, this.text.length / 2);
+                for (int i = 0; i < n; i++) {
+                    int b = bytes[off + i] & 0xff;
+                    this.text[i * 2] = (char) PAIRS[b * 2];
+                    this.text[i * 2 + 1] = (char) PAIRS[b * 2 + 1];
+                }
+                this.out.write(this.text, 0, n * 2);
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.out.close();
+        }
+    }
+
+    private static final class HexInputStream extends InputStream {
+
+        private final Reader in;
+        private final char[] text = new char[4096]; // Characters read but not decoded yet
+        private int pos;
+        private int end;
+
+        HexInputStream(Reader in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) throws IOException {
+            int n = 0;
+            while (n < len) {
+                int hi = nextDigit();
+                if (hi < 0) {
+                    break;
+                }
+                int lo = nextDigit();
+                if (lo < 0) {
+                    throw new IOException("Hex text ends in the middle of a byte");
+                }
+                bytes[off + n++] = (byte) ((hi << 4) | lo);
+                if (this.pos == this.end && !this.in.ready()) {
+                    break; // Return what there is rather than block
+                }
+            }
+            return n == 0 && len > 0 ? -1 : n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.in.close();
+        }
+
+        // The next digit's value, skipping whitespace, or -1 at the end of the text
+        private int nextDigit() throws IOException {
+            while (true) {
+                if (this.pos == this.end) {
+                    this.end = this.in.read(this.text, 0, this.text.length);
+                    this.pos = 0;
+                    if (this.end < 0) {
+                        this.end = 0;
+                        return -1;
+                    }
+                }
+                char c = this.text[this.pos++];
+                int value = c < 128 ? VALUES[c] : -1;
+                if (value >= 0) {
+                    return value;
+                }
+                if (!Character.isWhitespace(c)) {
+                    throw new IOException("Invalid hex digit '" + c + "'");
+                }
+            }
+        }
+    }
+}
@@ -1,7 +1,4 @@
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.math.BigInteger;
-import java.util.Scanner;
 
 /**
  * <h1>Crypto</h1>
@@ -11,35 +8,34 @@ import java.util.Scanner;
  */
 public class Crypto {
 
+    /**
+     * <h3>SMALL_PRIMES</h3>
+     * <p>The first 2^16 primes (2 to 821641), generated with a sieve of Eratosthenes when the class is loaded. Used for
+     * trial division and by PrimeSieve to weed out candidates before the probabilistic tests.</p>
+     */
+    static final int[] SMALL_PRIMES = smallPrimes(1 << 16);
+
+    /**
+     * <h3>TRIAL_DIVISION_PRIMES</h3>
+     * <p>How many of the small primes <b>checkPrime()</b> divides by. Candidates from <b>getPrime()</b> have already been
+     * sieved by all of them, so this only matters for numbers from elsewhere.</p>
+     */
+    static final int TRIAL_DIVISION_PRIMES = 1000;
+
     /**
      * <h3>fastMod</h3>
-     * <p>Implementation of the fast modular exponentiation algorithm using BigInteger</p>
-     * <p>Successive Squaring<p>
+     * <p>Fast modular exponentiation, through the ModExpContext for the modulus. With the MONTGOMERY kernel the context is cached, so the setup that depends only on p is done once however often it is used.</p>
+     * <p>An even modulus cannot use a Montgomery context and goes straight to BigInteger.modPow().</p>
      * @param g
-     * @param a
-     * @param p
+     * @param a The exponent, which must not be negative.
+     * @param p The modulus, which must be positive.
      * @return The result of g^a mod p
      */
     public static BigInteger fastMod(BigInteger g, BigInteger a, BigInteger p) {
-        int bitWidth = a.bitLength();
-        BigInteger b = BigInteger.ZERO.add(a);
-        boolean bits[] = new boolean[bitWidth];
-        for (int i = 0; i < bitWidth; i++) {
-            boolean bit = b.and(BigInteger.ONE).equals(BigInteger.ONE);
-            bits[bitWidth-i-1] = bit;
-            b.shiftRight(1);
+        if (!p.testBit(0) || p.equals(BigInteger.ONE)) {
+            return g.modPow(a, p);
         }
-
-        BigInteger result =  new BigInteger("1");
-        for (int i = 0; i < bitWidth; i++) {
-            result.pow(2);
-            result.mod(p);
-            if (bits[i]) {
-                result.multiply(g);
-                result.mod(p);
-            }
-        }
-        return result;
+        return ModExpContext.of(p).pow(g, a);
     }
 
     /**
@@ -52,10 +48,10 @@ public class Crypto {
      */
     public static boolean isValidG(BigInteger g, BigInteger p) {
         BigInteger q = p.subtract(BigInteger.ONE).divide(BigInteger.TWO);
-        if (g.modPow(BigInteger.TWO, p).equals(BigInteger.ONE)) {
+        if (fastMod(g, BigInteger.TWO, p).equals(BigInteger.ONE)) {
             return false;
         }
-        if (g.modPow(q, p).equals(BigInteger.ONE)) {
+        if (fastMod(g, q, p).equals(BigInteger.ONE)) {
             return false;
         }
         return true;
@@ -70,7 +66,7 @@ public class Crypto {
      */
     public static BigInteger getGenerator(int bits, BigInteger p) {
         // TODO: Generate an initial g with the given bit width.
-        for (BigInteger g = getRandom(bits, bits); g.compareTo(p) < 0; g.add(BigInteger.ONE)) {
+        for (BigInteger g = getRandom(bits, bits); g.compareTo(p) < 0; g = g.add(BigInteger.ONE)) {
             if (isValidG(g, p)) {
                 return g;
             }
@@ -95,104 +91,75 @@ public class Crypto {
 
     /**
      * <h3>checkPrime</h3>
-     * <p>Checks a number for primality using three tests: trial division; Fermat's little theorem; and the Miller-Rabin test.</p>
+     * <p>Checks a number for primality with a PrimalityTest: trial division, the Baillie-PSW test (a strong base 2 test and a strong Lucas test), and then extra Miller-Rabin rounds with random bases.</p>
+     * <p>Trial division uses the first TRIAL_DIVISION_PRIMES small primes, or for numbers below 2^31 every small prime up to the square root, which decides them outright.</p>
      * @param p
-     * @param numChecks How many iterations of Fermat's and M-R to perform before deciding that the number is likely prime.
+     * @param numChecks How many random-base M-R rounds to perform after BPSW before deciding that the number is likely prime.
      * @return True if the number passes all tests, false otherwise.
      */
     public static boolean checkPrime(BigInteger p, int numChecks) {
-        // Trial Division
-        boolean isPrime = true;
-        try {
-            Scanner scan = new Scanner(new File("primes.txt"));
-            while(scan.hasNext()) {
-                BigInteger b = new BigInteger(scan.nextLine());
-                if (p.mod(b).equals(BigInteger.ZERO)) {
-                    isPrime = false;
-                    break;
-                }
-            }
-            scan.close();
-        } catch (FileNotFoundException fnfEx) {
-            fnfEx.printStackTrace();
-        }
-        if (!isPrime) {
-            return false;
-        }
-
-        // Fermat's Little Theorem
-        BigInteger pm = p.subtract(BigInteger.ONE);
-        for (int i = 0; i < numChecks; i++) {
-            BigInteger a = getRandom(1, p.bitLength() - 1);
-            if (!fastMod(a, pm, p).equals(BigInteger.ONE)) {
-                return false;
-            }
-        }
-
-        // Miller-Rabin
-        BigInteger s = BigInteger.ZERO;
-        BigInteger d = pm;
-        while (d.mod(BigInteger.TWO).equals(BigInteger.ZERO)) {
-            s = s.add(BigInteger.ONE);
-            d = d.shiftRight(1);
-        }
-        for (int i = 0; i < numChecks; i++) {
-            BigInteger a = getRandom(1, p.bitLength() - 1);
-            BigInteger x = fastMod(a, d, p);
-            for (BigInteger j = BigInteger.ZERO;
-                 !j.equals(s);
-                 j = j.add(BigInteger.ONE)) {
-                x = x.pow(2);
-                BigInteger y = x.mod(p);
-                if (y.equals(BigInteger.ONE) && !x.equals(BigInteger.ONE) && !x.equals(pm)) {
-                    return false;
-                }
-                x = y;
-            }
-            if (!x.equals(BigInteger.ONE)) {
-                return false;
-            }
-        }
-
-        return isPrime;
+        return PrimalityTest.withRounds(numChecks).test(p);
     }
 
     /**
      * <h3>getPrime</h3>
-     * <p>Generates random numbers and checks them against checkPrime() until one passes the tests.</p>
+     * <p>Searches for a random prime with a PrimeSearch, with one worker per available processor, and waits for it.</p>
+     * <p>Each thread walks up from its own random odd starting point with a PrimeSieve, running the BPSW test only on the candidates with no small factors.</p>
      * @param minBits The minimum size (bit width) of the desired prime number.
      * @param maxBits The maximum size of the desired number.
      * @param numChecks The number of iterations of primality checking to perform.
      * @return The generated <i>likely-prime</i> number.
      */
     public static BigInteger getPrime(int minBits, int maxBits, int numChecks) {
-        int i = 0;
-        BigInteger p = getRandom(minBits, maxBits);
-        while (!checkPrime(p, numChecks)) {
-            i += 1;
-            p = getRandom(minBits, maxBits);
-        }
-        return p;
+        return PrimeSearch.prime(minBits, maxBits, numChecks).start().join();
     }
 
     /**
      * <h3>getSafePrime</h3>
      * <p>Generates and checks prime numbers for use in DHE.</p>
-     * <p>A "safe" prime has the form p = 2q+1 where q is a prime number, so we generate candidate values for q, check them for primality, then (for those which are likely prime) check the resulting p for primality.</p>
+     * <p>A "safe" prime has the form p = 2q+1 where q is a prime number. Candidate values of q (2048 to 3072 bits) are sieved together with their p, so only pairs where neither has a small factor are tested, q first and then p. The search runs one worker per available processor, on PrimeSearch's own threads rather than the common ForkJoinPool.</p>
      * @return The first discovered safe prime which falls within the specified range.
      */
     public static BigInteger getSafePrime() {
-        while(true) {
-            BigInteger q = getPrime(2048, 3072, 10);
-            //System.out.printf("%s is likely prime%n", q);
-            BigInteger p = q;
-            p = p.multiply(BigInteger.TWO);
-            p = p.add(BigInteger.ONE);
-            if (checkPrime(p, 10)) {
-                return p;
+        return PrimeSearch.safePrime(2049, 3073).start().join();
+    }
+
+    // The first count primes, from a sieve of Eratosthenes over a bound that is always big enough (Rosser's theorem)
+    private static int[] smallPrimes(int count) {
+        double n = Math.max(count, 6);
+        int limit = (int) (n * (Math.log(n) + Math.log(Math.log(n)))) + 1;
+        boolean[] composite = new boolean[limit + 1];
+        int[] primes = new int[count];
+        int found = 0;
+        for (int i = 2; found < count; i++) {
+            if (!composite[i]) {
+                primes[found++] = i;
+                for (long j = (long) i * i; j <= limit; j += i) {
+                    composite[(int) j] = true;
+                }
             }
-            //System.out.printf("Failed to find valid p for q = %s%n", q);
         }
+        return primes;
+    }
+
+    // The magnitude of a non-negative n as 32-bit words, most significant first
+    static int[] words(BigInteger n) {
+        byte[] bytes = n.toByteArray();
+        int[] words = new int[(bytes.length + 3) / 4];
+        for (int i = 0; i < bytes.length; i++) {
+            int fromEnd = bytes.length - 1 - i;
+            words[words.length - 1 - fromEnd / 4] |= (bytes[i] & 0xff) << (8 * (fromEnd % 4));
+        }
+        return words;
+    }
+
+    // n mod s for a small prime s, from the words of n (the remainder stays below 2^20, so shifting it by 32 fits in a long)
+    static int mod(int[] words, int s) {
+        long r = 0;
+        for (int w : words) {
+            r = ((r << 32) | (w & 0xffffffffL)) % s;
+        }
+        return (int) r;
     }
 
     /**
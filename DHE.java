@@ -6,6 +6,10 @@ import java.math.BigInteger;
  */
 public class DHE {
 
+    private static final Log LOG = Log.get("DHE");
+
+    static final int PRIVATE_KEY_BITS = 2048;
+
     //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     ///  VARIABLES                                                                                                         ///
     //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -22,6 +26,26 @@ public class DHE {
      */
     private BigInteger prime;
 
+    /**
+     * <h3>context</h3>
+     * <p>The exponentiation context for the prime, so any setup it needs is done once for every key computed with it.</p>
+     */
+    private ModExpContext context;
+
+    /**
+     * <h3>comb</h3>
+     * <p>The precomputed powers of the generator, shared by every instance using the same g and p, which make the public
+     * key several times faster to compute. Building them costs several public keys' worth of work, so it is left to
+     * getPublicKey(), and only done for a group that is used more than once.</p>
+     */
+    private FixedBaseComb comb;
+
+    /**
+     * <h3>agreed</h3>
+     * <p>True when g and p were agreed with the other party, who uses the same group.</p>
+     */
+    private boolean agreed;
+
     /**
      * <h3>privateKey</h3>
      * <p>Our private key.</p>
@@ -51,8 +75,9 @@ public class DHE {
         // Convert pBits -> prime
         this.prime = Crypto.getPrime(pBits, pBits, 10);
         this.generator = Crypto.getGenerator(gBits, prime);
-        Tools.debugLog("(" + name + ") - Prime and generator generated!");
-        this.privateKey = this.getBase(2048, name);
+        this.context = ModExpContext.of(this.prime);
+        LOG.debug(() -> "(" + name + ") - Prime and generator generated!");
+        this.privateKey = this.getBase(PRIVATE_KEY_BITS, name);
         this.name = name;
     }
 
@@ -68,8 +93,10 @@ public class DHE {
     public DHE(BigInteger g, BigInteger p, String name) {
         this.prime = p;
         this.generator = g;
-        Tools.debugLog("(" + name +") - Initialized with agreed public g and p!");
-        this.privateKey = this.getBase(2048, name);
+        this.context = ModExpContext.of(p);
+        this.agreed = true;
+        LOG.debug(() -> "(" + name +") - Initialized with agreed public g and p!");
+        this.privateKey = this.getBase(PRIVATE_KEY_BITS, name);
         this.name = name;
 
     }
@@ -85,24 +112,29 @@ public class DHE {
      * @return The generated base value
      */
     public BigInteger getBase(int bits, String name) {
-        Tools.debugLog("(" + name + ") - Generating a private key of " + bits + " bits...");
+        LOG.debug(() -> "(" + name + ") - Generating a private key of " + bits + " bits...");
         return Crypto.getRandom(bits, bits);
     }
 
     public BigInteger getPublicKey() {
-        Tools.debugLog("(" + name + ") - Providing my public key...");
-        Tools.debugLog("(" + name + ") - Generating public key using my private key and public generator/prime...");
-        Tools.debugLog("Calculating public key with g^a mod p...");
-        BigInteger publicKey = this.generator.modPow(this.privateKey, this.prime);
+        LOG.debug(() -> "(" + name + ") - Providing my public key...");
+        LOG.debug(() -> "(" + name + ") - Generating public key using my private key and public generator/prime...");
+        LOG.debug(() -> "Calculating public key with g^a mod p...");
+        if (this.comb == null) {
+            this.comb = this.agreed ? FixedBaseComb.of(this.generator, this.prime, PRIVATE_KEY_BITS)
+                : FixedBaseComb.ifReused(this.generator, this.prime, PRIVATE_KEY_BITS);
+        }
+        BigInteger publicKey = this.comb != null ? this.comb.pow(this.privateKey)
+            : this.context.pow(this.generator, this.privateKey); // First use of a new group
 
         return publicKey;
     }
 
     public BigInteger getCommonKey(BigInteger publicKey) {
-        Tools.debugLog("(" + name + ") - Generating common key using my private key and the other party's public key...");
-        Tools.debugLog("Calculating common key with A^b mod p...");
-        BigInteger commonKey = publicKey.modPow(this.privateKey, this.prime);
-        Tools.debugLog("(" + name + ") - Common key is a shared secret!");
+        LOG.debug(() -> "(" + name + ") - Generating common key using my private key and the other party's public key...");
+        LOG.debug(() -> "Calculating common key with A^b mod p...");
+        BigInteger commonKey = this.context.pow(publicKey, this.privateKey);
+        LOG.debug(() -> "(" + name + ") - Common key is a shared secret!");
         return commonKey;
     }
 
@@ -116,18 +148,21 @@ public class DHE {
         DHE Bob = new DHE(512, 2048, "Bob");
         DHE Alice = new DHE(Bob.generator, Bob.prime, "Alice");
 
+        Log.flush(); // Let the debug output finish first
         System.out.println("\nAlice's private key: " + Alice.privateKey);
         System.out.println("\nBob's private key: " + Bob.privateKey);
 
         BigInteger A = Alice.getPublicKey();
         BigInteger B = Bob.getPublicKey();
 
+        Log.flush();
         System.out.println("\nAlice's public key: " + A);
         System.out.println("\nBob's public key: " + B);
 
         BigInteger commonKeyAlice = Alice.getCommonKey(B);
         BigInteger commonKeyBob = Bob.getCommonKey(A);
 
+        Log.flush();
         System.out.println("\nAlice's common key: " + commonKeyAlice);
         System.out.println("\nBob's common key: " + commonKeyBob);
 
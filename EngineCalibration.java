@@ -0,0 +1,316 @@
+import com.sun.management.HotSpotDiagnosticMXBean;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <h1>EngineCalibration</h1>
+ * <p>Picks the engine used by <b>new AES(key)</b>. Every candidate is checked against the known-answer vector from AES
+ * Debug.txt first. The reference engine is slower than the others by orders of magnitude, so it is only checked (and
+ * used) when all of them fail.</p>
+ * <p>Where the answer is known without timing, nothing is timed:</p>
+ * <ul>
+ *     <li><b>JCA</b> when HotSpot runs the platform cipher on the CPU's AES instructions. It is the fastest in bulk by
+ *     far, and JcaAES sends single blocks (CBC encryption, GCM's hash key, the XTS tweak) to the tables.</li>
+ *     <li>Otherwise <b>VECTOR</b> when the Vector API engine is loaded, which is the fastest pure Java engine once
+ *     compiled. It takes seconds to compile, far longer than any timing run should take.</li>
+ * </ul>
+ * <p>Otherwise the table, JCA and bitsliced engines are timed, and the fastest one is selected. The timed work is half
+ * bulk ECB encryption and half CBC encryption, which goes through the engine one block at a time, so an engine that is
+ * only fast in bulk does not win on that alone. The engines take turns at short rounds of ROUND_MILLIS. An engine is
+ * done once the JIT has compiled nothing for IDLE_ROUNDS of its rounds in a row, so it is not judged while it is still
+ * being interpreted, and the best of those rounds counts. The timing stops after <b>aes.engine.calibrationMillis</b>
+ * (default 300) even if some engines are not done, and those are judged on their best round.</p>
+ * <p>The choice is made on a background thread started when the class is loaded, so the first AES does not wait for
+ * it. Until it has finished, <b>selected()</b> returns the table engine (once it has passed the known-answer test),
+ * and instances created in that time keep it. <b>await()</b> waits for the result.</p>
+ * <p>The <b>aes.engine</b> system property names the engine to use instead (REFERENCE, TABLE, BITSLICED, VECTOR or JCA,
+ * or AUTO for the timed choice). A forced engine still has to pass the known-answer test, but is not timed, and nothing
+ * runs in the background.</p>
+ * <p>The final choice is copied to the <b>aes.engine.selected</b> system property. While the AES log is at TRACE level
+ * every instance uses the reference engine anyway, so nothing is run.</p>
+ */
+public final class EngineCalibration {
+
+    public static final String PROPERTY = "aes.engine";
+    public static final String SELECTED_PROPERTY = "aes.engine.selected";
+    static final int MILLIS = Integer.getInteger("aes.engine.calibrationMillis", 300); // For the whole calibration
+
+    // Known-answer vector (AES Debug.txt)
+    private static final String KAT_KEY = "Thats my Kung Fu";
+    private static final String KAT_PLAIN = "Two One Nine Two";
+    private static final String KAT_CIPHER = "29c3505f571420f6402299b31a02d73a";
+    private static final int KAT_BLOCKS = 9; // More than one pass of the 8 block engines, with a partial pass at the end
+    private static final int CHUNK_BLOCKS = 16; // Blocks per call while timing, small so an engine still being interpreted does not overrun
+    private static final int ROUND_MILLIS = 10;
+    private static final int IDLE_ROUNDS = 3; // Rounds in a row without JIT activity before an engine counts as compiled
+
+    // Engines that are timed when neither the AES instructions nor the Vector API are there, in the order they take turns
+    private static final AES.Engine[] TIMED = {AES.Engine.TABLE, AES.Engine.JCA, AES.Engine.BITSLICED};
+
+    private static volatile AES.Engine selected;
+    private static volatile Map<AES.Engine, Double> throughput = Collections.emptyMap();
+    private static final Thread CALIBRATION; // Null when nothing is timed
+
+    static {
+        String property = System.getProperty(PROPERTY, "AUTO");
+        if (AES.LOG.enabled(Log.Level.TRACE) || !property.equalsIgnoreCase("AUTO")) {
+            publish(forced(property), Collections.emptyMap());
+            CALIBRATION = null;
+        } else {
+            selected = passes(AES.Engine.TABLE) ? AES.Engine.TABLE : reference();
+            CALIBRATION = new Thread(EngineCalibration::calibrate, "aes-engine-calibration");
+            CALIBRATION.setDaemon(true);
+            CALIBRATION.start();
+        }
+    }
+
+    private EngineCalibration() {
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  FUNCTIONS                                                                                                         ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>selected</h3>
+     * <p>Does not wait for the calibration. Until it has finished this is the table engine.</p>
+     * @return The engine used by AES instances created without one.
+     */
+    public static AES.Engine selected() {
+        return selected;
+    }
+
+    /**
+     * <h3>await</h3>
+     * <p>Waits for the background calibration to finish, if one is running. Benchmarks call this first so they time
+     * the engine that will be used from then on.</p>
+     * @return The engine used by AES instances created without one.
+     */
+    public static AES.Engine await() {
+        if (CALIBRATION != null) {
+            try {
+                CALIBRATION.join();
+            } catch (InterruptedException iEx) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * <h3>throughput</h3>
+     * @return Encryption speed in MB/s of every engine that was timed. Empty until the calibration has finished, and
+     * when nothing was timed. Engines that failed the known-answer test are missing.
+     */
+    public static Map<AES.Engine, Double> throughput() {
+        return throughput;
+    }
+
+    /**
+     * <h3>passes</h3>
+     * <p>Runs the known-answer test against an engine: ECB over several copies of the test block, both in bulk and
+     * one block at a time, and the decryption of each.</p>
+     * @param engine The engine to test.
+     * @return True if every result matched.
+     */
+    public static boolean passes(AES.Engine engine) {
+        byte[] plain = AES.stringToBytes(KAT_PLAIN);
+        byte[] expected = AES.hexToBytes(KAT_CIPHER);
+        try {
+            AES aes = new AES(KAT_KEY, engine);
+            byte[] buf = new byte[KAT_BLOCKS * 16];
+            for (int i = 0; i < KAT_BLOCKS; i++) {
+                System.arraycopy(plain, 0, buf, i * 16, 16);
+            }
+            aes.encryptBlocks(buf, 0, KAT_BLOCKS, false, null);
+            boolean ok = repeats(buf, expected);
+            aes.decryptBlocks(buf, 0, KAT_BLOCKS, false, null);
+            ok &= repeats(buf, plain);
+
+            byte[] chain = new byte[16]; // CBC with a zero IV goes through the single block functions
+            aes.encryptBlocks(buf, 0, 1, true, chain);
+            ok &= Arrays.equals(buf, 0, 16, expected, 0, 16);
+            aes.decryptBlocks(buf, 0, 1, true, new byte[16]);
+            return ok && Arrays.equals(buf, 0, 16, plain, 0, 16);
+        } catch (RuntimeException | LinkageError e) {
+            return false; // An engine that cannot run on this platform simply fails
+        }
+    }
+
+    /**
+     * <h3>measure</h3>
+     * <p>Times encryption with an engine for about <b>millis</b> milliseconds, alternating bulk ECB and one-block-at-a-time
+     * CBC over the same number of blocks. The first quarter is warm-up and is not counted.</p>
+     * @param engine The engine to time.
+     * @param millis The time budget in milliseconds.
+     * @return The throughput in MB/s.
+     */
+    public static double measure(AES.Engine engine, int millis) {
+        AES aes = new AES(KAT_KEY, engine);
+        byte[] buf = new byte[CHUNK_BLOCKS * 16];
+        byte[] chain = new byte[16];
+        long warmup = millis * 250_000L;
+        long budget = millis * 750_000L;
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < warmup) {
+            aes.encryptBlocks(buf, 0, CHUNK_BLOCKS, false, null);
+            aes.encryptBlocks(buf, 0, CHUNK_BLOCKS, true, chain);
+        }
+        long bytes = 0;
+        long begin = System.nanoTime();
+        long elapsed;
+        do {
+            aes.encryptBlocks(buf, 0, CHUNK_BLOCKS, false, null);
+            aes.encryptBlocks(buf, 0, CHUNK_BLOCKS, true, chain);
+            bytes += 2 * buf.length;
+            elapsed = System.nanoTime() - begin;
+        } while (elapsed < budget);
+        return bytes * 1000.0 / elapsed; // Bytes per nanosecond * 1000 = MB/s
+    }
+
+    // The reference engine while tracing, otherwise the engine the property names
+    private static AES.Engine forced(String property) {
+        if (AES.LOG.enabled(Log.Level.TRACE)) {
+            return AES.Engine.REFERENCE;
+        }
+        AES.Engine forced;
+        try {
+            forced = AES.Engine.valueOf(property.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException iaEx) {
+            throw new IllegalArgumentException("Unknown " + PROPERTY + " value: " + property, iaEx);
+        }
+        if (!passes(forced)) {
+            throw new IllegalStateException("Engine " + forced + " failed the AES known-answer test.");
+        }
+        return forced;
+    }
+
+    // The background thread: the fastest engine that passes the known-answer test
+    private static void calibrate() {
+        if (aesInstructions() && passes(AES.Engine.JCA)) {
+            publish(AES.Engine.JCA, Collections.emptyMap());
+            return;
+        }
+        if (AES.vectorAvailable() && passes(AES.Engine.VECTOR)) {
+            publish(AES.Engine.VECTOR, Collections.emptyMap());
+            return;
+        }
+
+        Map<AES.Engine, Timing> timings = new EnumMap<>(AES.Engine.class);
+        for (AES.Engine engine : TIMED) {
+            if (passes(engine)) {
+                timings.put(engine, new Timing());
+            }
+        }
+        long deadline = System.nanoTime() + MILLIS * 1_000_000L;
+        boolean timing = true;
+        while (timing && System.nanoTime() < deadline) {
+            timing = false;
+            for (Map.Entry<AES.Engine, Timing> e : timings.entrySet()) {
+                if (!e.getValue().settled) {
+                    e.getValue().round(e.getKey());
+                    timing = true;
+                }
+            }
+        }
+
+        Map<AES.Engine, Double> speeds = new EnumMap<>(AES.Engine.class);
+        for (Map.Entry<AES.Engine, Timing> e : timings.entrySet()) {
+            speeds.put(e.getKey(), e.getValue().speed());
+        }
+        publish(speeds.isEmpty() ? selected : fastest(speeds), speeds); // Else the table or reference engine checked at load
+    }
+
+    // True when HotSpot runs the platform cipher on the CPU's AES instructions. It only turns UseAES on for CPUs that
+    // have them, and UseAESIntrinsics follows it unless it was turned off on the command line. The latter is a
+    // diagnostic flag, which cannot be read back, so the command line is checked instead.
+    private static boolean aesInstructions() {
+        try {
+            HotSpotDiagnosticMXBean vm = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            return vm != null && Boolean.parseBoolean(vm.getVMOption("UseAES").getValue())
+                && !ManagementFactory.getRuntimeMXBean().getInputArguments().contains("-XX:-UseAESIntrinsics");
+        } catch (RuntimeException | LinkageError e) {
+            return false; // Not HotSpot, so the engines are timed
+        }
+    }
+
+    private static AES.Engine reference() {
+        if (!passes(AES.Engine.REFERENCE)) {
+            throw new IllegalStateException("No AES engine passed the known-answer test.");
+        }
+        return AES.Engine.REFERENCE;
+    }
+
+    private static void publish(AES.Engine engine, Map<AES.Engine, Double> speeds) {
+        throughput = Collections.unmodifiableMap(speeds);
+        selected = engine;
+        System.setProperty(SELECTED_PROPERTY, engine.name());
+    }
+
+    // Total JIT compilation time so far in milliseconds, or -1 when the JVM does not report it
+    private static long compileTime() {
+        CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
+        return jit != null && jit.isCompilationTimeMonitoringSupported() ? jit.getTotalCompilationTime() : -1;
+    }
+
+    private static AES.Engine fastest(Map<AES.Engine, Double> throughput) {
+        AES.Engine best = null;
+        for (Map.Entry<AES.Engine, Double> e : throughput.entrySet()) {
+            if (best == null || e.getValue() > throughput.get(best)) {
+                best = e.getKey();
+            }
+        }
+        return best;
+    }
+
+    /**
+     * <h3>Timing</h3>
+     * <p>The rounds of one engine so far. It is settled after IDLE_ROUNDS rounds in a row in which the JIT compiled
+     * nothing. A JVM that does not report compilation time never settles an engine, since there is no telling whether
+     * it was compiled.</p>
+     */
+    private static final class Timing {
+        double best; // Best round of all
+        double bestIdle; // Best round of the current run without JIT activity
+        int idle;
+        boolean settled;
+
+        void round(AES.Engine engine) {
+            long compiling = compileTime();
+            double speed = measure(engine, ROUND_MILLIS);
+            this.best = Math.max(this.best, speed);
+            if (compiling < 0 || compileTime() != compiling) {
+                this.idle = 0;
+                this.bestIdle = 0;
+                return;
+            }
+            this.bestIdle = Math.max(this.bestIdle, speed);
+            this.settled = ++this.idle == IDLE_ROUNDS;
+        }
+
+        double speed() {
+            return this.settled ? this.bestIdle : this.best;
+        }
+    }
+
+    private static boolean repeats(byte[] buf, byte[] block) {
+        for (int i = 0; i < buf.length; i += 16) {
+            if (!Arrays.equals(buf, i, i + 16, block, 0, 16)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void main(String[] args) {
+        System.out.println("Selected engine: " + await());
+        for (Map.Entry<AES.Engine, Double> e : throughput().entrySet()) {
+            System.out.printf("%-10s %10.2f MB/s%n", e.getKey(), e.getValue());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * <h1>ExpandedKey</h1>
+ * <p>The expanded AES-128 key schedule: 44 encryption round key words, and 44 decryption round key words for the
+ * equivalent inverse cipher (round order reversed, InvMixColumns applied to the inner round keys).</p>
+ * <p>Instances are never changed after construction, except by <b>wipe()</b> which KeyCache uses on evicted keys.</p>
+ */
+public final class ExpandedKey {
+
+    private static final int[] RC = {0x01, 0x02, 0x04, 0x08, 0x10, 0x20, 0x40, 0x80, 0x1B, 0x36}; // Round constants
+
+    final int[] enc; // Encryption round keys, one big-endian word per state column
+    final int[] dec; // Decryption round keys for the equivalent inverse cipher
+
+    private ExpandedKey(int[] enc, int[] dec) {
+        this.enc = enc;
+        this.dec = dec;
+    }
+
+    /**
+     * <h3>expand</h3>
+     * <p>Runs the AES-128 key schedule on a 16 byte key.</p>
+     * @param key The key bytes (only the first 16 are used).
+     * @return The expanded key.
+     */
+    public static ExpandedKey expand(byte[] key) {
+        if (key.length < 16) {
+            throw new IllegalArgumentException("Key must be at least 16 bytes long.");
+        }
+        int[] words = new int[44];
+
+        // First, grab the first 4 words from our key
+        for (int i = 0; i < 4; i++) {
+            words[i] = TableAES.getInt(key, i * 4);
+        }
+        // Next, we will generate the remaining 40 words using the key schedule
+        for (int i = 4; i < 44; i++) {
+            if (i % 4 == 0) {
+                int rconWord = RC[i / 4 - 1] << 24;
+                words[i] = words[i - 4] ^ subWord(Integer.rotateLeft(words[i - 1], 8)) ^ rconWord; // XOR with previous word and round constant
+            } else {
+                words[i] = words[i - 4] ^ words[i - 1]; // XOR with previous word
+            }
+        }
+
+        // Reverse the round order and apply InvMixColumns to the inner round keys
+        int[] dec = new int[44];
+        for (int round = 0; round <= 10; round++) {
+            for (int c = 0; c < 4; c++) {
+                int w = words[(10 - round) * 4 + c];
+                if (round > 0 && round < 10) {
+                    w = TableAES.invMixColumn(w);
+                }
+                dec[round * 4 + c] = w;
+            }
+        }
+        return new ExpandedKey(words, dec);
+    }
+
+    /**
+     * <h3>roundKeyHex</h3>
+     * <p>Returns encryption round key <b>round</b> (0 to 10) as 32 hex digits, the form used by the debug key schedule.</p>
+     */
+    public String roundKeyHex(int round) {
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < 4; i++) {
+            TableAES.putInt(bytes, i * 4, this.enc[round * 4 + i]);
+        }
+        return Codec.toHex(bytes);
+    }
+
+    /**
+     * <h3>copy</h3>
+     * <p>Returns an independent copy, so the original can be wiped without affecting it.</p>
+     */
+    ExpandedKey copy() {
+        return new ExpandedKey(this.enc.clone(), this.dec.clone());
+    }
+
+    /**
+     * <h3>wipe</h3>
+     * <p>Overwrites both schedules with zeros.</p>
+     */
+    void wipe() {
+        java.util.Arrays.fill(this.enc, 0);
+        java.util.Arrays.fill(this.dec, 0);
+    }
+
+    // Apply SubWord (substitute bytes using the AES S-box)
+    private static int subWord(int word) {
+        return (TableAES.SB[word >>> 24] << 24) | (TableAES.SB[(word >>> 16) & 0xff] << 16)
+            | (TableAES.SB[(word >>> 8) & 0xff] << 8) | TableAES.SB[word & 0xff];
+    }
+}
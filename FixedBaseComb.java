@@ -0,0 +1,391 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <h1>FixedBaseComb</h1>
+ * <p>Precomputed powers of a fixed base g mod p, for computing g^e mod p for many exponents e, as DHE does for every
+ * public key. This is the Lim-Lee comb method: the exponent bits are written as a table of ROWS rows, and each column of
+ * the table (one bit from each row) indexes a precomputed product of powers of g. With BLOCKS tables of 2^ROWS entries
+ * each, a 2048-bit exponent takes 63 squarings and at most 256 multiplications, instead of the 2048 squarings and
+ * about 350 multiplications of BigInteger.modPow().</p>
+ * <p>The multiplications are BigInteger multiplications with Barrett reduction, using a constant computed from p once,
+ * which is about three times faster than BigInteger.mod().</p>
+ * <p>Building a table costs several exponentiations, so it only pays off for a group that computes more than a few
+ * powers. <b>ifReused()</b> returns the table only once a group is used a second time.</p>
+ * <p><b>of()</b> returns a table shared by every caller using the same group. When the <b>crypto.fixedBase.dir</b>
+ * system property names a directory, the tables are also saved there, and loaded from there instead of being built
+ * again after a restart. A table is Serializable, and can also be written and read with <b>save()</b> and
+ * <b>load()</b>.</p>
+ * <p>The running time depends on the exponent, like BigInteger.modPow().</p>
+ */
+public final class FixedBaseComb implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final Log LOG = Log.get("DHE");
+
+    public static final String DIR_PROPERTY = "crypto.fixedBase.dir";
+    static final int ROWS = 8; // Exponent bits per table index, so 2^ROWS entries per table
+    static final int BLOCKS = 4; // Tables, each one covering a quarter of the columns
+    static final int CAPACITY = 8; // Groups kept in memory
+
+    private static final Map<List<Object>, FixedBaseComb> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, FixedBaseComb> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    // Groups ifReused() has been asked for once, without building their table
+    private static final Map<List<Object>, Boolean> SEEN = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, Boolean> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    private final BigInteger g;
+    private final BigInteger p;
+    private final int exponentBits; // Longest exponent the table covers
+    private final int columns; // Bits per row
+    private final int width; // Columns per block
+    // table[j][u] = product of g^(2^(i * columns + j * width)) over the bits i of u. Serialized as one block of fixed-width
+    // entries by writeObject(), which is much quicker to read back than an array of BigIntegers
+    private transient BigInteger[][] table;
+    private transient BigInteger mu; // floor(4^k / p) for Barrett reduction, k = bit length of p
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  CONSTRUCTORS                                                                                                      ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>FixedBaseComb Constructor</h3>
+     * <p>Builds the table, which takes exponentBits squarings and BLOCKS * 2^ROWS multiplications, a little more than one
+     * BigInteger.modPow().</p>
+     * @param g The base.
+     * @param p The modulus, greater than 1.
+     * @param exponentBits The bit length of the longest exponent that will be used. Longer ones still work, without the
+     *                     table.
+     */
+    public FixedBaseComb(BigInteger g, BigInteger p, int exponentBits) {
+        if (p.compareTo(BigInteger.ONE) <= 0 || exponentBits < 1) {
+            throw new IllegalArgumentException("Invalid modulus or exponent length.");
+        }
+        this.g = g;
+        this.p = p;
+        this.exponentBits = exponentBits;
+        this.columns = (exponentBits + ROWS - 1) / ROWS;
+        this.width = (this.columns + BLOCKS - 1) / BLOCKS;
+        int k = p.bitLength();
+        this.mu = BigInteger.ONE.shiftLeft(2 * k).divide(p);
+
+        BigInteger[] powers = new BigInteger[ROWS * BLOCKS]; // g^(2^(i * columns + j * width)) at i * BLOCKS + j
+        BigInteger x = g.mod(p);
+        for (int bit = 0, i = 0; i < ROWS; i++) {
+            for (int j = 0; j < BLOCKS; j++) {
+                if (j * this.width >= this.columns) {
+                    powers[i * BLOCKS + j] = BigInteger.ONE; // Short exponents leave the last blocks empty
+                    continue;
+                }
+                int target = i * this.columns + j * this.width;
+                for (; bit < target; bit++) {
+                    x = mul(x, x);
+                }
+                powers[i * BLOCKS + j] = x;
+            }
+        }
+        this.table = new BigInteger[BLOCKS][1 << ROWS];
+        for (int j = 0; j < BLOCKS; j++) {
+            BigInteger[] t = this.table[j];
+            t[0] = BigInteger.ONE;
+            for (int u = 1; u < t.length; u++) {
+                int low = Integer.numberOfTrailingZeros(u);
+                t[u] = (u & (u - 1)) == 0 ? powers[low * BLOCKS + j] : mul(t[u & (u - 1)], t[1 << low]);
+            }
+        }
+    }
+
+    /**
+     * <h3>of</h3>
+     * <p>Returns the shared table for a group, loading it from the <b>crypto.fixedBase.dir</b> directory or building it
+     * (and saving it there) on first use.</p>
+     * @param g The base.
+     * @param p The modulus, greater than 1.
+     * @param exponentBits The bit length of the longest exponent that will be used.
+     * @return The table.
+     */
+    public static FixedBaseComb of(BigInteger g, BigInteger p, int exponentBits) {
+        List<Object> key = List.of(g, p, exponentBits);
+        synchronized (CACHE) {
+            FixedBaseComb cached = CACHE.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        String dir = System.getProperty(DIR_PROPERTY);
+        String id = id(g, p, exponentBits);
+        Path file = dir == null ? null : Path.of(dir, id + ".comb");
+        FixedBaseComb comb = file == null ? null : loadIfPresent(file, g, p, exponentBits);
+        if (comb == null) {
+            comb = new FixedBaseComb(g, p, exponentBits);
+            if (file != null) {
+                save(comb, file, id);
+            }
+        }
+        synchronized (CACHE) {
+            FixedBaseComb raced = CACHE.putIfAbsent(key, comb);
+            return raced != null ? raced : comb;
+        }
+    }
+
+    /**
+     * <h3>ifReused</h3>
+     * <p>Returns the shared table for a group if it is already in memory or saved, or if the group was asked for before.
+     * The first call for any other group only records it and returns null, and the caller computes that power without
+     * a table.</p>
+     * @param g The base.
+     * @param p The modulus, greater than 1.
+     * @param exponentBits The bit length of the longest exponent that will be used.
+     * @return The table, or null on the first use of the group.
+     */
+    public static FixedBaseComb ifReused(BigInteger g, BigInteger p, int exponentBits) {
+        List<Object> key = List.of(g, p, exponentBits);
+        synchronized (CACHE) {
+            if (!CACHE.containsKey(key) && SEEN.put(key, Boolean.TRUE) == null) {
+                String dir = System.getProperty(DIR_PROPERTY);
+                if (dir == null || !Files.isRegularFile(Path.of(dir, id(g, p, exponentBits) + ".comb"))) {
+                    return null;
+                }
+            }
+        }
+        return of(g, p, exponentBits);
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  FUNCTIONS                                                                                                         ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>pow</h3>
+     * @param e The exponent, which must not be negative.
+     * @return g^e mod p.
+     * @throws IllegalArgumentException If the exponent is negative.
+     */
+    public BigInteger pow(BigInteger e) {
+        if (e.signum() < 0) {
+            throw new IllegalArgumentException("The exponent cannot be negative.");
+        }
+        if (e.bitLength() > this.exponentBits) {
+            return Crypto.fastMod(this.g, e, this.p); // Beyond the table
+        }
+        BigInteger r = BigInteger.ONE;
+        for (int k = this.width - 1; k >= 0; k--) {
+            if (!r.equals(BigInteger.ONE)) {
+                r = mul(r, r);
+            }
+            for (int j = BLOCKS - 1; j >= 0; j--) {
+                int u = 0; // Column j * width + k, one bit from each row
+                for (int i = ROWS - 1; i >= 0; i--) {
+                    int bit = i * this.columns + j * this.width + k;
+                    u = (u << 1) | (j * this.width + k < this.columns && e.testBit(bit) ? 1 : 0);
+                }
+                if (u != 0) {
+                    r = mul(r, this.table[j][u]);
+                }
+            }
+        }
+        return r;
+    }
+
+    /**
+     * <h3>base</h3>
+     * @return g.
+     */
+    public BigInteger base() {
+        return this.g;
+    }
+
+    /**
+     * <h3>modulus</h3>
+     * @return p.
+     */
+    public BigInteger modulus() {
+        return this.p;
+    }
+
+    /**
+     * <h3>save</h3>
+     * <p>Writes the table with Java serialization.</p>
+     * @param out The stream, which is not closed.
+     * @throws IOException If the stream cannot be written.
+     */
+    public void save(OutputStream out) throws IOException {
+        ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.writeObject(this);
+        oos.flush();
+    }
+
+    /**
+     * <h3>load</h3>
+     * <p>Reads a table written by <b>save()</b>. Only the classes a table is made of are accepted from the stream.</p>
+     * @param in The stream, which is not closed.
+     * @return The table.
+     * @throws IOException If the stream cannot be read or does not hold a valid table.
+     */
+    public static FixedBaseComb load(InputStream in) throws IOException {
+        ObjectInputStream ois = new ObjectInputStream(in);
+        ois.setObjectInputFilter(ObjectInputFilter.Config.createFilter(
+            "FixedBaseComb;java.math.BigInteger;java.lang.Number;maxdepth=4;maxarray=65536;!*"));
+        try {
+            return (FixedBaseComb) ois.readObject();
+        } catch (ClassNotFoundException | ClassCastException ex) {
+            throw new InvalidObjectException("Not a fixed-base table: " + ex);
+        }
+    }
+
+    // The fields, then the entries as big-endian numbers of the byte length of p, then the SHA-256 of all of them
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        int size = (this.p.bitLength() + 7) / 8;
+        byte[] entries = new byte[BLOCKS * (1 << ROWS) * size];
+        for (int j = 0; j < BLOCKS; j++) {
+            for (int u = 0; u < 1 << ROWS; u++) {
+                byte[] x = this.table[j][u].toByteArray(); // May have a leading zero byte, never more than size otherwise
+                int len = Math.min(x.length, size);
+                System.arraycopy(x, x.length - len, entries, ((j << ROWS) + u + 1) * size - len, len);
+            }
+        }
+        out.write(entries);
+        out.write(digest(entries));
+    }
+
+    // Checks what cannot be trusted from a stream: the shape, the digest, the range of every entry, and that the table
+    // starts from g
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (this.g == null || this.p == null || this.p.compareTo(BigInteger.ONE) <= 0 || this.exponentBits < 1
+            || this.columns != (this.exponentBits + ROWS - 1) / ROWS || this.width != (this.columns + BLOCKS - 1) / BLOCKS) {
+            throw new InvalidObjectException("Corrupt fixed-base table.");
+        }
+        int size = (this.p.bitLength() + 7) / 8;
+        byte[] entries = new byte[BLOCKS * (1 << ROWS) * size];
+        byte[] digest = new byte[32];
+        in.readFully(entries);
+        in.readFully(digest);
+        if (!MessageDigest.isEqual(digest, digest(entries))) {
+            throw new InvalidObjectException("Corrupt fixed-base table.");
+        }
+        this.table = new BigInteger[BLOCKS][1 << ROWS];
+        for (int j = 0; j < BLOCKS; j++) {
+            for (int u = 0; u < 1 << ROWS; u++) {
+                BigInteger x = new BigInteger(1, entries, ((j << ROWS) + u) * size, size);
+                if (x.compareTo(this.p) >= 0) {
+                    throw new InvalidObjectException("Corrupt fixed-base table.");
+                }
+                this.table[j][u] = x;
+            }
+        }
+        this.mu = BigInteger.ONE.shiftLeft(2 * this.p.bitLength()).divide(this.p);
+        if (!this.table[0][1].equals(this.g.mod(this.p))) {
+            throw new InvalidObjectException("Fixed-base table does not match its base.");
+        }
+    }
+
+    // SHA-256 of g, p, the exponent length and the serialized entries
+    private byte[] digest(byte[] entries) {
+        MessageDigest md = sha256();
+        update(md, this.g, this.p, this.exponentBits);
+        md.update(entries);
+        return md.digest();
+    }
+
+    // a * b mod p for a and b below p, with Barrett reduction
+    private BigInteger mul(BigInteger a, BigInteger b) {
+        BigInteger x = a.multiply(b);
+        int k = this.p.bitLength();
+        BigInteger q = x.shiftRight(k - 1).multiply(this.mu).shiftRight(k + 1); // At most 2 below x / p
+        BigInteger r = x.subtract(q.multiply(this.p));
+        while (r.compareTo(this.p) >= 0) {
+            r = r.subtract(this.p);
+        }
+        return r;
+    }
+
+    // Written to a temporary file and moved into place, so another process never loads half a table
+    private static void save(FixedBaseComb comb, Path file, String id) {
+        Path tmp = null;
+        try {
+            Files.createDirectories(file.getParent());
+            tmp = Files.createTempFile(file.getParent(), id, ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                comb.save(out);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioEx) {
+            LOG.log(Log.Level.WARN, "Could not save the fixed-base table to " + file + ": " + ioEx);
+            try {
+                if (tmp != null) {
+                    Files.deleteIfExists(tmp);
+                }
+            } catch (IOException ignored) {
+                // Nothing more to do
+            }
+        }
+    }
+
+    private static FixedBaseComb loadIfPresent(Path file, BigInteger g, BigInteger p, int exponentBits) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            FixedBaseComb comb = load(in);
+            if (comb.g.equals(g) && comb.p.equals(p) && comb.exponentBits == exponentBits) {
+                return comb;
+            }
+            LOG.log(Log.Level.WARN, "Fixed-base table " + file + " is for another group, rebuilding it.");
+        } catch (IOException ioEx) {
+            LOG.log(Log.Level.WARN, "Could not load the fixed-base table " + file + ", rebuilding it: " + ioEx);
+        }
+        return null;
+    }
+
+    // A file name for the group: the first half of the SHA-256 of g, p and the exponent length
+    private static String id(BigInteger g, BigInteger p, int exponentBits) {
+        MessageDigest md = sha256();
+        update(md, g, p, exponentBits);
+        return HexFormat.of().formatHex(md.digest(), 0, 16);
+    }
+
+    // Length-prefixed, so no two groups hash the same bytes
+    private static void update(MessageDigest md, BigInteger g, BigInteger p, int exponentBits) {
+        for (BigInteger x : new BigInteger[] {g, p, BigInteger.valueOf(exponentBits)}) {
+            byte[] bytes = x.toByteArray();
+            md.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+            md.update(bytes);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsaEx) {
+            throw new IllegalStateException("SHA-256 is not available", nsaEx);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * <h1>GCM</h1>
+ * <p>Galois/Counter Mode authenticated encryption (NIST SP 800-38D) on top of the AES block function.</p>
+ * <p>The message is processed in segments: each segment is CTR encrypted (in parallel when it is large enough) and then
+ * hashed with GHASH while it is still in cache, so the data is only walked once. GHASH multiplies by the hash key H
+ * with Shoup's 4-bit method, using a 16 entry table of multiples of H that is built once per key.</p>
+ * <p>The tag is always 16 bytes and is appended to the ciphertext.</p>
+ */
+public class GCM {
+
+    static final int TAG_LENGTH = 16;
+    static final int SEGMENT_SIZE = 4 * CTR.PARALLEL_THRESHOLD; // Bytes CTR encrypted before they are hashed
+
+    // Reduction constants for the four bits shifted out of a field element when it is multiplied by x^4
+    private static final long[] R4 = new long[16];
+    static {
+        for (int r = 0; r < 16; r++) {
+            long hi = 0;
+            long lo = r;
+            for (int i = 0; i < 4; i++) {
+                boolean carry = (lo & 1) != 0;
+                lo = (lo >>> 1) | (hi << 63);
+                hi >>>= 1;
+                if (carry) {
+                    hi ^= 0xe100000000000000L;
+                }
+            }
+            R4[r] = hi;
+        }
+    }
+
+    private final AES aes;
+    private final long[] tableHi = new long[16]; // tableHi[n], tableLo[n] = n * H for each 4-bit n
+    private final long[] tableLo = new long[16];
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  CONSTRUCTORS                                                                                                      ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>GCM Constructor</h3>
+     * <p>Derives the hash key H = E(0^128) from the cipher and builds its multiplication table.</p>
+     * @param aes The cipher to use for both the keystream and the hash key.
+     */
+    public GCM(AES aes) {
+        this.aes = aes;
+        byte[] h = new byte[16];
+        aes.encryptBlocks(h, 0, 1, false, null);
+
+        // Nibble bit 8 is the x^0 coefficient, so tables[8] = H, tables[4] = H*x, tables[2] = H*x^2, tables[1] = H*x^3
+        long hi = CTR.getLong(h, 0);
+        long lo = CTR.getLong(h, 8);
+        for (int bit = 8; bit > 0; bit >>= 1) {
+            this.tableHi[bit] = hi;
+            this.tableLo[bit] = lo;
+            boolean carry = (lo & 1) != 0;
+            lo = (lo >>> 1) | (hi << 63);
+            hi >>>= 1;
+            if (carry) {
+                hi ^= 0xe100000000000000L;
+            }
+        }
+        for (int n = 2; n < 16; n++) {
+            int low = n & -n; // Build every entry from two already known entries
+            if (low != n) {
+                this.tableHi[n] = this.tableHi[low] ^ this.tableHi[n ^ low];
+                this.tableLo[n] = this.tableLo[low] ^ this.tableLo[n ^ low];
+            }
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  FUNCTIONS                                                                                                         ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>encrypt</h3>
+     * <p>Encrypts and authenticates <b>len</b> bytes, also authenticating (but not encrypting) the additional data.</p>
+     * <p>The output may be the same range as the input, with room for the tag after it.</p>
+     * @param iv The IV, 12 bytes recommended. An IV must never be reused with the same key.
+     * @param aad Additional authenticated data, or null.
+     * @param in The plaintext buffer.
+     * @param off The offset of the plaintext.
+     * @param len The plaintext length.
+     * @param out The output buffer, with room for len + 16 bytes at <b>outOff</b>.
+     * @param outOff The offset at which to write the ciphertext followed by the tag.
+     * @return The number of bytes written (len + 16).
+     */
+    public int encrypt(byte[] iv, byte[] aad, byte[] in, int off, int len, byte[] out, int outOff) {
+        if (outOff + len + TAG_LENGTH > out.length) {
+            throw new IllegalArgumentException("Output buffer too small, need " + (len + TAG_LENGTH) + " bytes.");
+        }
+        byte[] j0 = initialCounter(iv);
+        long[] y = new long[2];
+        ghashPadded(y, aad, 0, aad == null ? 0 : aad.length);
+
+        for (int done = 0; done < len; done += SEGMENT_SIZE) {
+            int n = Math.min(SEGMENT_SIZE, len - done);
+            CTR.apply(this.aes, j0, 1 + done / 16, in, off + done, n, out, outOff + done, true);
+            ghashPadded(y, out, outOff + done, n);
+        }
+        finish(y, j0, aad == null ? 0 : aad.length, len, out, outOff + len);
+        return len + TAG_LENGTH;
+    }
+
+    /**
+     * <h3>decrypt</h3>
+     * <p>Decrypts and verifies ciphertext produced by <b>encrypt()</b>. The tag is compared in constant time and if it does
+     * not match, the output range is wiped before the exception is thrown, so no unverified plaintext is returned.</p>
+     * @param iv The IV used for encryption.
+     * @param aad The additional authenticated data used for encryption, or null.
+     * @param in The buffer holding the ciphertext followed by the tag.
+     * @param off The offset of the ciphertext.
+     * @param len The length of the ciphertext including the 16 byte tag.
+     * @param out The plaintext buffer, with room for len - 16 bytes at <b>outOff</b>.
+     * @param outOff The offset at which to write the plaintext.
+     * @return The plaintext length (len - 16).
+     * @throws IllegalArgumentException If the input is shorter than a tag or the tag does not match.
+     */
+    public int decrypt(byte[] iv, byte[] aad, byte[] in, int off, int len, byte[] out, int outOff) {
+        if (len < TAG_LENGTH) {
+            throw new IllegalArgumentException("Ciphertext is shorter than the authentication tag.");
+        }
+        int textLen = len - TAG_LENGTH;
+        if (outOff + textLen > out.length) {
+            throw new IllegalArgumentException("Output buffer too small, need " + textLen + " bytes.");
+        }
+        byte[] received = Arrays.copyOfRange(in, off + textLen, off + len); // Saved before an in-place decrypt can touch it
+        byte[] j0 = initialCounter(iv);
+        long[] y = new long[2];
+        ghashPadded(y, aad, 0, aad == null ? 0 : aad.length);
+
+        for (int done = 0; done < textLen; done += SEGMENT_SIZE) {
+            int n = Math.min(SEGMENT_SIZE, textLen - done);
+            ghashPadded(y, in, off + done, n); // Hash the ciphertext before it may be overwritten
+            CTR.apply(this.aes, j0, 1 + done / 16, in, off + done, n, out, outOff + done, true);
+        }
+        byte[] expected = new byte[TAG_LENGTH];
+        finish(y, j0, aad == null ? 0 : aad.length, textLen, expected, 0);
+        if (!MessageDigest.isEqual(expected, received)) { // Constant time comparison
+            Arrays.fill(out, outOff, outOff + textLen, (byte) 0);
+            throw new IllegalArgumentException("GCM authentication tag mismatch.");
+        }
+        return textLen;
+    }
+
+    // J0 is IV || 0^31 || 1 for a 96-bit IV, otherwise the GHASH of the IV and its length
+    private byte[] initialCounter(byte[] iv) {
+        if (iv == null || iv.length == 0) {
+            throw new IllegalArgumentException("GCM requires a non-empty IV.");
+        }
+        byte[] j0 = new byte[16];
+        if (iv.length == 12) {
+            System.arraycopy(iv, 0, j0, 0, 12);
+            j0[15] = 1;
+            return j0;
+        }
+        long[] y = new long[2];
+        ghashPadded(y, iv, 0, iv.length);
+        y[1] ^= (long) iv.length * 8;
+        multiplyH(y);
+        CTR.putLong(j0, 0, y[0]);
+        CTR.putLong(j0, 8, y[1]);
+        return j0;
+    }
+
+    // Hashes the length block and writes E(J0) XOR S as the tag
+    private void finish(long[] y, byte[] j0, long aadLen, long textLen, byte[] out, int outOff) {
+        y[0] ^= aadLen * 8;
+        y[1] ^= textLen * 8;
+        multiplyH(y);
+        byte[] mask = j0.clone();
+        this.aes.encryptBlocks(mask, 0, 1, false, null);
+        CTR.putLong(out, outOff, y[0] ^ CTR.getLong(mask, 0));
+        CTR.putLong(out, outOff + 8, y[1] ^ CTR.getLong(mask, 8));
+    }
+
+    // Absorbs len bytes into the GHASH state, zero padding the last partial block
+    private void ghashPadded(long[] y, byte[] data, int off, int len) {
+        int whole = len & ~15;
+        for (int i = 0; i < whole; i += 16) {
+            y[0] ^= CTR.getLong(data, off + i);
+            y[1] ^= CTR.getLong(data, off + i + 8);
+            multiplyH(y);
+        }
+        if (whole < len) {
+            byte[] last = new byte[16];
+            System.arraycopy(data, off + whole, last, 0, len - whole);
+            y[0] ^= CTR.getLong(last, 0);
+            y[1] ^= CTR.getLong(last, 8);
+            multiplyH(y);
+        }
+    }
+
+    // y = y * H in GF(2^128), one nibble at a time from the highest degree coefficients down (Horner's rule)
+    private void multiplyH(long[] y) {
+        long x0 = y[0];
+        long x1 = y[1];
+        long zHi = 0;
+        long zLo = 0;
+        for (int i = 0; i < 32; i++) {
+            int nibble = i < 16 ? (int) (x1 >>> (i * 4)) & 0xf : (int) (x0 >>> ((i - 16) * 4)) & 0xf;
+            if (i > 0) {
+                int rem = (int) zLo & 0xf; // z = z * x^4
+                zLo = (zLo >>> 4) | (zHi << 60);
+                zHi = (zHi >>> 4) ^ R4[rem];
+            }
+            zHi ^= this.tableHi[nibble];
+            zLo ^= this.tableLo[nibble];
+        }
+        y[0] = zHi;
+        y[1] = zLo;
+    }
+}
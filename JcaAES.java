@@ -0,0 +1,156 @@
+import java.lang.ref.WeakReference;
+import java.security.GeneralSecurityException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * <h1>JcaAES</h1>
+ * <p>A block function that hands whole runs of blocks to the platform's "AES/ECB/NoPadding" Cipher. HotSpot compiles
+ * that cipher's block loop to the AES-NI (x86) or AES (ARMv8) instructions where the CPU has them, which is far faster
+ * than any pure Java engine.</p>
+ * <p>Cipher objects are not thread-safe, so each thread has one Cipher, shared by every JcaAES. It remembers which
+ * engine and direction it was last initialized for and is only initialized again when either changes, so a thread
+ * working with one key pays for the key setup once. That Cipher keeps the key schedule of the last engine the thread
+ * used until another key replaces it, also after KeyCache has wiped the expanded key. The engine itself keeps no copy
+ * of the raw key, the provider reads it from the expanded key when the Cipher is initialized.</p>
+ * <p>A Cipher call costs far more than one block, so single blocks (CBC encryption, GCM's hash key, the XTS tweak) go
+ * through a TableAES over the same expanded key instead.</p>
+ */
+public class JcaAES implements BlockCipherEngine {
+
+    private static final ThreadLocal<Slot> SLOT = ThreadLocal.withInitial(Slot::new);
+
+    private final RawKey key;
+    private final TableAES single; // Single blocks are cheaper through the tables than through a Cipher call
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  CONSTRUCTORS                                                                                                      ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>JcaAES Constructor</h3>
+     * <p>Accepts an expanded key. The raw key is the first round key, so it is taken from the schedule.</p>
+     * @param key The expanded key.
+     * @throws IllegalStateException If the platform has no AES/ECB/NoPadding cipher, or it does not take the key.
+     */
+    public JcaAES(ExpandedKey key) {
+        this.key = new RawKey(key);
+        this.single = new TableAES(key);
+        cipher(Cipher.ENCRYPT_MODE); // Fail here rather than on first use if the provider is missing
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  FUNCTIONS                                                                                                         ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public void encryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        if (blocks == 1) {
+            this.single.encryptBlock(in, inOff, out, outOff);
+            return;
+        }
+        run(Cipher.ENCRYPT_MODE, in, inOff, out, outOff, blocks);
+    }
+
+    @Override
+    public void decryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        if (blocks == 1) {
+            this.single.decryptBlock(in, inOff, out, outOff);
+            return;
+        }
+        run(Cipher.DECRYPT_MODE, in, inOff, out, outOff, blocks);
+    }
+
+    @Override
+    public void encryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        this.single.encryptBlock(in, inOff, out, outOff);
+    }
+
+    @Override
+    public void decryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        this.single.decryptBlock(in, inOff, out, outOff);
+    }
+
+    // ECB without padding keeps no state between calls, and the provider copies the input first when the ranges overlap
+    private void run(int opmode, byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        if (blocks <= 0) {
+            return;
+        }
+        try {
+            cipher(opmode).doFinal(in, inOff, blocks * 16, out, outOff);
+        } catch (GeneralSecurityException gsEx) {
+            throw new IllegalStateException("AES/ECB/NoPadding failed", gsEx);
+        }
+    }
+
+    // This thread's Cipher, initialized for this engine's key and the direction unless it already is
+    private Cipher cipher(int opmode) {
+        Slot slot = SLOT.get();
+        if (slot.owner.get() != this || slot.opmode != opmode) {
+            try {
+                slot.cipher.init(opmode, this.key);
+            } catch (GeneralSecurityException gsEx) {
+                slot.owner = Slot.NONE; // A failed init may leave the Cipher unusable for the old key too
+                throw new IllegalStateException("AES/ECB/NoPadding rejected the key", gsEx);
+            }
+            slot.owner = new WeakReference<>(this);
+            slot.opmode = opmode;
+        }
+        return slot.cipher;
+    }
+
+    /**
+     * <h3>Slot</h3>
+     * <p>A thread's Cipher, and the engine and direction it was last initialized for. The engine is only weakly
+     * referenced, so a thread that used it last does not keep it alive.</p>
+     */
+    private static final class Slot {
+        static final WeakReference<JcaAES> NONE = new WeakReference<>(null);
+
+        final Cipher cipher;
+        WeakReference<JcaAES> owner = NONE;
+        int opmode;
+
+        Slot() {
+            try {
+                this.cipher = Cipher.getInstance("AES/ECB/NoPadding");
+            } catch (GeneralSecurityException gsEx) {
+                throw new IllegalStateException("AES/ECB/NoPadding is not available", gsEx);
+            }
+        }
+    }
+
+    /**
+     * <h3>RawKey</h3>
+     * <p>The raw key as a SecretKey, read from the first round key each time the provider asks for it. The provider
+     * gets a new array every time, as with SecretKeySpec.</p>
+     */
+    private static final class RawKey implements SecretKey {
+        private static final long serialVersionUID = 1L;
+
+        private final transient ExpandedKey key;
+
+        RawKey(ExpandedKey key) {
+            this.key = key;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return "AES";
+        }
+
+        @Override
+        public String getFormat() {
+            return "RAW";
+        }
+
+        @Override
+        public byte[] getEncoded() {
+            byte[] raw = new byte[16];
+            for (int i = 0; i < 4; i++) {
+                TableAES.putInt(raw, i * 4, this.key.enc[i]);
+            }
+            return raw;
+        }
+    }
+}
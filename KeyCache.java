@@ -0,0 +1,96 @@
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <h1>KeyCache</h1>
+ * <p>A bounded least-recently-used cache of expanded AES keys, so a key that is used over and over is only expanded once.</p>
+ * <p>Entries are looked up by the SHA-256 of the raw key. The cache holds the key schedules, whose first four words are
+ * the raw key, so it holds key material for as long as an entry stays in it. Evicted entries and the ones removed by
+ * <b>clear()</b> are wiped. Every caller gets its own copy of the schedule, which lets an evicted entry be wiped without
+ * breaking any cipher still using that key.</p>
+ * <p>The capacity is read from the <b>aes.keyCache.size</b> system property (default 512, 0 disables caching).</p>
+ */
+public class KeyCache {
+
+    static final int CAPACITY = Integer.getInteger("aes.keyCache.size", 512);
+
+    private static final Map<ByteBuffer, ExpandedKey> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, ExpandedKey> eldest) {
+            if (size() > CAPACITY) {
+                eldest.getValue().wipe(); // Evicted schedules are wiped
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private static long hits;
+    private static long misses;
+
+    private KeyCache() {
+    }
+
+    /**
+     * <h3>get</h3>
+     * <p>Returns the expanded schedule for a key, expanding it only if it is not already cached.</p>
+     * @param key The key bytes (only the first 16 are used).
+     * @return A private copy of the expanded key.
+     */
+    public static ExpandedKey get(byte[] key) {
+        if (CAPACITY <= 0) {
+            return ExpandedKey.expand(key);
+        }
+        ByteBuffer id = ByteBuffer.wrap(fingerprint(key));
+        synchronized (CACHE) {
+            ExpandedKey cached = CACHE.get(id);
+            if (cached != null) {
+                hits++;
+                return cached.copy();
+            }
+            misses++;
+        }
+        ExpandedKey expanded = ExpandedKey.expand(key);
+        synchronized (CACHE) {
+            CACHE.putIfAbsent(id, expanded.copy());
+        }
+        return expanded;
+    }
+
+    /**
+     * <h3>clear</h3>
+     * <p>Wipes and removes every cached schedule.</p>
+     */
+    public static void clear() {
+        synchronized (CACHE) {
+            for (ExpandedKey k : CACHE.values()) {
+                k.wipe();
+            }
+            CACHE.clear();
+        }
+    }
+
+    /**
+     * <h3>stats</h3>
+     * @return The number of cache hits and misses so far, as [hits, misses].
+     */
+    public static long[] stats() {
+        synchronized (CACHE) {
+            return new long[] {hits, misses};
+        }
+    }
+
+    // SHA-256 of the 16 key bytes that are actually used
+    private static byte[] fingerprint(byte[] key) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(key, 0, Math.min(key.length, 16));
+            return md.digest();
+        } catch (NoSuchAlgorithmException nsaEx) {
+            throw new IllegalStateException("SHA-256 is not available", nsaEx);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * <h1>Log</h1>
+ * <p>The logging backend behind Tools.debugLog. Each component (AES, DHE, RSA, ...) has its own Log with its own level.
+ * A message that passes the level check is put in a lock-free ring buffer, and one background thread adds the timestamp
+ * and writes it out, so callers never format dates or wait on the output stream.</p>
+ * <p>Messages can be given as a Supplier, which is only called when the level is enabled. It is called right away by
+ * the thread that logs, so it sees the data as it was at that point, and only the finished String is queued.</p>
+ * <p>Configuration comes from system properties, read once:</p>
+ * <ul>
+ *     <li><b>log.level</b> - level of every component: OFF, ERROR, WARN, INFO, DEBUG or TRACE (default INFO).</li>
+ *     <li><b>log.level.&lt;component&gt;</b> - level of one component, e.g. -Dlog.level.AES=TRACE for the AES round
+ *     trace.</li>
+ *     <li><b>log.file</b> - file to append to, instead of System.out.</li>
+ *     <li><b>log.buffer</b> - ring buffer capacity in messages, rounded up to a power of two (default 4096).</li>
+ *     <li><b>log.whenFull</b> - BLOCK to wait for room when the buffer is full (default), or DROP to discard the
+ *     message and count it in <b>dropped()</b>.</li>
+ * </ul>
+ */
+public final class Log {
+
+    /**
+     * <h3>Level</h3>
+     * <p>Message levels from most to least important. A Log at a level writes messages of that level and above.
+     * TRACE is the round by round AES trace.</p>
+     */
+    public enum Level { OFF, ERROR, WARN, INFO, DEBUG, TRACE }
+
+    /**
+     * <h3>WhenFull</h3>
+     * <p>What a logging thread does when the ring buffer is full.</p>
+     */
+    public enum WhenFull { DROP, BLOCK }
+
+    private static final Map<String, Log> LOGS = new ConcurrentHashMap<>();
+    private static final Level DEFAULT_LEVEL = level("log.level", Level.INFO);
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("'['MM-dd-yy HH:mm:ss']'", Locale.ROOT)
+        .withZone(ZoneId.systemDefault());
+
+    private static volatile boolean ringStarted; // Checked so flush() does not start the writer just to wait on it
+
+    private final Level level;
+
+    private Log(String component) {
+        this.level = level("log.level." + component, DEFAULT_LEVEL);
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  FUNCTIONS                                                                                                         ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>get</h3>
+     * <p>Returns the Log of a component. Callers should keep it in a static final field.</p>
+     * @param component The component name, as used in the log.level.&lt;component&gt; property.
+     * @return The component's Log.
+     */
+    public static Log get(String component) {
+        return LOGS.computeIfAbsent(component, Log::new);
+    }
+
+    /**
+     * <h3>enabled</h3>
+     * @param level A message level.
+     * @return True if messages of that level are written.
+     */
+    public boolean enabled(Level level) {
+        return level != Level.OFF && level.ordinal() <= this.level.ordinal();
+    }
+
+    /**
+     * <h3>log</h3>
+     * <p>Queues a message if its level is enabled.</p>
+     * @param level The message level.
+     * @param message The message.
+     */
+    public void log(Level level, String message) {
+        if (enabled(level)) {
+            Ring.INSTANCE.offer(System.currentTimeMillis(), message);
+        }
+    }
+
+    /**
+     * <h3>log</h3>
+     * <p>Queues a message if its level is enabled, only building it in that case.</p>
+     * @param level The message level.
+     * @param message Builds the message.
+     */
+    public void log(Level level, Supplier<String> message) {
+        if (enabled(level)) {
+            Ring.INSTANCE.offer(System.currentTimeMillis(), message.get());
+        }
+    }
+
+    public void info(Supplier<String> message) {
+        log(Level.INFO, message);
+    }
+
+    public void debug(Supplier<String> message) {
+        log(Level.DEBUG, message);
+    }
+
+    public void trace(Supplier<String> message) {
+        log(Level.TRACE, message);
+    }
+
+    /**
+     * <h3>flush</h3>
+     * <p>Waits until every message queued before the call has been written and the output flushed. Programs that
+     * also print to System.out directly call this first, so their output stays in order with the log.</p>
+     */
+    public static void flush() {
+        if (ringStarted) {
+            Ring.INSTANCE.await(Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * <h3>dropped</h3>
+     * @return The number of messages discarded because the buffer was full (WhenFull.DROP only).
+     */
+    public static long dropped() {
+        return ringStarted ? Ring.INSTANCE.dropped.sum() : 0;
+    }
+
+    /**
+     * <h3>timestamp</h3>
+     * @return The time as the log prints it, e.g. [10-18-26 17:59:36].
+     */
+    public static String timestamp(long millis) {
+        return STAMP.format(Instant.ofEpochMilli(millis));
+    }
+
+    private static Level level(String property, Level fallback) {
+        String value = System.getProperty(property);
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Level.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException iaEx) {
+            System.err.println("Ignoring " + property + "=" + value + ", expected one of OFF, ERROR, WARN, INFO, DEBUG, TRACE");
+            return fallback;
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  RING BUFFER                                                                                                       ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Bounded multi-producer, single-consumer queue over preallocated slots. A slot whose sequence equals a producer's
+    // claimed position is free, sequence + 1 means it holds that message, and the writer hands it back for the next
+    // lap by adding the capacity. Producers only ever compete on the tail counter.
+    private static final class Ring implements Runnable {
+
+        static final Ring INSTANCE = new Ring(); // Created, and the writer started, by the first message
+
+        private final Slot[] slots;
+        private final int mask;
+        private final WhenFull whenFull;
+        private final AtomicLong tail = new AtomicLong(); // Next position to claim
+        private volatile long flushed; // Every position below this has been written and flushed
+        private final LongAdder dropped = new LongAdder();
+        private final Thread writer;
+        private volatile boolean waiting; // The writer is parked, so producers unpark it
+        private final Writer out;
+
+        private long stampSecond = -1; // Timestamp cache, only used by the writer
+        private String stamp;
+
+        private Ring() {
+            int capacity = Integer.highestOneBit(Math.max(2, Integer.getInteger("log.buffer", 4096) - 1) * 2);
+            this.slots = new Slot[capacity];
+            for (int i = 0; i < capacity; i++) {
+                this.slots[i] = new Slot(i);
+            }
+            this.mask = capacity - 1;
+            this.whenFull = "DROP".equalsIgnoreCase(System.getProperty("log.whenFull")) ? WhenFull.DROP : WhenFull.BLOCK;
+            this.out = open(System.getProperty("log.file"));
+            this.writer = new Thread(this, "log-writer");
+            this.writer.setDaemon(true);
+            this.writer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> await(2_000_000_000L), "log-flush"));
+            ringStarted = true;
+        }
+
+        void offer(long millis, String message) {
+            int spins = 0;
+            while (true) {
+                long pos = this.tail.get();
+                Slot slot = this.slots[(int) pos & this.mask];
+                long seq = slot.sequence;
+                if (seq == pos) {
+                    if (this.tail.compareAndSet(pos, pos + 1)) {
+                        slot.millis = millis;
+                        slot.message = message;
+                        slot.sequence = pos + 1; // Publish
+                        if (this.waiting) {
+                            LockSupport.unpark(this.writer);
+                        }
+                        return;
+                    }
+                } else if (seq < pos) { // The writer has not emptied this slot yet, so the ring is full
+                    if (this.whenFull == WhenFull.DROP) {
+                        this.dropped.increment();
+                        return;
+                    }
+                    LockSupport.unpark(this.writer);
+                    if (++spins < 100) {
+                        Thread.onSpinWait();
+                    } else {
+                        LockSupport.parkNanos(50_000);
+                    }
+                }
+                // Otherwise another producer claimed pos first, so try the next one
+            }
+        }
+
+        // Waits until everything queued so far is flushed, or the timeout passes
+        void await(long timeoutNanos) {
+            long target = this.tail.get();
+            long deadline = System.nanoTime() + timeoutNanos;
+            while (this.flushed < target && System.nanoTime() - deadline < 0) {
+                LockSupport.unpark(this.writer);
+                LockSupport.parkNanos(100_000);
+            }
+        }
+
+        @Override
+        public void run() {
+            StringBuilder line = new StringBuilder(256);
+            String newline = System.lineSeparator();
+            long head = 0;
+            while (true) {
+                Slot slot = this.slots[(int) head & this.mask];
+                if (slot.sequence == head + 1) {
+                    line.setLength(0);
+                    line.append(stamp(slot.millis)).append(" - ").append(slot.message).append(newline);
+                    slot.message = null;
+                    slot.sequence = head + this.slots.length; // Free the slot for the next lap
+                    head++;
+                    write(line);
+                    continue;
+                }
+                if (this.flushed != head) { // Caught up, so push out what was written
+                    flushOut();
+                    this.flushed = head;
+                }
+                this.waiting = true;
+                if (slot.sequence != head + 1) {
+                    LockSupport.parkNanos(this, 10_000_000L);
+                }
+                this.waiting = false;
+            }
+        }
+
+        // The formatted time only changes once a second
+        private String stamp(long millis) {
+            long second = Math.floorDiv(millis, 1000);
+            if (second != this.stampSecond) {
+                this.stampSecond = second;
+                this.stamp = timestamp(millis);
+            }
+            return this.stamp;
+        }
+
+        private void write(CharSequence line) {
+            try {
+                this.out.append(line);
+            } catch (IOException ioEx) {
+                System.err.print(line); // Do not lose the message if the log file fails
+            }
+        }
+
+        private void flushOut() {
+            try {
+                this.out.flush();
+            } catch (IOException ioEx) {
+                System.err.println("Could not flush the log: " + ioEx.getMessage());
+            }
+        }
+
+        private static Writer open(String file) {
+            if (file != null) {
+                try {
+                    return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+                } catch (IOException ioEx) {
+                    System.err.println("Could not open log file " + file + ", logging to System.out: " + ioEx.getMessage());
+                }
+            }
+            return new BufferedWriter(new OutputStreamWriter(System.out, Charset.defaultCharset()));
+        }
+    }
+
+    private static final class Slot {
+        volatile long sequence;
+        long millis;
+        String message;
+
+        Slot(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
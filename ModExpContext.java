@@ -0,0 +1,381 @@
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <h1>ModExpContext</h1>
+ * <p>Modular exponentiation for one fixed odd modulus. The context's own kernel uses Montgomery multiplication, with all
+ * of the setup that only depends on the modulus done once, when a MONTGOMERY context is created: the modulus is split
+ * into 64-bit limbs (least significant first), and -m^-1 mod 2^64 and R^2 mod m (R = 2^(64 * limbs)) are computed.
+ * <b>BigInteger.modPow()</b> redoes that work on every call. A JDK context skips that setup and only holds the modulus.</p>
+ * <p>The kernel's <b>pow()</b> uses a sliding window over the exponent, with a table of the odd powers of the base. The
+ * table and the working arrays are allocated once per call, so the square-and-multiply loop does not allocate. A context
+ * holds no per-call state and can be used by several threads at once.</p>
+ * <p>The running time depends on the exponent, like BigInteger.modPow(). Secret exponents should only be used where that
+ * is acceptable.</p>
+ * <p>HotSpot compiles the Montgomery multiplication inside BigInteger.modPow() to hand-written machine code on x86-64 and
+ * AArch64, which plain Java cannot match: there modPow() is about three times faster than the long[] kernel, even with
+ * its setup repeated on every call. So a context runs the JDK kernel unless told otherwise, and the long[] kernel is for
+ * JVMs without those intrinsics. The <b>crypto.modExp.kernel</b> system property (JDK or MONTGOMERY) sets the default,
+ * and a context can also be created with a given kernel.</p>
+ * <p><b>of()</b> returns a cached context for a public modulus (a DHE prime, an RSA n). The cache is a bounded
+ * least-recently-used map whose size is read from the <b>crypto.modExpCache.size</b> system property (default 64, 0
+ * disables caching). It is only used when the default kernel is MONTGOMERY, since a JDK context has nothing to reuse. Contexts for secret moduli, like RSA's p and q, should be created with the constructor and kept by
+ * their owner instead, so the cache never holds them.</p>
+ */
+public final class ModExpContext {
+
+    public enum Kernel { JDK, MONTGOMERY }
+
+    public static final String KERNEL_PROPERTY = "crypto.modExp.kernel";
+    static final Kernel DEFAULT_KERNEL = kernel(System.getProperty(KERNEL_PROPERTY, "JDK"));
+    static final int CAPACITY = Integer.getInteger("crypto.modExpCache.size", 64);
+
+    private static final Map<BigInteger, ModExpContext> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<BigInteger, ModExpContext> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    private static long hits;
+    private static long misses;
+
+    private final BigInteger modulus;
+    private final Kernel kernel;
+    // Montgomery state, only set up for the MONTGOMERY kernel
+    private final int n; // Limbs
+    private final long[] m; // The modulus, least significant limb first
+    private final long mInv; // -m^-1 mod 2^64
+    private final long[] r2; // R^2 mod m, which takes a number into Montgomery form
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  CONSTRUCTORS                                                                                                      ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>ModExpContext Constructor</h3>
+     * <p>Creates a context that is not cached, with the default kernel.</p>
+     * @param modulus The modulus, which must be odd and at least 3.
+     * @throws IllegalArgumentException If the modulus is even or less than 3.
+     */
+    public ModExpContext(BigInteger modulus) {
+        this(modulus, DEFAULT_KERNEL);
+    }
+
+    /**
+     * <h3>ModExpContext Constructor</h3>
+     * <p>Creates a context that is not cached.</p>
+     * @param modulus The modulus, which must be odd and at least 3.
+     * @param kernel The multiplication kernel to use.
+     * @throws IllegalArgumentException If the modulus is even or less than 3.
+     */
+    public ModExpContext(BigInteger modulus, Kernel kernel) {
+        if (!modulus.testBit(0) || modulus.compareTo(BigInteger.ONE) <= 0) {
+            throw new IllegalArgumentException("The modulus must be odd and at least 3, got " + modulus);
+        }
+        this.modulus = modulus;
+        this.kernel = kernel;
+        if (kernel == Kernel.JDK) {
+            this.n = 0;
+            this.m = null;
+            this.mInv = 0;
+            this.r2 = null;
+            return;
+        }
+        this.n = (modulus.bitLength() + 63) >>> 6;
+        this.m = limbs(modulus, this.n);
+        long inv = this.m[0]; // Newton's iteration, each step doubles the number of correct low bits (3 to start with)
+        for (int i = 0; i < 5; i++) {
+            inv *= 2 - this.m[0] * inv;
+        }
+        this.mInv = -inv;
+        this.r2 = limbs(BigInteger.ONE.shiftLeft(128 * this.n).mod(modulus), this.n);
+    }
+
+    /**
+     * <h3>of</h3>
+     * <p>Returns the cached context for a modulus, creating it on first use. With the JDK kernel as the default, or
+     * the cache size at 0, it returns a new context without touching the cache.</p>
+     * @param modulus The modulus, which must be odd and at least 3.
+     * @return The context.
+     * @throws IllegalArgumentException If the modulus is even or less than 3.
+     */
+    public static ModExpContext of(BigInteger modulus) {
+        if (CAPACITY <= 0 || DEFAULT_KERNEL == Kernel.JDK) {
+            return new ModExpContext(modulus);
+        }
+        synchronized (CACHE) {
+            ModExpContext cached = CACHE.get(modulus);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+        ModExpContext created = new ModExpContext(modulus);
+        synchronized (CACHE) {
+            ModExpContext raced = CACHE.putIfAbsent(modulus, created);
+            return raced != null ? raced : created;
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  FUNCTIONS                                                                                                         ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>modulus</h3>
+     * @return The modulus.
+     */
+    public BigInteger modulus() {
+        return this.modulus;
+    }
+
+    /**
+     * <h3>kernel</h3>
+     * @return The multiplication kernel the context uses.
+     */
+    public Kernel kernel() {
+        return this.kernel;
+    }
+
+    /**
+     * <h3>pow</h3>
+     * @param base The base, which may be negative or larger than the modulus.
+     * @param exponent The exponent, which must not be negative.
+     * @return base^exponent mod m.
+     * @throws IllegalArgumentException If the exponent is negative.
+     */
+    public BigInteger pow(BigInteger base, BigInteger exponent) {
+        if (exponent.signum() < 0) {
+            throw new IllegalArgumentException("The exponent cannot be negative.");
+        }
+        if (this.kernel == Kernel.JDK) {
+            return base.modPow(exponent, this.modulus);
+        }
+        int bits = exponent.bitLength();
+        if (bits == 0) {
+            return BigInteger.ONE;
+        }
+        int w = windowBits(bits);
+        long[] t = new long[2 * this.n + 1]; // Scratch for the products
+        long[][] table = new long[1 << (w - 1)][]; // base^1, base^3, ..., base^(2^w - 1), in Montgomery form
+        table[0] = new long[this.n];
+        mul(limbs(base.mod(this.modulus), this.n), this.r2, table[0], t);
+        if (table.length > 1) {
+            long[] square = new long[this.n];
+            square(table[0], square, t);
+            for (int i = 1; i < table.length; i++) {
+                table[i] = new long[this.n];
+                mul(table[i - 1], square, table[i], t);
+            }
+        }
+
+        long[] acc = new long[this.n];
+        long[] tmp = new long[this.n];
+        boolean started = false; // Until the first window, acc is 1 and squaring it is skipped
+        for (int i = bits - 1; i >= 0; ) {
+            if (!exponent.testBit(i)) {
+                square(acc, tmp, t);
+                long[] swap = acc; acc = tmp; tmp = swap;
+                i--;
+                continue;
+            }
+            int j = Math.max(i - w + 1, 0); // The window is bits i down to j, and ends on a set bit
+            while (!exponent.testBit(j)) {
+                j++;
+            }
+            int value = 0;
+            for (int k = i; k >= j; k--) {
+                value = (value << 1) | (exponent.testBit(k) ? 1 : 0);
+            }
+            if (!started) {
+                System.arraycopy(table[value >>> 1], 0, acc, 0, this.n);
+                started = true;
+            } else {
+                for (int k = i; k >= j; k--) {
+                    square(acc, tmp, t);
+                    long[] swap = acc; acc = tmp; tmp = swap;
+                }
+                mul(acc, table[value >>> 1], tmp, t);
+                long[] swap = acc; acc = tmp; tmp = swap;
+            }
+            i = j - 1;
+        }
+        long[] unit = new long[this.n];
+        unit[0] = 1;
+        mul(acc, unit, tmp, t); // Out of Montgomery form
+        return toBigInteger(tmp);
+    }
+
+    /**
+     * <h3>stats</h3>
+     * @return The number of cache hits and misses so far, as [hits, misses].
+     */
+    public static long[] stats() {
+        synchronized (CACHE) {
+            return new long[] {hits, misses};
+        }
+    }
+
+    private static Kernel kernel(String property) {
+        try {
+            return Kernel.valueOf(property.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException iaEx) {
+            throw new IllegalArgumentException("Unknown " + KERNEL_PROPERTY + " value: " + property, iaEx);
+        }
+    }
+
+    // The window width for an exponent of the given size, trading table size against multiplications
+    private static int windowBits(int bits) {
+        return bits > 671 ? 6 : bits > 239 ? 5 : bits > 79 ? 4 : bits > 23 ? 3 : 1;
+    }
+
+    // out = a * b / R mod m, with a and b below m; t is scratch of 2n + 1 limbs
+    private void mul(long[] a, long[] b, long[] out, long[] t) {
+        int n = this.n;
+        for (int i = 0; i < n; i++) {
+            t[i] = 0;
+        }
+        for (int i = 0; i < n; i++) { // Schoolbook product, row by row
+            long ai = a[i];
+            long c = 0;
+            for (int j = 0; j < n; j++) {
+                long lo = ai * b[j];
+                long hi = unsignedMultiplyHigh(ai, b[j]);
+                long s = t[i + j] + lo;
+                hi += carry(s, lo);
+                lo = s + c;
+                hi += carry(lo, c);
+                t[i + j] = lo;
+                c = hi;
+            }
+            t[i + n] = c;
+        }
+        reduce(t, out);
+    }
+
+    // out = a * a / R mod m, with a below m: each cross product a[i] * a[j] is computed once and doubled
+    private void square(long[] a, long[] out, long[] t) {
+        int n = this.n;
+        for (int i = 0; i < 2 * n; i++) {
+            t[i] = 0;
+        }
+        for (int i = 0; i < n - 1; i++) {
+            long ai = a[i];
+            long c = 0;
+            for (int j = i + 1; j < n; j++) {
+                long lo = ai * a[j];
+                long hi = unsignedMultiplyHigh(ai, a[j]);
+                long s = t[i + j] + lo;
+                hi += carry(s, lo);
+                lo = s + c;
+                hi += carry(lo, c);
+                t[i + j] = lo;
+                c = hi;
+            }
+            t[i + n] = c;
+        }
+        long shifted = 0; // Double the cross products
+        for (int i = 0; i < 2 * n; i++) {
+            long v = t[i];
+            t[i] = (v << 1) | shifted;
+            shifted = v >>> 63;
+        }
+        long c = 0; // Add the squares on the diagonal
+        for (int i = 0; i < n; i++) {
+            long lo = a[i] * a[i];
+            long hi = unsignedMultiplyHigh(a[i], a[i]);
+            long s = t[2 * i] + lo;
+            long k = carry(s, lo);
+            t[2 * i] = s + c;
+            k += carry(t[2 * i], c);
+            s = t[2 * i + 1] + hi;
+            c = carry(s, hi);
+            t[2 * i + 1] = s + k;
+            c += carry(t[2 * i + 1], k);
+        }
+        reduce(t, out);
+    }
+
+    // out = t / R mod m for the 2n-limb t below m * R (Montgomery reduction, one limb at a time)
+    private void reduce(long[] t, long[] out) {
+        int n = this.n;
+        long[] m = this.m;
+        long extra = 0; // Carry out of the top limb, added one limb further up on the next row
+        for (int i = 0; i < n; i++) {
+            long q = t[i] * this.mInv; // Makes t + q * m * 2^(64i) divisible by 2^(64(i + 1))
+            long c = 0;
+            for (int j = 0; j < n; j++) {
+                long lo = q * m[j];
+                long hi = unsignedMultiplyHigh(q, m[j]);
+                long s = t[i + j] + lo;
+                hi += carry(s, lo);
+                lo = s + c;
+                hi += carry(lo, c);
+                t[i + j] = lo;
+                c = hi;
+            }
+            long s = t[i + n] + c;
+            long k = carry(s, c);
+            t[i + n] = s + extra;
+            extra = k + carry(t[i + n], extra);
+        }
+        if (extra != 0 || !lessThan(t, n, m)) { // The result is below 2m, one subtraction brings it under m
+            long borrow = 0;
+            for (int j = 0; j < n; j++) {
+                long x = t[n + j];
+                long d = x - m[j];
+                long b1 = Long.compareUnsigned(x, m[j]) < 0 ? 1 : 0;
+                out[j] = d - borrow;
+                borrow = b1 | (Long.compareUnsigned(d, borrow) < 0 ? 1 : 0);
+            }
+        } else {
+            System.arraycopy(t, n, out, 0, n);
+        }
+    }
+
+    // 1 if the unsigned sum s = x + y wrapped around, else 0, from the top bits (a branch-free compareUnsigned)
+    private static long carry(long s, long y) {
+        long x = s - y;
+        return ((x & y) | ((x | y) & ~s)) >>> 63;
+    }
+
+    // The high 64 bits of the unsigned 128-bit product
+    private static long unsignedMultiplyHigh(long x, long y) {
+        return Math.multiplyHigh(x, y) + ((x >> 63) & y) + ((y >> 63) & x);
+    }
+
+    // a[off..off + n) < b, as unsigned limbs
+    private static boolean lessThan(long[] a, int off, long[] b) {
+        for (int j = b.length - 1; j >= 0; j--) {
+            if (a[off + j] != b[j]) {
+                return Long.compareUnsigned(a[off + j], b[j]) < 0;
+            }
+        }
+        return false;
+    }
+
+    // The non-negative x (below 2^(64 * n)) as n limbs, least significant first
+    private static long[] limbs(BigInteger x, int n) {
+        byte[] bytes = x.toByteArray();
+        long[] limbs = new long[n];
+        for (int i = 0; i < bytes.length; i++) {
+            int fromEnd = bytes.length - 1 - i;
+            if (fromEnd / 8 < n) {
+                limbs[fromEnd / 8] |= (bytes[i] & 0xffL) << (8 * (fromEnd % 8));
+            }
+        }
+        return limbs;
+    }
+
+    private static BigInteger toBigInteger(long[] limbs) {
+        byte[] bytes = new byte[limbs.length * 8];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[bytes.length - 1 - i] = (byte) (limbs[i / 8] >>> (8 * (i % 8)));
+        }
+        return new BigInteger(1, bytes);
+    }
+}
@@ -0,0 +1,186 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * <h1>Poly1305</h1>
+ * <p>The Poly1305 one-time authenticator (RFC 8439, section 2.5), fed incrementally. The message is read in 16 byte
+ * blocks, each block plus 2^128 is added to the accumulator, and the accumulator is multiplied by r modulo 2^130 - 5.</p>
+ * <p>The accumulator and r are held in five 26-bit limbs, so every product of two limbs fits in a long with room for
+ * the sum of five of them, and no carry has to be propagated until the end of each block. Only int and long arithmetic
+ * is used and nothing branches on secret data.</p>
+ * <p>A key must only ever be used for one message. ChaCha20Poly1305 derives a new one for every nonce.</p>
+ */
+public class Poly1305 {
+
+    static final int KEY_LENGTH = 32;
+    static final int TAG_LENGTH = 16;
+
+    private static final VarHandle LE_INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long MASK26 = 0x3ffffff;
+
+    private final long r0, r1, r2, r3, r4; // r, clamped, in 26-bit limbs
+    private final long s1, s2, s3, s4; // 5 * r1..r4, for the limbs that wrap around past 2^130
+    private final int pad0, pad1, pad2, pad3; // s, added to the result at the end
+    private long h0, h1, h2, h3, h4; // Accumulator
+    private final byte[] partial = new byte[16]; // Input waiting for a whole block
+    private int partialLen;
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  CONSTRUCTORS                                                                                                      ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>Poly1305 Constructor</h3>
+     * @param key The buffer holding the 32 byte one-time key (r followed by s).
+     * @param off The offset of the key.
+     */
+    public Poly1305(byte[] key, int off) {
+        // Clamp r: the top four bits of every 32-bit word and the bottom two of the last three are cleared
+        this.r0 = le32(key, off) & 0x3ffffff;
+        this.r1 = (le32(key, off + 3) >>> 2) & 0x3ffff03;
+        this.r2 = (le32(key, off + 6) >>> 4) & 0x3ffc0ff;
+        this.r3 = (le32(key, off + 9) >>> 6) & 0x3f03fff;
+        this.r4 = (le32(key, off + 12) >>> 8) & 0x00fffff;
+        this.s1 = this.r1 * 5;
+        this.s2 = this.r2 * 5;
+        this.s3 = this.r3 * 5;
+        this.s4 = this.r4 * 5;
+        this.pad0 = (int) LE_INT.get(key, off + 16);
+        this.pad1 = (int) LE_INT.get(key, off + 20);
+        this.pad2 = (int) LE_INT.get(key, off + 24);
+        this.pad3 = (int) LE_INT.get(key, off + 28);
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  FUNCTIONS                                                                                                         ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>update</h3>
+     * <p>Adds <b>len</b> more bytes of the message. Chunks may be any length.</p>
+     * @param data The buffer holding the chunk.
+     * @param off The offset of the chunk.
+     * @param len The length of the chunk.
+     */
+    public void update(byte[] data, int off, int len) {
+        if (this.partialLen > 0) {
+            int n = Math.min(len, 16 - this.partialLen);
+            System.arraycopy(data, off, this.partial, this.partialLen, n);
+            this.partialLen += n;
+            off += n;
+            len -= n;
+            if (this.partialLen < 16) {
+                return;
+            }
+            blocks(this.partial, 0, 1, 1 << 24);
+            this.partialLen = 0;
+        }
+        int whole = len >>> 4;
+        blocks(data, off, whole, 1 << 24);
+        this.partialLen = len & 15;
+        System.arraycopy(data, off + whole * 16, this.partial, 0, this.partialLen);
+    }
+
+    /**
+     * <h3>padToBlock</h3>
+     * <p>Adds zero bytes up to the next multiple of 16, as the ChaCha20-Poly1305 construction does after the additional
+     * data and after the ciphertext. Does nothing when the message so far is a whole number of blocks.</p>
+     */
+    public void padToBlock() {
+        if (this.partialLen > 0) {
+            update(new byte[16 - this.partialLen], 0, 16 - this.partialLen);
+        }
+    }
+
+    /**
+     * <h3>finish</h3>
+     * <p>Writes the 16 byte tag. The instance must not be used afterwards.</p>
+     * @param out The buffer for the tag.
+     * @param outOff The offset at which to write it.
+     */
+    public void finish(byte[] out, int outOff) {
+        if (this.partialLen > 0) { // A short last block gets a 1 byte after it instead of the 2^128 bit
+            this.partial[this.partialLen] = 1;
+            for (int i = this.partialLen + 1; i < 16; i++) {
+                this.partial[i] = 0;
+            }
+            blocks(this.partial, 0, 1, 0);
+        }
+
+        // Carry fully, then subtract p if h >= p, choosing between h and h - p without a branch
+        long h0 = this.h0, h1 = this.h1, h2 = this.h2, h3 = this.h3, h4 = this.h4;
+        long c = h1 >>> 26; h1 &= MASK26; h2 += c;
+        c = h2 >>> 26; h2 &= MASK26; h3 += c;
+        c = h3 >>> 26; h3 &= MASK26; h4 += c;
+        c = h4 >>> 26; h4 &= MASK26; h0 += c * 5;
+        c = h0 >>> 26; h0 &= MASK26; h1 += c;
+
+        long g0 = h0 + 5;
+        c = g0 >>> 26; g0 &= MASK26;
+        long g1 = h1 + c;
+        c = g1 >>> 26; g1 &= MASK26;
+        long g2 = h2 + c;
+        c = g2 >>> 26; g2 &= MASK26;
+        long g3 = h3 + c;
+        c = g3 >>> 26; g3 &= MASK26;
+        long g4 = h4 + c - (1L << 26);
+        long keep = g4 >> 63; // All ones when h < p, so h is kept
+        h0 = (h0 & keep) | (g0 & ~keep);
+        h1 = (h1 & keep) | (g1 & ~keep);
+        h2 = (h2 & keep) | (g2 & ~keep);
+        h3 = (h3 & keep) | (g3 & ~keep);
+        h4 = (h4 & keep) | ((g4 & MASK26) & ~keep);
+
+        // Back to 32-bit words, then add s modulo 2^128
+        long w0 = (h0 | (h1 << 26)) & 0xffffffffL;
+        long w1 = ((h1 >>> 6) | (h2 << 20)) & 0xffffffffL;
+        long w2 = ((h2 >>> 12) | (h3 << 14)) & 0xffffffffL;
+        long w3 = ((h3 >>> 18) | (h4 << 8)) & 0xffffffffL;
+        long f = w0 + (this.pad0 & 0xffffffffL);
+        LE_INT.set(out, outOff, (int) f);
+        f = w1 + (this.pad1 & 0xffffffffL) + (f >>> 32);
+        LE_INT.set(out, outOff + 4, (int) f);
+        f = w2 + (this.pad2 & 0xffffffffL) + (f >>> 32);
+        LE_INT.set(out, outOff + 8, (int) f);
+        f = w3 + (this.pad3 & 0xffffffffL) + (f >>> 32);
+        LE_INT.set(out, outOff + 12, (int) f);
+    }
+
+    // h = (h + block + hibit * 2^104) * r mod 2^130 - 5 for each block, with the limbs only partly carried in between
+    private void blocks(byte[] data, int off, int count, long hibit) {
+        long h0 = this.h0, h1 = this.h1, h2 = this.h2, h3 = this.h3, h4 = this.h4;
+        long r0 = this.r0, r1 = this.r1, r2 = this.r2, r3 = this.r3, r4 = this.r4;
+        long s1 = this.s1, s2 = this.s2, s3 = this.s3, s4 = this.s4;
+        for (int i = 0; i < count; i++, off += 16) {
+            h0 += le32(data, off) & MASK26;
+            h1 += (le32(data, off + 3) >>> 2) & MASK26;
+            h2 += (le32(data, off + 6) >>> 4) & MASK26;
+            h3 += (le32(data, off + 9) >>> 6) & MASK26;
+            h4 += (le32(data, off + 12) >>> 8) | hibit;
+
+            long d0 = h0 * r0 + h1 * s4 + h2 * s3 + h3 * s2 + h4 * s1;
+            long d1 = h0 * r1 + h1 * r0 + h2 * s4 + h3 * s3 + h4 * s2;
+            long d2 = h0 * r2 + h1 * r1 + h2 * r0 + h3 * s4 + h4 * s3;
+            long d3 = h0 * r3 + h1 * r2 + h2 * r1 + h3 * r0 + h4 * s4;
+            long d4 = h0 * r4 + h1 * r3 + h2 * r2 + h3 * r1 + h4 * r0;
+
+            long c = d0 >>> 26; h0 = d0 & MASK26; d1 += c;
+            c = d1 >>> 26; h1 = d1 & MASK26; d2 += c;
+            c = d2 >>> 26; h2 = d2 & MASK26; d3 += c;
+            c = d3 >>> 26; h3 = d3 & MASK26; d4 += c;
+            c = d4 >>> 26; h4 = d4 & MASK26; h0 += c * 5; // 2^130 = 5 mod p
+            c = h0 >>> 26; h0 &= MASK26; h1 += c;
+        }
+        this.h0 = h0;
+        this.h1 = h1;
+        this.h2 = h2;
+        this.h3 = h3;
+        this.h4 = h4;
+    }
+
+    // The 32 bits starting at off as an unsigned little-endian value
+    private static long le32(byte[] b, int off) {
+        return (int) LE_INT.get(b, off) & 0xffffffffL;
+    }
+}
@@ -0,0 +1,294 @@
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <h1>PrimalityTest</h1>
+ * <p>A Baillie-PSW probable-prime test, run as a pipeline of stages that each reject as many composites as they can
+ * before the next, more expensive one runs:</p>
+ * <ol>
+ *     <li><b>TRIAL_DIVISION</b> by the first Crypto.TRIAL_DIVISION_PRIMES small primes. Numbers below 2^31 are divided by
+ *     every small prime up to their square root, which decides them outright.</li>
+ *     <li><b>BASE_2</b>, one strong probable-prime (Miller-Rabin) test to base 2. Almost every composite stops here.</li>
+ *     <li><b>STRONG_LUCAS</b>, a strong Lucas probable-prime test with Selfridge's parameters. Together with the base 2
+ *     test this is BPSW, which has no known counterexample.</li>
+ *     <li><b>RANDOM_BASES</b>, optional extra Miller-Rabin rounds with random bases. Each round a composite survives has
+ *     a chance of at most 1/4, so the number of rounds is set from the error probability wanted on top of BPSW.</li>
+ * </ol>
+ * <p>The test counts how many numbers it has been given and how many each stage rejected. The counters are shared by
+ * every thread using the instance.</p>
+ */
+public class PrimalityTest {
+
+    public enum Stage { TRIAL_DIVISION, BASE_2, STRONG_LUCAS, RANDOM_BASES }
+
+    private static final BigInteger TWO = BigInteger.TWO;
+
+    private final int rounds;
+    // Rejections per stage, then the count of numbers tested
+    private final AtomicLongArray counters = new AtomicLongArray(Stage.values().length + 1);
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  CONSTRUCTORS                                                                                                      ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private PrimalityTest(int rounds) {
+        if (rounds < 0) {
+            throw new IllegalArgumentException("The number of rounds cannot be negative, got " + rounds);
+        }
+        this.rounds = rounds;
+    }
+
+    /**
+     * <h3>withRounds</h3>
+     * @param rounds The number of random-base Miller-Rabin rounds to run after BPSW, 0 for plain BPSW.
+     * @return A new test with its counters at zero.
+     */
+    public static PrimalityTest withRounds(int rounds) {
+        return new PrimalityTest(rounds);
+    }
+
+    /**
+     * <h3>forErrorProbability</h3>
+     * <p>Picks enough random-base rounds that a composite which fooled BPSW would still pass them all with a chance of at
+     * most the given one, using the worst-case bound of 1/4 per round.</p>
+     * @param errorProbability The target chance of accepting a composite, in (0, 1]. 1 means plain BPSW.
+     * @return A new test with its counters at zero.
+     */
+    public static PrimalityTest forErrorProbability(double errorProbability) {
+        if (!(errorProbability > 0 && errorProbability <= 1)) {
+            throw new IllegalArgumentException("The error probability must be in (0, 1], got " + errorProbability);
+        }
+        return new PrimalityTest((int) Math.ceil(-Math.log(errorProbability) / Math.log(4)));
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  FUNCTIONS                                                                                                         ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>test</h3>
+     * @param n The number to check.
+     * @return True if n is prime (certainly, below 2^31) or a probable prime, false if it is certainly composite.
+     */
+    public boolean test(BigInteger n) {
+        return test(n, true);
+    }
+
+    /**
+     * <h3>testSieved</h3>
+     * <p>Like <b>test()</b>, but skips trial division for numbers of 2^31 and above, for candidates a PrimeSieve has
+     * already cleared of small factors.</p>
+     * @param n The number to check.
+     * @return True if n is prime or a probable prime, false if it is certainly composite.
+     */
+    public boolean testSieved(BigInteger n) {
+        return test(n, false);
+    }
+
+    private boolean test(BigInteger n, boolean trialDivision) {
+        this.counters.incrementAndGet(Stage.values().length);
+        if (n.bitLength() < 32) {
+            return passes(Stage.TRIAL_DIVISION, isSmallPrime(n.intValue()));
+        }
+        if (trialDivision && !passes(Stage.TRIAL_DIVISION, hasNoSmallFactor(n))) {
+            return false;
+        }
+        ModExpContext context = new ModExpContext(n); // Shared by every Miller-Rabin round, not cached
+        if (!passes(Stage.BASE_2, isStrongProbablePrime(context, TWO))) {
+            return false;
+        }
+        if (!passes(Stage.STRONG_LUCAS, isStrongLucasProbablePrime(n))) {
+            return false;
+        }
+        for (int i = 0; i < this.rounds; i++) {
+            BigInteger a = Crypto.getRandom(2, n.bitLength() - 1); // Below n - 1 and, past trial division, above 1
+            if (!passes(Stage.RANDOM_BASES, isStrongProbablePrime(context, a))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <h3>rounds</h3>
+     * @return The number of random-base Miller-Rabin rounds run after BPSW.
+     */
+    public int rounds() {
+        return this.rounds;
+    }
+
+    /**
+     * <h3>tested</h3>
+     * @return How many numbers this test has been given so far.
+     */
+    public long tested() {
+        return this.counters.get(Stage.values().length);
+    }
+
+    /**
+     * <h3>rejected</h3>
+     * @param stage The stage.
+     * @return How many numbers the stage has found composite so far.
+     */
+    public long rejected(Stage stage) {
+        return this.counters.get(stage.ordinal());
+    }
+
+    /**
+     * <h3>toString</h3>
+     * @return The counters, as "tested=... TRIAL_DIVISION=... BASE_2=... ...".
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("tested=").append(tested());
+        for (Stage stage : Stage.values()) {
+            sb.append(' ').append(stage).append('=').append(rejected(stage));
+        }
+        return sb.toString();
+    }
+
+    // Counts a rejection by the stage
+    private boolean passes(Stage stage, boolean passed) {
+        if (!passed) {
+            this.counters.incrementAndGet(stage.ordinal());
+        }
+        return passed;
+    }
+
+    // Exact for v below 2^31: every small prime up to the square root
+    private static boolean isSmallPrime(int v) {
+        int[] primes = Crypto.SMALL_PRIMES;
+        for (int i = 0; i < primes.length && (long) primes[i] * primes[i] <= v; i++) {
+            if (v % primes[i] == 0) {
+                return false;
+            }
+        }
+        return v >= 2;
+    }
+
+    private static boolean hasNoSmallFactor(BigInteger n) {
+        int[] words = Crypto.words(n);
+        for (int i = 0; i < Crypto.TRIAL_DIVISION_PRIMES; i++) {
+            if (Crypto.mod(words, Crypto.SMALL_PRIMES[i]) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Miller-Rabin for one base a in [2, n - 2]: n - 1 = d * 2^s with d odd, then a^d = 1 or a^(d * 2^r) = -1 for some r < s
+    private static boolean isStrongProbablePrime(ModExpContext context, BigInteger a) {
+        BigInteger n = context.modulus();
+        BigInteger nm = n.subtract(BigInteger.ONE);
+        int s = nm.getLowestSetBit();
+        BigInteger x = context.pow(a, nm.shiftRight(s));
+        if (x.equals(BigInteger.ONE) || x.equals(nm)) {
+            return true;
+        }
+        for (int r = 1; r < s; r++) {
+            x = x.multiply(x).mod(n);
+            if (x.equals(nm)) {
+                return true;
+            }
+            if (x.equals(BigInteger.ONE)) {
+                return false; // A square root of 1 other than -1
+            }
+        }
+        return false;
+    }
+
+    // Strong Lucas test with P = 1 and Q = (1 - D) / 4, for the first D in 5, -7, 9, -11, ... with Jacobi (D/n) = -1
+    // n + 1 = d * 2^s with d odd, then U_d = 0 or V_(d * 2^r) = 0 mod n for some r < s
+    private static boolean isStrongLucasProbablePrime(BigInteger n) {
+        int d = 5;
+        for (int tries = 0; ; tries++, d = d > 0 ? -(d + 2) : -d + 2) {
+            int j = jacobi(d, n);
+            if (j == -1) {
+                break;
+            }
+            if (j == 0) {
+                return false; // |D| shares a factor with n, which is bigger than |D|
+            }
+            if (tries == 10 && isSquare(n)) {
+                return false; // A square never gives -1, stop looking
+            }
+        }
+        BigInteger bigD = BigInteger.valueOf(d);
+        BigInteger q = BigInteger.valueOf((1 - d) / 4);
+        BigInteger np = n.add(BigInteger.ONE);
+        int s = np.getLowestSetBit();
+        BigInteger k = np.shiftRight(s);
+
+        BigInteger u = BigInteger.ONE; // U_1
+        BigInteger v = BigInteger.ONE; // V_1 = P
+        BigInteger qk = q.mod(n); // Q^1
+        for (int i = k.bitLength() - 2; i >= 0; i--) {
+            u = u.multiply(v).mod(n); // U_2m = U_m V_m
+            v = v.multiply(v).subtract(qk.shiftLeft(1)).mod(n); // V_2m = V_m^2 - 2 Q^m
+            qk = qk.multiply(qk).mod(n);
+            if (k.testBit(i)) {
+                BigInteger u1 = half(u.add(v), n); // U_m+1 = (P U_m + V_m) / 2
+                v = half(bigD.multiply(u).add(v), n); // V_m+1 = (D U_m + P V_m) / 2
+                u = u1;
+                qk = qk.multiply(q).mod(n);
+            }
+        }
+        if (u.signum() == 0 || v.signum() == 0) {
+            return true;
+        }
+        for (int r = 1; r < s; r++) {
+            v = v.multiply(v).subtract(qk.shiftLeft(1)).mod(n);
+            if (v.signum() == 0) {
+                return true;
+            }
+            qk = qk.multiply(qk).mod(n);
+        }
+        return false;
+    }
+
+    // x / 2 mod n, for odd n
+    private static BigInteger half(BigInteger x, BigInteger n) {
+        x = x.mod(n);
+        return (x.testBit(0) ? x.add(n) : x).shiftRight(1);
+    }
+
+    // The Jacobi symbol (d/n) for a small odd d and an odd n above |d|
+    private static int jacobi(int d, BigInteger n) {
+        int a = Math.abs(d);
+        int result = 1;
+        if (d < 0 && n.testBit(1)) {
+            result = -1; // (-1/n) = -1 when n = 3 mod 4
+        }
+        if ((a & 2) != 0 && n.testBit(1)) {
+            result = -result; // Reciprocity, when both are 3 mod 4
+        }
+        return result * jacobi(n.mod(BigInteger.valueOf(a)).intValue(), a);
+    }
+
+    // The Jacobi symbol (a/m) for 0 <= a and odd m > 0
+    private static int jacobi(int a, int m) {
+        int result = 1;
+        a %= m;
+        while (a != 0) {
+            while ((a & 1) == 0) {
+                a >>= 1;
+                if ((m & 7) == 3 || (m & 7) == 5) {
+                    result = -result;
+                }
+            }
+            int t = a;
+            a = m;
+            m = t;
+            if ((a & 3) == 3 && (m & 3) == 3) {
+                result = -result;
+            }
+            a %= m;
+        }
+        return m == 1 ? result : 0;
+    }
+
+    private static boolean isSquare(BigInteger n) {
+        BigInteger r = n.sqrt();
+        return r.multiply(r).equals(n);
+    }
+}
@@ -0,0 +1,204 @@
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * <h1>PrimeSearch</h1>
+ * <p>Searches for a random probable prime, or a safe prime p = 2q + 1, on several threads at once. Every worker picks its
+ * own random starting point and walks up from it with a PrimeSieve, so the workers cover separate candidate ranges and
+ * share nothing but the result. The first one to find a prime completes the future, and the others stop at their next
+ * candidate.</p>
+ * <p>Cancelling the future, or letting the deadline pass, stops the search the same way. The deadline completes the
+ * future with a TimeoutException.</p>
+ * <p>A search is set up with the <b>with</b> methods, which return a new instance, and started with <b>start()</b>:</p>
+ * <pre>
+ *     CompletableFuture&lt;BigInteger&gt; p = PrimeSearch.safePrime(2049, 3073)
+ *         .withDeadline(Duration.ofMinutes(5))
+ *         .withProgress(tested -&gt; System.out.println(tested + " candidates tested"))
+ *         .start();
+ * </pre>
+ * <p>By default the workers run on a pool of their own, with one daemon thread per available processor, created on
+ * first use. A worker holds its thread for the whole search, so running them on the common ForkJoinPool would starve
+ * the parallel cipher modes that use it. Searches started while the pool is busy wait for a free thread.</p>
+ * <p>Crypto.getPrime() and getSafePrime() are wrappers that start a search and wait for it.</p>
+ */
+public final class PrimeSearch {
+
+    private final int minBits;
+    private final int maxBits;
+    private final PrimalityTest primality; // Shared by the workers, so its counters cover the whole search
+    private final boolean safe;
+    private final Duration deadline; // Null for none
+    private final LongConsumer progress; // Null for none
+    private final Executor executor;
+    private final int parallelism;
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  CONSTRUCTORS                                                                                                      ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private PrimeSearch(int minBits, int maxBits, PrimalityTest primality, boolean safe, Duration deadline,
+                        LongConsumer progress, Executor executor, int parallelism) {
+        if (minBits < (safe ? 3 : 2) || maxBits < minBits) {
+            throw new IllegalArgumentException("Invalid bit range " + minBits + " to " + maxBits);
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, got " + parallelism);
+        }
+        this.minBits = minBits;
+        this.maxBits = maxBits;
+        this.primality = primality;
+        this.safe = safe;
+        this.deadline = deadline;
+        this.progress = progress;
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * <h3>prime</h3>
+     * <p>A search for a probable prime, with one worker per thread of the search pool.</p>
+     * @param minBits The minimum bit width of the prime.
+     * @param maxBits The maximum bit width of the prime.
+     * @param numChecks The number of random-base Miller-Rabin rounds to run after BPSW.
+     * @return The search, not yet started.
+     */
+    public static PrimeSearch prime(int minBits, int maxBits, int numChecks) {
+        return new PrimeSearch(minBits, maxBits, PrimalityTest.withRounds(numChecks), false, null, null, Pool.EXECUTOR,
+            Pool.SIZE);
+    }
+
+    /**
+     * <h3>safePrime</h3>
+     * <p>A search for a safe prime p = 2q + 1 (both p and q probable primes), with 10 random-base Miller-Rabin rounds
+     * after BPSW, with one worker per thread of the search pool.</p>
+     * @param minBits The minimum bit width of p.
+     * @param maxBits The maximum bit width of p.
+     * @return The search, not yet started.
+     */
+    public static PrimeSearch safePrime(int minBits, int maxBits) {
+        return new PrimeSearch(minBits, maxBits, PrimalityTest.withRounds(10), true, null, null, Pool.EXECUTOR,
+            Pool.SIZE);
+    }
+
+    /**
+     * <h3>withDeadline</h3>
+     * @param deadline How long the search may run, counted from <b>start()</b>, or null for no limit.
+     * @return A search with the deadline.
+     */
+    public PrimeSearch withDeadline(Duration deadline) {
+        return new PrimeSearch(this.minBits, this.maxBits, this.primality, this.safe, deadline, this.progress,
+            this.executor, this.parallelism);
+    }
+
+    /**
+     * <h3>withProgress</h3>
+     * <p>The listener is called from the worker threads, with the total so far, every time a candidate that survived
+     * the sieve has been tested. It has to be thread-safe and quick.</p>
+     * @param progress The listener, or null.
+     * @return A search reporting to the listener.
+     */
+    public PrimeSearch withProgress(LongConsumer progress) {
+        return new PrimeSearch(this.minBits, this.maxBits, this.primality, this.safe, this.deadline, progress,
+            this.executor, this.parallelism);
+    }
+
+    /**
+     * <h3>withPrimalityTest</h3>
+     * <p>Tests the candidates with the given test, for example one from PrimalityTest.forErrorProbability(), or one the
+     * caller keeps to read its stage counters after the search.</p>
+     * @param primality The test.
+     * @return A search using the test.
+     */
+    public PrimeSearch withPrimalityTest(PrimalityTest primality) {
+        return new PrimeSearch(this.minBits, this.maxBits, primality, this.safe, this.deadline, this.progress,
+            this.executor, this.parallelism);
+    }
+
+    /**
+     * <h3>withExecutor</h3>
+     * <p>Runs the workers on another executor, for example one with a thread per task (virtual threads, where the JDK
+     * has them).</p>
+     * @param executor The executor.
+     * @param parallelism The number of workers to start.
+     * @return A search using the executor.
+     */
+    public PrimeSearch withExecutor(Executor executor, int parallelism) {
+        return new PrimeSearch(this.minBits, this.maxBits, this.primality, this.safe, this.deadline, this.progress,
+            executor, parallelism);
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  FUNCTIONS                                                                                                         ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>start</h3>
+     * <p>Starts the workers and returns at once.</p>
+     * @return The future prime (for a safe prime search, p). Cancelling it stops the search.
+     */
+    public CompletableFuture<BigInteger> start() {
+        CompletableFuture<BigInteger> result = new CompletableFuture<>();
+        if (this.deadline != null) {
+            result.orTimeout(this.deadline.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        AtomicLong tested = new AtomicLong();
+        for (int i = 0; i < this.parallelism; i++) {
+            this.executor.execute(() -> {
+                try {
+                    search(result, tested);
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                }
+            });
+        }
+        return result;
+    }
+
+    // One worker: new random starts until some worker completes the result or it is cancelled or timed out
+    private void search(CompletableFuture<BigInteger> result, AtomicLong tested) {
+        int offset = this.safe ? 1 : 0; // A safe prime search walks q, one bit shorter than p
+        int high = this.maxBits - offset;
+        while (!result.isDone()) {
+            PrimeSieve sieve = new PrimeSieve(Crypto.getRandom(this.minBits - offset, high).setBit(0), this.safe);
+            for (BigInteger c = sieve.next(); c.bitLength() <= high && !result.isDone(); c = sieve.next()) {
+                boolean found = test(c);
+                if (found && this.safe) {
+                    c = c.shiftLeft(1).setBit(0);
+                    found = test(c);
+                }
+                long n = tested.incrementAndGet();
+                if (this.progress != null) {
+                    this.progress.accept(n);
+                }
+                if (found) {
+                    result.complete(c);
+                    return;
+                }
+            }
+        }
+    }
+
+    // Candidates from the sieve have no small factors, so trial division is skipped
+    private boolean test(BigInteger c) {
+        return this.primality.testSieved(c);
+    }
+
+    // The default workers' threads, created when the first search is set up
+    private static final class Pool {
+        static final int SIZE = Runtime.getRuntime().availableProcessors();
+        static final AtomicInteger THREADS = new AtomicInteger();
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(SIZE, task -> {
+            Thread thread = new Thread(task, "prime-search-" + THREADS.incrementAndGet());
+            thread.setDaemon(true); // Idle workers must not keep the JVM alive
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,116 @@
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * <h1>PrimeSieve</h1>
+ * <p>Walks the odd numbers start, start + 2, start + 4, ... and returns only the ones with no factor among the small
+ * primes in <b>Crypto.SMALL_PRIMES</b>, so the expensive probable-prime tests only run on candidates that survive.</p>
+ * <p>The candidates are sieved a window of WINDOW odd numbers at a time. The residue of the start of the current window
+ * modulo every small prime is kept, computed from the BigInteger once and then moved on to the next window with int
+ * arithmetic. From the residue, the first multiple of each prime in the window is found with one multiplication, and
+ * its multiples are crossed out, so a window costs about three operations per candidate no matter how many small
+ * primes there are. No BigInteger is created until a candidate survives.</p>
+ * <p>In safe mode the candidates are values of q for a safe prime p = 2q + 1, and both are sieved together: q is also
+ * crossed out when 2q + 1 is divisible by s, which is when q mod s is (s - 1) / 2.</p>
+ * <p>A sieve is not thread-safe, each search should use its own.</p>
+ */
+public class PrimeSieve {
+
+    static final int WINDOW = 1 << 16; // Odd candidates per window
+
+    private final BigInteger start;
+    private final boolean safe;
+    private final int count; // Small primes used, only the ones below start so a small prime is not crossed out as its own multiple
+    private final int[] residues; // Start of the current window mod SMALL_PRIMES[i]
+    private final boolean[] crossed = new boolean[WINDOW];
+    private long base = -WINDOW; // Index of the first candidate of the current window, candidate i is start + 2i
+    private int index = WINDOW; // Next candidate in the window
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  CONSTRUCTORS                                                                                                      ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>PrimeSieve Constructor</h3>
+     * @param start The first candidate, which must be odd.
+     * @param safe True to sieve q and 2q + 1 together, for safe primes.
+     */
+    public PrimeSieve(BigInteger start, boolean safe) {
+        if (!start.testBit(0)) {
+            throw new IllegalArgumentException("The first candidate must be odd.");
+        }
+        this.start = start;
+        this.safe = safe;
+        int count = Crypto.SMALL_PRIMES.length;
+        if (start.bitLength() < 32) {
+            count = 1; // 2 is skipped, every candidate is odd
+            while (count < Crypto.SMALL_PRIMES.length && Crypto.SMALL_PRIMES[count] < start.intValue()) {
+                count++;
+            }
+        }
+        this.count = count;
+        this.residues = new int[count];
+        int[] words = Crypto.words(start);
+        for (int i = 1; i < count; i++) {
+            this.residues[i] = Crypto.mod(words, Crypto.SMALL_PRIMES[i]);
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  FUNCTIONS                                                                                                         ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>next</h3>
+     * <p>Returns the next candidate with no small factor (or, in safe mode, whose 2q + 1 has none either). The caller
+     * decides when the candidates have grown too large and a new start is needed.</p>
+     * @return The candidate.
+     */
+    public BigInteger next() {
+        while (true) {
+            if (this.index == WINDOW) {
+                sieveNextWindow();
+            }
+            int i = this.index++;
+            if (!this.crossed[i]) {
+                return this.start.add(BigInteger.valueOf(2 * (this.base + i)));
+            }
+        }
+    }
+
+    /**
+     * <h3>offset</h3>
+     * @return How far past the start the sieve has got, which is the number of odd candidates looked at times 2.
+     */
+    public long offset() {
+        return 2 * (this.base + this.index);
+    }
+
+    private void sieveNextWindow() {
+        int[] primes = Crypto.SMALL_PRIMES;
+        if (this.base >= 0) {
+            for (int i = 1; i < this.count; i++) { // Move the residues on by the 2 * WINDOW the window covered
+                this.residues[i] = (int) ((this.residues[i] + 2L * WINDOW) % primes[i]);
+            }
+        }
+        this.base += WINDOW;
+        this.index = 0;
+        Arrays.fill(this.crossed, false);
+        for (int i = 1; i < this.count; i++) {
+            int s = primes[i];
+            int r = this.residues[i];
+            long half = (s + 1) >>> 1; // The inverse of 2 mod s
+            crossOut(s, (int) ((s - r) * half % s)); // Solves r + 2k = 0 mod s
+            if (this.safe) {
+                crossOut(s, (int) (((s >>> 1) - r + s) * half % s)); // Solves r + 2k = (s - 1) / 2 mod s
+            }
+        }
+    }
+
+    private void crossOut(int s, int first) {
+        boolean[] crossed = this.crossed;
+        for (int k = first; k < WINDOW; k += s) {
+            crossed[k] = true;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 import java.math.BigInteger;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 /**
  * <h1>RSA</h1>
@@ -7,6 +8,8 @@ import java.nio.charset.Charset;
  */
 public class RSA {
 
+    private static final Log LOG = Log.get("RSA");
+
     // p, q, n, phi(n), e, d
     // p, q = prime
     // n = pq
@@ -63,6 +66,24 @@ public class RSA {
     private BigInteger d;
     // TODO
 
+    /**
+     * <h3>dP, dQ, qInv</h3>
+     * <p>The Chinese remainder theorem form of the private key: d mod (p-1), d mod (q-1) and q^-1 mod p. Private key
+     * operations work mod p and mod q separately, with exponents half the size, and combine the results.</p>
+     * <p><b>Do not leave these public</b></p>
+     */
+    private BigInteger dP;
+    private BigInteger dQ;
+    private BigInteger qInv;
+
+    /**
+     * <h3>contextP, contextQ</h3>
+     * <p>Exponentiation contexts for p and q. They are kept here rather than in the shared ModExpContext cache, which
+     * would hold on to the secret primes.</p>
+     */
+    private ModExpContext contextP;
+    private ModExpContext contextQ;
+
     /**
      * <h3>RSA Constructor</h3>
      * <p>The constructor for the RSA class.</p>
@@ -72,13 +93,18 @@ public class RSA {
      */
     public RSA(int bits) {
         // TODO
-        System.out.println("Generating keys...");
+        LOG.info(() -> "Generating keys...");
         p = BigInteger.probablePrime(bits, Rand.getRand());
         q = BigInteger.probablePrime(bits, Rand.getRand());
         n = p.multiply(q);
         phi = (p.subtract(BigInteger.ONE)).multiply((q.subtract(BigInteger.ONE))); // Euler's totient = (p-1)(q-1)
         e = Crypto.coprime(phi);
         d = e.modInverse(phi);
+        dP = d.mod(p.subtract(BigInteger.ONE));
+        dQ = d.mod(q.subtract(BigInteger.ONE));
+        qInv = q.modInverse(p);
+        contextP = new ModExpContext(p);
+        contextQ = new ModExpContext(q);
         verifyKeys(p, q, phi, n, d);
     }
 
@@ -95,69 +121,99 @@ public class RSA {
      * <h3>encrypt</h3>
      * <p>Accepts a message String and a public key and returns the encrypted message.</p>
      * <p>ciphertext = m^e mod n <p>
+     * <p>The ciphertext is returned in Base64, padded to the length of n.</p>
      * @param message A String containing a message (signed or in plaintext)
      * @param pubKey An array of BigInteger containing a public key [e, n].
      * @return The result of encrypting the message using the given public key.
+     * @throws IllegalArgumentException If the UTF-8 bytes of the message, as a number, are not less than n.
      */
     public String encrypt(String message, BigInteger[] pubKey) {
         // TODO
-        BigInteger encoded = checkMessage(message);
-        BigInteger cipher = encoded.modPow(pubKey[0], pubKey[1]);
-        return cipher.toString();
+        BigInteger encoded = checkMessage(message, pubKey[1]);
+        BigInteger cipher = Crypto.fastMod(encoded, pubKey[0], pubKey[1]);
+        return Codec.toBase64(cipher, byteLength(pubKey[1]));
     }
 
     /**
      * <h3>decrypt</h3>
      * <p>Accepts a ciphertext and uses the private key stored in the member variables to decrypt.</p>
-     * @param ciphertext A String containing an encryptedd message.
+     * <p>The decrypted bytes are read as UTF-8, so a message from encrypt() comes back unchanged.</p>
+     * @param ciphertext A String containing an encryptedd message, in Base64.
      * @return The result of decrypting the message using the private key [d, n].
      */
     public String decrypt(String ciphertext) {
         // TODO
-        BigInteger m = new BigInteger(ciphertext);
-        BigInteger plain = m.modPow(this.d, this.n);
-        return plain.toString();
+        BigInteger m = Codec.bigIntegerFromBase64(ciphertext);
+        BigInteger plain = privatePow(m);
+        return toText(plain);
     }
 
     /**
      * <h3>sign</h3>
      * <p>Accepts a message String and cryptographically signs the message using the private key stored in the member variables [d, n].</p>
+     * <p>The signature is returned in Base64, padded to the length of n.</p>
      * @param message A String containing a message to be signed.
      * @return The result of encrypting the message using the private key [d, n].
+     * @throws IllegalArgumentException If the UTF-8 bytes of the message, as a number, are not less than n.
      */
     public String sign(String message) {
         // TODO
-        BigInteger s = checkMessage(message);
-        BigInteger result = s.modPow(this.d, this.n);
-        return result.toString();
+        BigInteger s = checkMessage(message, this.n);
+        BigInteger result = privatePow(s);
+        return Codec.toBase64(result, byteLength(this.n));
     }
 
     /**
      * <h3>authenticate</h3>
      * <p>Accepts a signed (encrypted) message and a public key and uses the given public key to decrypt the message.</p>
-     * @param message A String containing a signed message.
+     * <p>The recovered bytes are read as UTF-8, like decrypt(), so the result is the message that was signed.</p>
+     * @param message A String containing a signed message, in Base64.
      * @param pubKey An array of BigInteger containing a public key [e, n].
      * @return The result of decrypting the message using the given public key.
      */
     public String authenticate(String message, BigInteger[] pubKey) {
         // TODO
-        BigInteger v = new BigInteger(message);
-        BigInteger plain = v.modPow(pubKey[0], pubKey[1]);
-        return plain.toString();
+        BigInteger v = Codec.bigIntegerFromBase64(message);
+        BigInteger plain = Crypto.fastMod(v, pubKey[0], pubKey[1]);
+        return toText(plain);
+    }
+
+    // x^d mod n by the Chinese remainder theorem: x^dP mod p and x^dQ mod q, recombined with Garner's formula
+    private BigInteger privatePow(BigInteger x) {
+        BigInteger m1 = this.contextP.pow(x, this.dP);
+        BigInteger m2 = this.contextQ.pow(x, this.dQ);
+        BigInteger h = this.qInv.multiply(m1.subtract(m2)).mod(this.p);
+        return m2.add(h.multiply(this.q));
     }
 
     // This method is used if an empty string is passed as the message to encrypt
     // Gets around a no value error from the BigInteger class
-    private BigInteger checkMessage(String message) {
+    // A message that is not less than n would come back reduced mod n, so it is refused instead
+    private BigInteger checkMessage(String message, BigInteger n) {
         if(message.equals("")) {
             return BigInteger.valueOf(0);
         }
 
-        BigInteger m = new BigInteger(message.getBytes(Charset.forName("UTF-8")));
+        BigInteger m = new BigInteger(1, message.getBytes(Charset.forName("UTF-8"))); // Unsigned, so decrypt() gives back the same bytes
+        if (m.compareTo(n) >= 0) {
+            throw new IllegalArgumentException("The message is too long for a " + n.bitLength() + "-bit key.");
+        }
 
         return m;
     }
 
+    // The inverse of checkMessage(): the unsigned big-endian bytes of m as UTF-8, and "" for 0
+    private static String toText(BigInteger m) {
+        byte[] bytes = m.toByteArray();
+        int skip = bytes[0] == 0 ? 1 : 0; // The sign byte, which is all of 0
+        return new String(bytes, skip, bytes.length - skip, StandardCharsets.UTF_8);
+    }
+
+    // Bytes needed to hold any value mod n
+    private static int byteLength(BigInteger n) {
+        return (n.bitLength() + 7) / 8;
+    }
+
     // Testing the relationship between each key and making sure they're valid
     private void verifyKeys(BigInteger p, BigInteger q, BigInteger phi, BigInteger n, BigInteger d) {
         boolean isValid = true;
@@ -218,18 +274,21 @@ public class RSA {
      * <p>Final submission should be a <b>safe</b> class implementation.</p>
      */
     public static void main(String[] args) {
-        RSA a = new RSA(4096);
+        // A's key is smaller than B's, so the Base64 of a signature or ciphertext under A's key fits under B's n
+        RSA a = new RSA(3072);
         BigInteger[] aPub = a.getPubKey();
+        Log.flush(); // Let the log finish first
         System.out.printf("p = %s%nq = %s%nn = %s%nphi = %s%ne = %s%nd = %s%n%n", a.p, a.q, aPub[1], a.phi, aPub[0], a.d);
         RSA b = new RSA(4096);
         BigInteger[] bPub = b.getPubKey();
+        Log.flush();
         System.out.printf("p = %s%nq = %s%nn = %s%nphi = %s%ne = %s%nd = %s%n%n", b.p, b.q, bPub[1], b.phi, bPub[0], b.d);
 
         String message1 = "Hello";
         String encrypted = a.sign(message1);
         System.out.printf("Signed message: %s%n", encrypted);
         String decrypted = b.authenticate(encrypted, aPub);
-        System.out.printf("Authenticated message: ", decrypted);
+        System.out.printf("Authenticated message: %s%n", decrypted);
         System.out.printf("msg: %s%n", message1);
         String signed1 = a.sign(message1);
         System.out.printf("Signed by A ({msg}privA): %s%n", signed1);
@@ -252,6 +311,6 @@ public class RSA {
         String auth2 = a.authenticate(signed2, bPub);
         System.out.printf("Authenticated by A ({msg}pubA): %s%n", auth2);
         String plain2 = a.decrypt(auth2);
-        System.out.printf("Received by A: %s%n", new String(plain2.getBytes()));
+        System.out.printf("Received by A: %s%n", plain2);
     }
 }
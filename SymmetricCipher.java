@@ -0,0 +1,140 @@
+import java.util.Locale;
+
+/**
+ * <h1>SymmetricCipher</h1>
+ * <p>The one-shot entry points shared by the ciphers, so a caller can pick the cipher by name (for example from the
+ * <b>cipher</b> system property) and use it the same way. Every call encrypts one whole message: the output starts with
+ * whatever IV or nonce the cipher generated for it, and <b>decrypt()</b> reads it back from there.</p>
+ * <p>The String methods treat each character as one byte, like <b>AES.encrypt(String, Mode)</b>, and the ciphertext is
+ * hex.</p>
+ */
+public interface SymmetricCipher {
+
+    /**
+     * <h3>PROPERTY</h3>
+     * <p>System property naming the cipher used by <b>fromConfig()</b>, one of the names accepted by <b>forName()</b>.</p>
+     */
+    String PROPERTY = "cipher";
+
+    /**
+     * <h3>forName</h3>
+     * <p>Returns the cipher with the given name: <b>AES-ECB</b>, <b>AES-CBC</b>, <b>AES-CTR</b>, <b>AES-CBC_CS3</b> or
+     * <b>ChaCha20-Poly1305</b>, in any case.</p>
+     * @param name The cipher name.
+     * @param key The key String. AES uses the first 16 characters, ChaCha20-Poly1305 needs 32.
+     * @return The cipher.
+     * @throws IllegalArgumentException If the name is unknown or the key is too short for the cipher.
+     */
+    static SymmetricCipher forName(String name, String key) {
+        String upper = name.toUpperCase(Locale.ROOT);
+        if (upper.equals("CHACHA20-POLY1305")) {
+            return new ChaCha20Poly1305(key);
+        }
+        for (AES.Mode mode : AES.Mode.values()) {
+            if (upper.equals("AES-" + mode)) {
+                return aes(new AES(key), mode);
+            }
+        }
+        throw new IllegalArgumentException("Unknown cipher " + name);
+    }
+
+    /**
+     * <h3>fromConfig</h3>
+     * <p>Returns the cipher named by the <b>cipher</b> system property, AES-CBC when it is not set.</p>
+     * @param key The key String.
+     * @return The cipher.
+     */
+    static SymmetricCipher fromConfig(String key) {
+        return forName(System.getProperty(PROPERTY, "AES-CBC"), key);
+    }
+
+    /**
+     * <h3>aes</h3>
+     * <p>Wraps an AES instance and a mode, so AES can be used wherever a SymmetricCipher is expected.</p>
+     * @param aes The cipher.
+     * @param mode The mode of operation for every call.
+     * @return The wrapper.
+     */
+    static SymmetricCipher aes(AES aes, AES.Mode mode) {
+        return new SymmetricCipher() {
+            @Override
+            public int getOutputSize(int len) {
+                return AES.getOutputSize(len, mode);
+            }
+
+            @Override
+            public int encrypt(byte[] in, int off, int len, byte[] out, int outOff) {
+                return aes.encrypt(in, off, len, out, outOff, mode);
+            }
+
+            @Override
+            public int decrypt(byte[] in, int off, int len, byte[] out, int outOff) {
+                return aes.decrypt(in, off, len, out, outOff, mode);
+            }
+
+            @Override
+            public String toString() {
+                return "AES-" + mode;
+            }
+        };
+    }
+
+    /**
+     * <h3>getOutputSize</h3>
+     * @param len The plaintext length in bytes.
+     * @return The length of its ciphertext, including the IV or nonce and any padding or tag.
+     */
+    int getOutputSize(int len);
+
+    /**
+     * <h3>encrypt</h3>
+     * <p>Encrypts <b>len</b> bytes of plaintext. The output may be the same array as the input as long as it has room
+     * for the whole ciphertext at <b>outOff</b>.</p>
+     * @param in The plaintext buffer.
+     * @param off The offset of the plaintext.
+     * @param len The plaintext length.
+     * @param out The ciphertext buffer, with room for getOutputSize(len) bytes at <b>outOff</b>.
+     * @param outOff The offset at which to write the ciphertext.
+     * @return The number of bytes written to <b>out</b>.
+     */
+    int encrypt(byte[] in, int off, int len, byte[] out, int outOff);
+
+    /**
+     * <h3>decrypt</h3>
+     * <p>Decrypts (and where the cipher authenticates, verifies) ciphertext produced by <b>encrypt()</b>. The output
+     * may be the same range as the input.</p>
+     * @param in The ciphertext buffer.
+     * @param off The offset of the ciphertext.
+     * @param len The ciphertext length.
+     * @param out The plaintext buffer, with room for <b>len</b> bytes at <b>outOff</b>.
+     * @param outOff The offset at which to write the plaintext.
+     * @return The plaintext length.
+     * @throws IllegalArgumentException If the ciphertext is malformed or does not verify.
+     */
+    int decrypt(byte[] in, int off, int len, byte[] out, int outOff);
+
+    /**
+     * <h3>encrypt</h3>
+     * <p>Encrypts a String of plaintext and returns the ciphertext as a hex string.</p>
+     * @param plaintext The text to encrypt.
+     * @return The ciphertext in hex.
+     */
+    default String encrypt(String plaintext) {
+        byte[] in = AES.stringToBytes(plaintext);
+        byte[] out = new byte[getOutputSize(in.length)];
+        int n = encrypt(in, 0, in.length, out, 0);
+        return AES.bytesToHex(out, 0, n);
+    }
+
+    /**
+     * <h3>decrypt</h3>
+     * <p>Decrypts a hex string produced by <b>encrypt(String)</b> and returns the plaintext String.</p>
+     * @param ciphertext The ciphertext in hex.
+     * @return The plaintext.
+     */
+    default String decrypt(String ciphertext) {
+        byte[] buf = AES.hexToBytes(ciphertext);
+        int len = decrypt(buf, 0, buf.length, buf, 0);
+        return AES.bytesToString(buf, 0, len);
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * <h1>TableAES</h1>
+ * <p>A table driven implementation of the AES-128 block function.</p>
+ * <p>The state is kept in four ints (one per column) and each of the nine full rounds is computed with the classic
+ * "T-table" formulation, where SubBytes, ShiftRows and MixColumns are fused into four 256-entry lookup tables.</p>
+ * <p>Decryption uses the equivalent inverse cipher, so the decryption round keys have InvMixColumns pre-applied.</p>
+ */
+public class TableAES implements BlockCipherEngine {
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  TABLES                                                                                                            ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    static final int[] SB = new int[256];  // Forward S-box as a flat table
+    static final int[] ISB = new int[256]; // Inverse S-box as a flat table
+
+    static final int[] TE0 = new int[256], TE1 = new int[256], TE2 = new int[256], TE3 = new int[256]; // Encryption tables
+    static final int[] TD0 = new int[256], TD1 = new int[256], TD2 = new int[256], TD3 = new int[256]; // Decryption tables
+
+    static {
+        for (int x = 0; x < 256; x++) {
+            SB[x] = SBox.sbox(x);
+            ISB[x] = SBox.invSbox(x);
+        }
+        for (int x = 0; x < 256; x++) {
+            int s = SB[x];
+            int te = (mul(s, 2) << 24) | (s << 16) | (s << 8) | mul(s, 3); // Column (2s, s, s, 3s)
+            TE0[x] = te;
+            TE1[x] = Integer.rotateRight(te, 8);
+            TE2[x] = Integer.rotateRight(te, 16);
+            TE3[x] = Integer.rotateRight(te, 24);
+
+            int i = ISB[x];
+            int td = (mul(i, 14) << 24) | (mul(i, 9) << 16) | (mul(i, 13) << 8) | mul(i, 11); // Column (14i, 9i, 13i, 11i)
+            TD0[x] = td;
+            TD1[x] = Integer.rotateRight(td, 8);
+            TD2[x] = Integer.rotateRight(td, 16);
+            TD3[x] = Integer.rotateRight(td, 24);
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  VARIABLES                                                                                                         ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private final int[] encKey; // Encryption round keys, one word per column
+    private final int[] decKey; // Decryption round keys for the equivalent inverse cipher
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  CONSTRUCTORS                                                                                                      ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>TableAES Constructor</h3>
+     * <p>Accepts an expanded key. The schedules are used directly, not copied.</p>
+     * @param key The expanded key.
+     */
+    public TableAES(ExpandedKey key) {
+        this.encKey = key.enc;
+        this.decKey = key.dec;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  FUNCTIONS                                                                                                         ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>encryptBlock</h3>
+     * <p>Encrypts one 16 byte block. The input and output ranges may overlap.</p>
+     */
+    @Override
+    public void encryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        final int[] rk = this.encKey;
+        int s0 = getInt(in, inOff) ^ rk[0];
+        int s1 = getInt(in, inOff + 4) ^ rk[1];
+        int s2 = getInt(in, inOff + 8) ^ rk[2];
+        int s3 = getInt(in, inOff + 12) ^ rk[3];
+
+        int k = 4;
+        for (int round = 1; round < 10; round++) {
+            int t0 = TE0[s0 >>> 24] ^ TE1[(s1 >>> 16) & 0xff] ^ TE2[(s2 >>> 8) & 0xff] ^ TE3[s3 & 0xff] ^ rk[k];
+            int t1 = TE0[s1 >>> 24] ^ TE1[(s2 >>> 16) & 0xff] ^ TE2[(s3 >>> 8) & 0xff] ^ TE3[s0 & 0xff] ^ rk[k + 1];
+            int t2 = TE0[s2 >>> 24] ^ TE1[(s3 >>> 16) & 0xff] ^ TE2[(s0 >>> 8) & 0xff] ^ TE3[s1 & 0xff] ^ rk[k + 2];
+            int t3 = TE0[s3 >>> 24] ^ TE1[(s0 >>> 16) & 0xff] ^ TE2[(s1 >>> 8) & 0xff] ^ TE3[s2 & 0xff] ^ rk[k + 3];
+            s0 = t0; s1 = t1; s2 = t2; s3 = t3;
+            k += 4;
+        }
+
+        // Final round has no MixColumns
+        putInt(out, outOff,      finalEnc(s0, s1, s2, s3) ^ rk[40]);
+        putInt(out, outOff + 4,  finalEnc(s1, s2, s3, s0) ^ rk[41]);
+        putInt(out, outOff + 8,  finalEnc(s2, s3, s0, s1) ^ rk[42]);
+        putInt(out, outOff + 12, finalEnc(s3, s0, s1, s2) ^ rk[43]);
+    }
+
+    /**
+     * <h3>encryptLanes</h3>
+     * <p>Encrypts several independent blocks in lockstep. <b>state</b> holds four column words per lane, and every round
+     * is applied to all lanes before the next round starts, so the table lookups of different lanes can overlap.</p>
+     * @param state The lane states (4 * lanes ints), encrypted in place.
+     * @param lanes The number of lanes.
+     */
+    public void encryptLanes(int[] state, int lanes) {
+        final int[] rk = this.encKey;
+        for (int l = 0; l < lanes * 4; l += 4) {
+            state[l] ^= rk[0];
+            state[l + 1] ^= rk[1];
+            state[l + 2] ^= rk[2];
+            state[l + 3] ^= rk[3];
+        }
+        for (int k = 4; k < 40; k += 4) {
+            for (int l = 0; l < lanes * 4; l += 4) {
+                int s0 = state[l], s1 = state[l + 1], s2 = state[l + 2], s3 = state[l + 3];
+                state[l]     = TE0[s0 >>> 24] ^ TE1[(s1 >>> 16) & 0xff] ^ TE2[(s2 >>> 8) & 0xff] ^ TE3[s3 & 0xff] ^ rk[k];
+                state[l + 1] = TE0[s1 >>> 24] ^ TE1[(s2 >>> 16) & 0xff] ^ TE2[(s3 >>> 8) & 0xff] ^ TE3[s0 & 0xff] ^ rk[k + 1];
+                state[l + 2] = TE0[s2 >>> 24] ^ TE1[(s3 >>> 16) & 0xff] ^ TE2[(s0 >>> 8) & 0xff] ^ TE3[s1 & 0xff] ^ rk[k + 2];
+                state[l + 3] = TE0[s3 >>> 24] ^ TE1[(s0 >>> 16) & 0xff] ^ TE2[(s1 >>> 8) & 0xff] ^ TE3[s2 & 0xff] ^ rk[k + 3];
+            }
+        }
+        for (int l = 0; l < lanes * 4; l += 4) {
+            int s0 = state[l], s1 = state[l + 1], s2 = state[l + 2], s3 = state[l + 3];
+            state[l]     = finalEnc(s0, s1, s2, s3) ^ rk[40];
+            state[l + 1] = finalEnc(s1, s2, s3, s0) ^ rk[41];
+            state[l + 2] = finalEnc(s2, s3, s0, s1) ^ rk[42];
+            state[l + 3] = finalEnc(s3, s0, s1, s2) ^ rk[43];
+        }
+    }
+
+    /**
+     * <h3>decryptBlock</h3>
+     * <p>Decrypts one 16 byte block. The input and output ranges may overlap.</p>
+     */
+    @Override
+    public void decryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        final int[] rk = this.decKey;
+        int s0 = getInt(in, inOff) ^ rk[0];
+        int s1 = getInt(in, inOff + 4) ^ rk[1];
+        int s2 = getInt(in, inOff + 8) ^ rk[2];
+        int s3 = getInt(in, inOff + 12) ^ rk[3];
+
+        int k = 4;
+        for (int round = 1; round < 10; round++) {
+            int t0 = TD0[s0 >>> 24] ^ TD1[(s3 >>> 16) & 0xff] ^ TD2[(s2 >>> 8) & 0xff] ^ TD3[s1 & 0xff] ^ rk[k];
+            int t1 = TD0[s1 >>> 24] ^ TD1[(s0 >>> 16) & 0xff] ^ TD2[(s3 >>> 8) & 0xff] ^ TD3[s2 & 0xff] ^ rk[k + 1];
+            int t2 = TD0[s2 >>> 24] ^ TD1[(s1 >>> 16) & 0xff] ^ TD2[(s0 >>> 8) & 0xff] ^ TD3[s3 & 0xff] ^ rk[k + 2];
+            int t3 = TD0[s3 >>> 24] ^ TD1[(s2 >>> 16) & 0xff] ^ TD2[(s1 >>> 8) & 0xff] ^ TD3[s0 & 0xff] ^ rk[k + 3];
+            s0 = t0; s1 = t1; s2 = t2; s3 = t3;
+            k += 4;
+        }
+
+        // Final round has no InvMixColumns
+        putInt(out, outOff,      finalDec(s0, s3, s2, s1) ^ rk[40]);
+        putInt(out, outOff + 4,  finalDec(s1, s0, s3, s2) ^ rk[41]);
+        putInt(out, outOff + 8,  finalDec(s2, s1, s0, s3) ^ rk[42]);
+        putInt(out, outOff + 12, finalDec(s3, s2, s1, s0) ^ rk[43]);
+    }
+
+    /**
+     * <h3>encryptBlocks</h3>
+     * <p>Encrypts consecutive blocks. The input and output ranges may be the same but must not partially overlap.</p>
+     * @param in The input buffer.
+     * @param inOff The offset of the first input block.
+     * @param out The output buffer.
+     * @param outOff The offset of the first output block.
+     * @param blocks The number of blocks.
+     */
+    @Override
+    public void encryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        for (int i = 0; i < blocks; i++) {
+            encryptBlock(in, inOff + i * 16, out, outOff + i * 16);
+        }
+    }
+
+    /**
+     * <h3>decryptBlocks</h3>
+     * <p>Decrypts consecutive blocks. The input and output ranges may be the same but must not partially overlap.</p>
+     * @param in The input buffer.
+     * @param inOff The offset of the first input block.
+     * @param out The output buffer.
+     * @param outOff The offset of the first output block.
+     * @param blocks The number of blocks.
+     */
+    @Override
+    public void decryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        for (int i = 0; i < blocks; i++) {
+            decryptBlock(in, inOff + i * 16, out, outOff + i * 16);
+        }
+    }
+
+    // SubBytes + ShiftRows for one output column of the last encryption round
+    private static int finalEnc(int a, int b, int c, int d) {
+        return (SB[a >>> 24] << 24) | (SB[(b >>> 16) & 0xff] << 16) | (SB[(c >>> 8) & 0xff] << 8) | SB[d & 0xff];
+    }
+
+    // InvSubBytes + InvShiftRows for one output column of the last decryption round
+    private static int finalDec(int a, int b, int c, int d) {
+        return (ISB[a >>> 24] << 24) | (ISB[(b >>> 16) & 0xff] << 16) | (ISB[(c >>> 8) & 0xff] << 8) | ISB[d & 0xff];
+    }
+
+    // InvMixColumns on a single column word, done through the decryption tables by cancelling their InvSubBytes
+    static int invMixColumn(int w) {
+        return TD0[SB[w >>> 24]] ^ TD1[SB[(w >>> 16) & 0xff]] ^ TD2[SB[(w >>> 8) & 0xff]] ^ TD3[SB[w & 0xff]];
+    }
+
+    // Multiplication in GF(2^8) with the AES polynomial x^8 + x^4 + x^3 + x + 1
+    private static int mul(int a, int b) {
+        int result = 0;
+        while (b != 0) {
+            if ((b & 1) != 0) {
+                result ^= a;
+            }
+            a <<= 1;
+            if ((a & 0x100) != 0) {
+                a ^= 0x11b;
+            }
+            b >>>= 1;
+        }
+        return result;
+    }
+
+    static int getInt(byte[] b, int off) {
+        return (b[off] << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+}
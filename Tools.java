@@ -1,25 +1,30 @@
+import java.util.function.Supplier;
+
 public class Tools {
 
-    /**
-     * <h3>DEBUG</h3>
-     * <p>Our debug boolean. Set to <b>true</b> to enable debugging output.</p>
-     * <p></p>
-     */
-    final static boolean DEBUG = true; // Set to true to enable debugging output
+    private static final Log LOG = Log.get("Tools");
 
     /**
      * <h3>debugLog</h3>
-     * <p>Debugging output function. Prints the message to the console if DEBUG is true.</p>
+     * <p>Debugging output function. Queues the message for the log if debug logging is enabled.</p>
      * @param message The message to print
      */
     public static void debugLog(String message) {
-        if (DEBUG) {
-            System.out.println(getDateString() + " - " + message);
-        }
+        LOG.log(Log.Level.DEBUG, message);
+    }
+
+    /**
+     * <h3>debugLog</h3>
+     * <p>Debugging output function for a component. The message is only built if that component logs at DEBUG.</p>
+     * @param component The component name, e.g. AES.
+     * @param message Builds the message to print
+     */
+    public static void debugLog(String component, Supplier<String> message) {
+        Log.get(component).debug(message);
     }
 
     public static String getDateString() {
-        return new java.text.SimpleDateFormat("[MM-dd-yy HH:mm:ss]").format(new java.util.Date());
+        return Log.timestamp(System.currentTimeMillis());
     }
 
     public static void main(String[] args) {
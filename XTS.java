@@ -0,0 +1,230 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <h1>XTS</h1>
+ * <p>XTS-AES (IEEE 1619) for data that is read and written at random positions, such as large files and block
+ * devices. The data is split into sectors that are encrypted independently: sector n only depends on the keys and n,
+ * so any sector can be decrypted on its own, in any order and on any thread, with no IV to store.</p>
+ * <p>Within a sector, each block is XORed with a tweak before and after the block cipher. The tweak of the first
+ * block is the sector number encrypted with the tweak key, and each following one is the previous tweak times x in
+ * GF(2^128). The blocks of a sector are all passed to the engine in one ECB call. A sector of any length of at least
+ * 16 bytes is allowed; when it is not a multiple of 16 the last two blocks use ciphertext stealing.</p>
+ * <p>IEEE 1619 expects the two keys to differ. Like the standard's own test vectors, equal keys are accepted.</p>
+ * <p>An instance never changes after construction and may be shared between threads.</p>
+ */
+public class XTS {
+
+    private static final VarHandle LE_LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long GF_REDUCE = 0x87; // x^128 = x^7 + x^2 + x + 1
+
+    private final AES data; // Encrypts the blocks
+    private final AES tweak; // Encrypts the sector numbers
+    private final int sectorSize;
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  CONSTRUCTORS                                                                                                      ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>XTS Constructor</h3>
+     * @param dataKey Key 1 of IEEE 1619, which encrypts the data (16 characters, one byte each).
+     * @param tweakKey Key 2 of IEEE 1619, which encrypts the sector numbers.
+     * @param sectorSize The length of a sector in bytes, at least 16 (usually 512 or 4096).
+     */
+    public XTS(String dataKey, String tweakKey, int sectorSize) {
+        this(new AES(dataKey), new AES(tweakKey), sectorSize);
+    }
+
+    /**
+     * <h3>XTS Constructor</h3>
+     * @param data The cipher for the data (key 1).
+     * @param tweak The cipher for the sector numbers (key 2).
+     * @param sectorSize The length of a sector in bytes, at least 16 (usually 512 or 4096).
+     */
+    public XTS(AES data, AES tweak, int sectorSize) {
+        if (sectorSize < 16) {
+            throw new IllegalArgumentException("Sector size must be at least 16 bytes, got " + sectorSize);
+        }
+        this.data = data;
+        this.tweak = tweak;
+        this.sectorSize = sectorSize;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  FUNCTIONS                                                                                                         ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    public int sectorSize() {
+        return this.sectorSize;
+    }
+
+    /**
+     * <h3>encryptSector</h3>
+     * <p>Encrypts one sector in place.</p>
+     * @param sectorNo The sector number (the IEEE 1619 data unit sequence number).
+     * @param buf The buffer holding the sector.
+     * @param off The offset of the sector.
+     * @param len The length of the sector, at least 16. Normally the sector size, but a short last sector is allowed.
+     */
+    public void encryptSector(long sectorNo, byte[] buf, int off, int len) {
+        crypt(sectorNo, buf, off, len, true);
+    }
+
+    /**
+     * <h3>decryptSector</h3>
+     * <p>Decrypts one sector in place.</p>
+     * @param sectorNo The sector number.
+     * @param buf The buffer holding the sector.
+     * @param off The offset of the sector.
+     * @param len The length of the sector, at least 16.
+     */
+    public void decryptSector(long sectorNo, byte[] buf, int off, int len) {
+        crypt(sectorNo, buf, off, len, false);
+    }
+
+    /**
+     * <h3>encryptSectors</h3>
+     * <p>Encrypts <b>count</b> consecutive whole sectors in place, using the common ForkJoinPool when they add up to at
+     * least CTR.PARALLEL_THRESHOLD bytes.</p>
+     * @param firstSector The number of the first sector.
+     * @param buf The buffer holding the sectors.
+     * @param off The offset of the first sector.
+     * @param count The number of sectors.
+     */
+    public void encryptSectors(long firstSector, byte[] buf, int off, int count) {
+        run(firstSector, buf, off, count, true);
+    }
+
+    /**
+     * <h3>decryptSectors</h3>
+     * <p>Decrypts <b>count</b> consecutive whole sectors in place, in parallel for large ranges like <b>encryptSectors()</b>.</p>
+     * @param firstSector The number of the first sector.
+     * @param buf The buffer holding the sectors.
+     * @param off The offset of the first sector.
+     * @param count The number of sectors.
+     */
+    public void decryptSectors(long firstSector, byte[] buf, int off, int count) {
+        run(firstSector, buf, off, count, false);
+    }
+
+    private void run(long firstSector, byte[] buf, int off, int count, boolean encrypt) {
+        if ((long) count * this.sectorSize < CTR.PARALLEL_THRESHOLD) {
+            for (int i = 0; i < count; i++) {
+                crypt(firstSector + i, buf, off + i * this.sectorSize, this.sectorSize, encrypt);
+            }
+        } else {
+            ForkJoinPool.commonPool().invoke(new SectorTask(this, firstSector, buf, off, count, encrypt));
+        }
+    }
+
+    // Whole blocks go XOR, ECB, XOR in one engine call. A partial last block steals the end of the one before it.
+    private void crypt(long sectorNo, byte[] buf, int off, int len, boolean encrypt) {
+        if (len < 16) {
+            throw new IllegalArgumentException("An XTS sector must be at least 16 bytes, got " + len);
+        }
+        byte[] t = new byte[16];
+        LE_LONG.set(t, 0, sectorNo); // The sector number as a 128-bit little-endian value
+        this.tweak.encryptBlocks(t, 0, 1, false, null);
+        long lo = (long) LE_LONG.get(t, 0);
+        long hi = (long) LE_LONG.get(t, 8);
+
+        int tail = len % 16;
+        int whole = len / 16 - (tail == 0 ? 0 : 1); // The block before a partial one is done with the stealing
+        xorTweaks(buf, off, whole, lo, hi);
+        if (encrypt) {
+            this.data.encryptBlocks(buf, off, whole, false, null);
+        } else {
+            this.data.decryptBlocks(buf, off, whole, false, null);
+        }
+        xorTweaks(buf, off, whole, lo, hi);
+        if (tail == 0) {
+            return;
+        }
+
+        for (int j = 0; j < whole; j++) { // Tweaks of the last two blocks
+            long carry = hi >> 63;
+            hi = (hi << 1) | (lo >>> 63);
+            lo = (lo << 1) ^ (carry & GF_REDUCE);
+        }
+        long lo2 = (lo << 1) ^ ((hi >> 63) & GF_REDUCE);
+        long hi2 = (hi << 1) | (lo >>> 63);
+        int last = off + whole * 16; // Full block, followed by the tail bytes
+        byte[] block = new byte[16];
+        System.arraycopy(buf, last, block, 0, 16);
+        // Encrypting, the full block is done with its own tweak and the tail bytes are swapped with the front of the
+        // result, which is then done again with the final tweak. Decrypting is the same with the tweaks in reverse.
+        cryptBlock(block, encrypt ? lo : lo2, encrypt ? hi : hi2, encrypt);
+        for (int i = 0; i < tail; i++) {
+            byte b = block[i];
+            block[i] = buf[last + 16 + i];
+            buf[last + 16 + i] = b;
+        }
+        cryptBlock(block, encrypt ? lo2 : lo, encrypt ? hi2 : hi, encrypt);
+        System.arraycopy(block, 0, buf, last, 16);
+    }
+
+    // XORs the tweaks of the first blocks of a sector into them, starting from tweak (lo, hi)
+    private static void xorTweaks(byte[] buf, int off, int blocks, long lo, long hi) {
+        for (int j = 0; j < blocks; j++) {
+            int pos = off + j * 16;
+            LE_LONG.set(buf, pos, (long) LE_LONG.get(buf, pos) ^ lo);
+            LE_LONG.set(buf, pos + 8, (long) LE_LONG.get(buf, pos + 8) ^ hi);
+            long carry = hi >> 63; // Multiply by x, reducing when a bit falls off the top
+            hi = (hi << 1) | (lo >>> 63);
+            lo = (lo << 1) ^ (carry & GF_REDUCE);
+        }
+    }
+
+    private void cryptBlock(byte[] block, long lo, long hi, boolean encrypt) {
+        xorTweaks(block, 0, 1, lo, hi);
+        if (encrypt) {
+            this.data.encryptBlocks(block, 0, 1, false, null);
+        } else {
+            this.data.decryptBlocks(block, 0, 1, false, null);
+        }
+        xorTweaks(block, 0, 1, lo, hi);
+    }
+
+    /**
+     * <h3>SectorTask</h3>
+     * <p>Fork-join task which halves its sector range until it is at most CTR.CHUNK_BLOCKS blocks long.</p>
+     */
+    static class SectorTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final XTS xts;
+        private final long firstSector;
+        private final byte[] buf;
+        private final int off;
+        private final int count;
+        private final boolean encrypt;
+
+        SectorTask(XTS xts, long firstSector, byte[] buf, int off, int count, boolean encrypt) {
+            this.xts = xts;
+            this.firstSector = firstSector;
+            this.buf = buf;
+            this.off = off;
+            this.count = count;
+            this.encrypt = encrypt;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.count == 1 || (long) this.count * this.xts.sectorSize <= CTR.CHUNK_BLOCKS * 16L) {
+                for (int i = 0; i < this.count; i++) {
+                    this.xts.crypt(this.firstSector + i, this.buf, this.off + i * this.xts.sectorSize, this.xts.sectorSize, this.encrypt);
+                }
+                return;
+            }
+            int half = this.count / 2;
+            invokeAll(
+                new SectorTask(this.xts, this.firstSector, this.buf, this.off, half, this.encrypt),
+                new SectorTask(this.xts, this.firstSector + half, this.buf, this.off + half * this.xts.sectorSize,
+                    this.count - half, this.encrypt));
+        }
+    }
+}
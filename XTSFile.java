@@ -0,0 +1,165 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <h1>XTSFile</h1>
+ * <p>A file encrypted sector by sector with XTS, read and written at any byte position like a block device. Sector n
+ * of the plaintext is stored, encrypted with sector number n, at byte n * sectorSize of the file, so a read only
+ * touches the sectors it overlaps and costs the same anywhere in the file.</p>
+ * <p>All I/O uses positional FileChannel calls, which do not move a shared file position, so any number of threads can
+ * read (and write different sectors) at the same time. Ranges of many sectors are decrypted in parallel. Writes that
+ * cover part of a sector read and re-encrypt the whole sector, so two threads writing into the same sector at once can
+ * lose one of the writes.</p>
+ * <p>The file is always a whole number of sectors. Writing past the end fills the gap with sectors of zero plaintext.
+ * The length of the data stored in it is for the caller to keep track of.</p>
+ */
+public class XTSFile implements Closeable {
+
+    private final FileChannel channel;
+    private final XTS xts;
+    private final int sectorSize;
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  CONSTRUCTORS                                                                                                      ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>XTSFile Constructor</h3>
+     * @param path The file, created if it does not exist and <b>writable</b> is true.
+     * @param xts The keys and sector size.
+     * @param writable True to allow writes.
+     * @throws IOException If the file cannot be opened or its length is not a whole number of sectors.
+     */
+    public XTSFile(Path path, XTS xts, boolean writable) throws IOException {
+        this.channel = writable
+            ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE)
+            : FileChannel.open(path, StandardOpenOption.READ);
+        this.xts = xts;
+        this.sectorSize = xts.sectorSize();
+        if (this.channel.size() % this.sectorSize != 0) {
+            this.channel.close();
+            throw new IOException(path + " is not a whole number of " + this.sectorSize + " byte sectors.");
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  FUNCTIONS                                                                                                         ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>size</h3>
+     * @return The length of the file in bytes, a multiple of the sector size.
+     */
+    public long size() throws IOException {
+        return this.channel.size();
+    }
+
+    /**
+     * <h3>read</h3>
+     * <p>Decrypts <b>len</b> bytes starting at byte <b>position</b> of the plaintext.</p>
+     * @param position The plaintext offset to start at.
+     * @param dst The buffer to write the plaintext to.
+     * @param off The offset in <b>dst</b>.
+     * @param len The number of bytes to read.
+     * @throws EOFException If the range runs past the end of the file.
+     */
+    public void read(long position, byte[] dst, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        long first = position / this.sectorSize;
+        int count = (int) ((position + len - 1) / this.sectorSize - first + 1);
+        byte[] buf = new byte[count * this.sectorSize];
+        readSectors(first, buf, 0, count);
+        System.arraycopy(buf, (int) (position - first * this.sectorSize), dst, off, len);
+    }
+
+    /**
+     * <h3>readSectors</h3>
+     * <p>Reads and decrypts <b>count</b> whole sectors.</p>
+     * @param firstSector The number of the first sector.
+     * @param dst The buffer to write the plaintext to, with room for count * sectorSize bytes.
+     * @param off The offset in <b>dst</b>.
+     * @param count The number of sectors.
+     * @throws EOFException If the range runs past the end of the file.
+     */
+    public void readSectors(long firstSector, byte[] dst, int off, int count) throws IOException {
+        int len = count * this.sectorSize;
+        ByteBuffer view = ByteBuffer.wrap(dst, off, len);
+        long position = firstSector * this.sectorSize;
+        while (view.hasRemaining()) {
+            int n = this.channel.read(view, position + view.position() - off);
+            if (n < 0) {
+                throw new EOFException("Sector " + (position + view.position() - off) / this.sectorSize + " is past the end of the file.");
+            }
+        }
+        this.xts.decryptSectors(firstSector, dst, off, count);
+    }
+
+    /**
+     * <h3>write</h3>
+     * <p>Encrypts <b>len</b> bytes and stores them at byte <b>position</b> of the plaintext, growing the file if needed.</p>
+     * @param position The plaintext offset to start at.
+     * @param src The plaintext.
+     * @param off The offset in <b>src</b>.
+     * @param len The number of bytes to write.
+     */
+    public void write(long position, byte[] src, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        long existing = this.channel.size() / this.sectorSize;
+        long first = Math.min(position / this.sectorSize, existing); // Start at the old end to fill any gap
+        long last = (position + len - 1) / this.sectorSize;
+        int count = (int) (last - first + 1);
+        byte[] buf = new byte[count * this.sectorSize];
+        int start = (int) (position - first * this.sectorSize); // Where the data goes in buf
+        int end = start + len;
+        int head = start / this.sectorSize;
+        boolean headRead = false;
+        if (start % this.sectorSize != 0 && first + head < existing) {
+            readSectors(first + head, buf, head * this.sectorSize, 1); // Keep the rest of the first sector
+            headRead = true;
+        }
+        if (end % this.sectorSize != 0 && last < existing && !(count - 1 == head && headRead)) {
+            readSectors(last, buf, (count - 1) * this.sectorSize, 1); // And of the last one
+        }
+        System.arraycopy(src, off, buf, start, len);
+        writeSectors(first, buf, 0, count);
+    }
+
+    /**
+     * <h3>writeSectors</h3>
+     * <p>Encrypts and stores <b>count</b> whole sectors. <b>src</b> is encrypted in place.</p>
+     * @param firstSector The number of the first sector.
+     * @param src The plaintext, count * sectorSize bytes. It holds the ciphertext afterwards.
+     * @param off The offset in <b>src</b>.
+     * @param count The number of sectors.
+     */
+    public void writeSectors(long firstSector, byte[] src, int off, int count) throws IOException {
+        this.xts.encryptSectors(firstSector, src, off, count);
+        ByteBuffer view = ByteBuffer.wrap(src, off, count * this.sectorSize);
+        long position = firstSector * this.sectorSize;
+        while (view.hasRemaining()) {
+            this.channel.write(view, position + view.position() - off);
+        }
+    }
+
+    /**
+     * <h3>force</h3>
+     * <p>Makes sure every write so far has reached the storage device.</p>
+     */
+    public void force() throws IOException {
+        this.channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
@@ -0,0 +1,311 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * <h1>SymmetricBench</h1>
+ * <p>Benchmarks for the symmetric path: key expansion, the single block <b>cipher()</b>, and <b>encrypt()</b> and
+ * <b>decrypt()</b> for every engine and mode, with binary (byte[]) and hex (String) I/O, for messages from 16 B to
+ * 16 MB. Each benchmark is run for a few warm-up iterations and then a few timed ones, and reports operations per
+ * second, MB/s for the message benchmarks, and the bytes allocated per operation by all threads (so the ForkJoinPool
+ * workers of CTR and CBC decryption count too).</p>
+ * <p>The results are printed as a table and written as JSON in the layout JMH uses (one object per benchmark with
+ * <b>params</b>, <b>primaryMetric</b> and <b>secondaryMetrics</b>), so two runs can be compared with any JMH result
+ * viewer or a plain diff.</p>
+ * <p>The same benchmarks are in the JMH module in this directory (bench/pom.xml, bench.AesBenchmark), which is the one
+ * to use where Maven can fetch JMH. This file needs nothing but the JDK. It lives outside the main source directory and
+ * is built and run with <b>bench/run.sh</b>, which passes its arguments on:</p>
+ * <pre>
+ *     bench/run.sh [-wi n] [-i n] [-r ms] [-o file] [regex]
+ * </pre>
+ * <p><b>-wi</b> and <b>-i</b> set the warm-up and timed iterations (default 2 and 3), <b>-r</b> the length of an
+ * iteration in milliseconds (default 200), <b>-o</b> the JSON file (default bench/results.json), and the regex selects
+ * benchmarks by the name printed in the table, for example <b>"encrypt.*JCA.*CBC"</b>. All logging is switched off
+ * before any class that logs is loaded, so the AES debug output is never timed. The reference engine is only run up to
+ * 64 KiB, as it takes seconds per megabyte.</p>
+ */
+public class SymmetricBench {
+
+    static final int[] SIZES = {16, 256, 4096, 64 * 1024, 1024 * 1024, 16 * 1024 * 1024};
+    static final int REFERENCE_MAX_SIZE = 64 * 1024;
+    static final String KEY = "Thats my Kung Fu"; // Example key (AES Debug.txt)
+
+    static volatile int sink; // Every result is folded into this, so no benchmarked call can be optimized away
+
+    private int warmupIterations = 2;
+    private int iterations = 3;
+    private int iterationMillis = 200;
+    private Path output = Paths.get("bench", "results.json");
+    private Pattern filter = Pattern.compile("");
+    private final List<Result> results = new ArrayList<>();
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  BENCHMARKS                                                                                                        ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private void runAll() {
+        byte[] keyBytes = AES.stringToBytes(KEY);
+        run("keyExpansion", params(), 0, () -> sink ^= ExpandedKey.expand(keyBytes).enc[43]);
+
+        for (AES.Engine engine : engines()) {
+            Map<String, String> p = params("engine", engine.name());
+            run("newAES", p, 0, () -> sink ^= new AES(KEY, engine).hashCode()); // Cached schedule plus engine setup
+
+            AES aes = new AES(KEY, engine);
+            String[][] block = aes.getRandomBlock();
+            run("cipherBlock", params("engine", engine.name(), "direction", "encrypt"), 16,
+                () -> sink ^= aes.cipher(block, true).length());
+            run("cipherBlock", params("engine", engine.name(), "direction", "decrypt"), 16,
+                () -> sink ^= aes.cipher(block, false).length());
+
+            for (AES.Mode mode : AES.Mode.values()) {
+                for (int size : SIZES) {
+                    if (engine == AES.Engine.REFERENCE && size > REFERENCE_MAX_SIZE) {
+                        continue;
+                    }
+                    messages(aes, engine, mode, size);
+                }
+            }
+        }
+    }
+
+    // encrypt() and decrypt() of one message size, through the byte[] and the hex String entry points
+    private void messages(AES aes, AES.Engine engine, AES.Mode mode, int size) {
+        byte[] plain = new byte[size];
+        new Random(size).nextBytes(plain);
+        byte[] cipher = new byte[AES.getOutputSize(size, mode)];
+        aes.encrypt(plain, 0, size, cipher, 0, mode);
+        byte[] out = new byte[cipher.length];
+
+        Map<String, String> binary = params("engine", engine.name(), "mode", mode.name(), "size", Integer.toString(size), "io", "binary");
+        run("encrypt", binary, size, () -> sink ^= aes.encrypt(plain, 0, size, out, 0, mode));
+        run("decrypt", binary, size, () -> sink ^= aes.decrypt(cipher, 0, cipher.length, out, 0, mode));
+
+        String plainText = AES.bytesToString(plain, 0, size);
+        String hex = AES.bytesToHex(cipher, 0, cipher.length);
+        Map<String, String> text = params("engine", engine.name(), "mode", mode.name(), "size", Integer.toString(size), "io", "hex");
+        run("encrypt", text, size, () -> sink ^= aes.encrypt(plainText, mode).length());
+        run("decrypt", text, size, () -> sink ^= aes.decrypt(hex, mode).length());
+    }
+
+    // Every engine, leaving out VECTOR when its class or module is missing, as it would only repeat TABLE
+    private static List<AES.Engine> engines() {
+        List<AES.Engine> engines = new ArrayList<>();
+        for (AES.Engine engine : AES.Engine.values()) {
+            if (engine != AES.Engine.VECTOR || AES.vectorAvailable()) {
+                engines.add(engine);
+            }
+        }
+        return engines;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  HARNESS                                                                                                           ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Warms up and times one benchmark, unless the filter leaves it out
+    private void run(String name, Map<String, String> params, int bytesPerOp, Runnable op) {
+        String label = label(name, params);
+        if (!this.filter.matcher(label).find()) {
+            return;
+        }
+        for (int i = 0; i < this.warmupIterations; i++) {
+            iteration(op);
+        }
+        double[] scores = new double[this.iterations];
+        long ops = 0;
+        long allocated = allocatedBytes();
+        for (int i = 0; i < this.iterations; i++) {
+            long[] timed = iteration(op);
+            ops += timed[0];
+            scores[i] = timed[0] * 1e9 / timed[1];
+        }
+        allocated = allocatedBytes() - allocated;
+
+        Result r = new Result(name, params, scores, (double) allocated / ops, bytesPerOp);
+        this.results.add(r);
+        System.out.printf(Locale.ROOT, "%-60s %14.1f %12.2f %14.1f%n", label, r.score(), bytesPerOp == 0 ? 0.0 : r.score() * bytesPerOp / 1e6, r.allocPerOp);
+    }
+
+    // Runs op until the iteration time is up, at least once, and returns the number of calls and the nanoseconds taken
+    private long[] iteration(Runnable op) {
+        long budget = this.iterationMillis * 1_000_000L;
+        long ops = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            op.run();
+            ops++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < budget);
+        return new long[] {ops, elapsed};
+    }
+
+    // Bytes allocated so far by every live thread, from the HotSpot extension of ThreadMXBean
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) { // -1 for threads that ended in between
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    private static Map<String, String> params(String... pairs) {
+        Map<String, String> p = new LinkedHashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            p.put(pairs[i], pairs[i + 1]);
+        }
+        return p;
+    }
+
+    private static String label(String name, Map<String, String> params) {
+        StringBuilder label = new StringBuilder(name);
+        for (String value : params.values()) {
+            label.append(' ').append(value);
+        }
+        return label.toString();
+    }
+
+    /**
+     * <h3>Result</h3>
+     * <p>The measured scores of one benchmark.</p>
+     */
+    static class Result {
+        final String name;
+        final Map<String, String> params;
+        final double[] scores; // Operations per second of each timed iteration
+        final double allocPerOp;
+        final int bytesPerOp; // Message bytes per operation, 0 when it has no message
+
+        Result(String name, Map<String, String> params, double[] scores, double allocPerOp, int bytesPerOp) {
+            this.name = name;
+            this.params = params;
+            this.scores = scores;
+            this.allocPerOp = allocPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        double score() {
+            double sum = 0;
+            for (double s : this.scores) {
+                sum += s;
+            }
+            return sum / this.scores.length;
+        }
+
+        // Standard deviation of the iteration scores, 0 for a single iteration
+        double error() {
+            if (this.scores.length < 2) {
+                return 0;
+            }
+            double mean = score();
+            double squares = 0;
+            for (double s : this.scores) {
+                squares += (s - mean) * (s - mean);
+            }
+            return Math.sqrt(squares / (this.scores.length - 1));
+        }
+
+        void appendJson(StringBuilder json, String jvm) {
+            json.append("  {\n");
+            json.append("    \"benchmark\" : \"SymmetricBench.").append(this.name).append("\",\n");
+            json.append("    \"mode\" : \"thrpt\",\n");
+            json.append("    \"jdkVersion\" : \"").append(jvm).append("\",\n");
+            json.append("    \"params\" : {");
+            String sep = "";
+            for (Map.Entry<String, String> p : this.params.entrySet()) {
+                json.append(sep).append("\n      \"").append(p.getKey()).append("\" : \"").append(p.getValue()).append('"');
+                sep = ",";
+            }
+            json.append(this.params.isEmpty() ? "},\n" : "\n    },\n");
+            json.append("    \"primaryMetric\" : {\n");
+            json.append(number("      \"score\" : %.3f,\n", score()));
+            json.append(number("      \"scoreError\" : %.3f,\n", error()));
+            json.append("      \"scoreUnit\" : \"ops/s\",\n");
+            json.append("      \"rawData\" : [ [");
+            for (int i = 0; i < this.scores.length; i++) {
+                json.append(i == 0 ? " " : ", ").append(number("%.3f", this.scores[i]));
+            }
+            json.append(" ] ]\n    },\n");
+            json.append("    \"secondaryMetrics\" : {\n");
+            if (this.bytesPerOp > 0) {
+                json.append(number("      \"throughput\" : { \"score\" : %.3f, \"scoreUnit\" : \"MB/s\" },\n", score() * this.bytesPerOp / 1e6));
+            }
+            json.append(number("      \"alloc.rate.norm\" : { \"score\" : %.1f, \"scoreUnit\" : \"B/op\" }\n", this.allocPerOp));
+            json.append("    }\n  }");
+        }
+
+        private static String number(String format, double value) {
+            return String.format(Locale.ROOT, format, value);
+        }
+    }
+
+    private void writeJson() throws IOException {
+        String jvm = System.getProperty("java.version");
+        StringBuilder json = new StringBuilder("[\n");
+        for (int i = 0; i < this.results.size(); i++) {
+            this.results.get(i).appendJson(json, jvm);
+            json.append(i + 1 < this.results.size() ? ",\n" : "\n");
+        }
+        json.append("]\n");
+        if (this.output.getParent() != null) {
+            Files.createDirectories(this.output.getParent());
+        }
+        Files.write(this.output, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  MAIN                                                                                                              ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    public static void main(String[] args) throws IOException {
+        // Logging is configured once, when Log is loaded, so it has to be switched off before anything touches AES
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("log.level.")) {
+                System.clearProperty(name);
+            }
+        }
+        System.setProperty("log.level", "OFF");
+
+        SymmetricBench bench = new SymmetricBench();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-wi":
+                    bench.warmupIterations = Integer.parseInt(args[++i]);
+                    break;
+                case "-i":
+                    bench.iterations = Math.max(1, Integer.parseInt(args[++i]));
+                    break;
+                case "-r":
+                    bench.iterationMillis = Integer.parseInt(args[++i]);
+                    break;
+                case "-o":
+                    bench.output = Paths.get(args[++i]);
+                    break;
+                default:
+                    bench.filter = Pattern.compile(args[i]);
+            }
+        }
+        if (AES.LOG.enabled(Log.Level.DEBUG)) {
+            throw new IllegalStateException("The AES log is still at DEBUG level, Log was loaded before main().");
+        }
+
+        System.out.println("Default engine: " + EngineCalibration.await() + ", Vector API: " + (AES.vectorAvailable() ? "yes" : "no"));
+        System.out.printf(Locale.ROOT, "%-60s %14s %12s %14s%n", "Benchmark", "ops/s", "MB/s", "B/op");
+        bench.runAll();
+        bench.writeJson();
+        System.out.println("Results written to " + bench.output);
+    }
+}
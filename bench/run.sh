@@ -0,0 +1,14 @@
+#!/bin/sh
+# Builds the project and the benchmarks into bench/classes, then runs SymmetricBench with the given arguments.
+# The Vector API engine is included when the JDK has the jdk.incubator.vector module.
+set -e
+cd "$(dirname "$0")/.."
+rm -rf bench/classes
+mkdir -p bench/classes
+javac -encoding UTF-8 -d bench/classes *.java
+javac -encoding UTF-8 -cp bench/classes -d bench/classes bench/SymmetricBench.java
+
+if javac --add-modules jdk.incubator.vector -cp bench/classes -d bench/classes vector/VectorAES.java 2>/dev/null; then
+    exec java --add-modules jdk.incubator.vector -cp bench/classes SymmetricBench "$@"
+fi
+exec java -cp bench/classes SymmetricBench "$@"
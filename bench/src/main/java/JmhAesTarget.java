@@ -0,0 +1,66 @@
+import java.util.Random;
+
+/**
+ * <h1>JmhAesTarget</h1>
+ * <p>AesTarget on top of AES, for the JMH benchmarks in the bench package. It is in the unnamed package with AES, and
+ * only does what SymmetricBench does in its own loop: each method is one call into AES on data prepared in
+ * <b>init()</b>.</p>
+ */
+public class JmhAesTarget implements bench.AesTarget {
+
+    static final String KEY = "Thats my Kung Fu"; // Example key (AES Debug.txt)
+
+    private final byte[] keyBytes = AES.stringToBytes(KEY);
+    private AES aes;
+    private AES.Mode mode;
+    private String[][] block;
+    private byte[] plain;
+    private byte[] cipher;
+    private byte[] out;
+    private String plainText;
+    private String hex;
+
+    @Override
+    public void init(String engine, String mode, int size) {
+        this.aes = new AES(KEY, AES.Engine.valueOf(engine));
+        this.mode = AES.Mode.valueOf(mode);
+        this.block = this.aes.getRandomBlock();
+        this.plain = new byte[size];
+        new Random(size).nextBytes(this.plain);
+        this.cipher = new byte[AES.getOutputSize(size, this.mode)];
+        this.aes.encrypt(this.plain, 0, size, this.cipher, 0, this.mode);
+        this.out = new byte[this.cipher.length];
+        this.plainText = AES.bytesToString(this.plain, 0, size);
+        this.hex = AES.bytesToHex(this.cipher, 0, this.cipher.length);
+    }
+
+    @Override
+    public int expandKey() {
+        return ExpandedKey.expand(this.keyBytes).enc[43];
+    }
+
+    @Override
+    public String cipherBlock(boolean encrypt) {
+        return this.aes.cipher(this.block, encrypt);
+    }
+
+    @Override
+    public int encryptBinary() {
+        return this.aes.encrypt(this.plain, 0, this.plain.length, this.out, 0, this.mode);
+    }
+
+    @Override
+    public int decryptBinary() {
+        return this.aes.decrypt(this.cipher, 0, this.cipher.length, this.out, 0, this.mode);
+    }
+
+    @Override
+    public String encryptHex() {
+        return this.aes.encrypt(this.plainText, this.mode);
+    }
+
+    @Override
+    public String decryptHex() {
+        return this.aes.decrypt(this.hex, this.mode);
+    }
+}
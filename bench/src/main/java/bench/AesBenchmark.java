@@ -0,0 +1,141 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * <h1>AesBenchmark</h1>
+ * <p>JMH benchmarks for the symmetric path, the same set SymmetricBench runs without JMH: key expansion, the single block
+ * <b>cipher()</b>, and <b>encrypt()</b> and <b>decrypt()</b> for every engine and mode, with binary (byte[]) and hex
+ * (String) I/O, for messages from 16 B to 16 MB. Scores are operations per second.</p>
+ * <p>Built and run from the bench directory:</p>
+ * <pre>
+ *     mvn -B package
+ *     java -jar target/benchmarks.jar -prof gc -rf json -rff results.json
+ * </pre>
+ * <p><b>-prof gc</b> adds the bytes allocated per operation (gc.alloc.rate.norm), and <b>-rf json</b> writes the results
+ * in JMH's JSON format, which two runs can be compared in. Every fork runs with <b>-Dlog.level=OFF</b>, so no log
+ * output is timed.</p>
+ * <p>The reference engine takes seconds per megabyte and the Vector API engine needs the incubator module, so neither
+ * is in the default engine list. To run them:</p>
+ * <pre>
+ *     java -jar target/benchmarks.jar -p engine=REFERENCE -p size=16,4096,65536
+ *     mvn -B package -Pvector
+ *     java -jar target/benchmarks.jar -p engine=VECTOR -jvmArgsAppend --add-modules=jdk.incubator.vector
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog.level=OFF")
+public class AesBenchmark {
+
+    /**
+     * <h3>KeyState</h3>
+     * <p>The fixed key, for key expansion, which does not depend on an engine.</p>
+     */
+    @State(Scope.Thread)
+    public static class KeyState {
+        AesTarget target;
+
+        @Setup
+        public void setup() {
+            this.target = AesTarget.load("TABLE", "ECB", 16);
+        }
+    }
+
+    /**
+     * <h3>BlockState</h3>
+     * <p>A random block, for the single block cipher() of each engine.</p>
+     */
+    @State(Scope.Thread)
+    public static class BlockState {
+        @Param({"TABLE", "BITSLICED", "JCA"})
+        public String engine;
+
+        AesTarget target;
+
+        @Setup
+        public void setup() {
+            this.target = AesTarget.load(this.engine, "ECB", 16);
+        }
+    }
+
+    /**
+     * <h3>MessageState</h3>
+     * <p>A random message and its encryption, for every engine, mode, size and I/O form.</p>
+     */
+    @State(Scope.Thread)
+    public static class MessageState {
+        @Param({"TABLE", "BITSLICED", "JCA"})
+        public String engine;
+
+        @Param({"ECB", "CBC", "CTR", "CBC_CS3"})
+        public String mode;
+
+        @Param({"16", "256", "4096", "65536", "1048576", "16777216"})
+        public int size;
+
+        @Param({"binary", "hex"})
+        public String io;
+
+        AesTarget target;
+        boolean hex;
+
+        @Setup
+        public void setup() {
+            this.target = AesTarget.load(this.engine, this.mode, this.size);
+            this.hex = this.io.equals("hex");
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  BENCHMARKS                                                                                                        ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    @Benchmark
+    public int keyExpansion(KeyState state) {
+        return state.target.expandKey();
+    }
+
+    @Benchmark
+    public String cipherBlockEncrypt(BlockState state) {
+        return state.target.cipherBlock(true);
+    }
+
+    @Benchmark
+    public String cipherBlockDecrypt(BlockState state) {
+        return state.target.cipherBlock(false);
+    }
+
+    // The lengths go to the Blackhole as ints, since boxing them would add to the allocation of the binary calls
+    @Benchmark
+    public void encrypt(MessageState state, Blackhole bh) {
+        if (state.hex) {
+            bh.consume(state.target.encryptHex());
+        } else {
+            bh.consume(state.target.encryptBinary());
+        }
+    }
+
+    @Benchmark
+    public void decrypt(MessageState state, Blackhole bh) {
+        if (state.hex) {
+            bh.consume(state.target.decryptHex());
+        } else {
+            bh.consume(state.target.decryptBinary());
+        }
+    }
+}
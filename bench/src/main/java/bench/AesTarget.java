@@ -0,0 +1,73 @@
+package bench;
+
+/**
+ * <h1>AesTarget</h1>
+ * <p>The operations AesBenchmark times. The project's classes are in the unnamed package, which code in a named package
+ * (as JMH requires) cannot refer to, so JmhAesTarget implements this interface on their side and is loaded by name.
+ * Each instance holds the key, engine, mode and messages of one benchmark setup.</p>
+ */
+public interface AesTarget {
+
+    /**
+     * <h3>load</h3>
+     * @param engine The AES.Engine name.
+     * @param mode The AES.Mode name.
+     * @param size The message length in bytes.
+     * @return A target set up with a fixed key and a random message of the given size, already encrypted once.
+     */
+    static AesTarget load(String engine, String mode, int size) {
+        try {
+            AesTarget target = (AesTarget) Class.forName("JmhAesTarget").getDeclaredConstructor().newInstance();
+            target.init(engine, mode, size);
+            return target;
+        } catch (ReflectiveOperationException roEx) {
+            throw new IllegalStateException("JmhAesTarget is not on the class path", roEx);
+        }
+    }
+
+    /**
+     * <h3>init</h3>
+     * <p>Called once by <b>load()</b>, before any other method.</p>
+     * @param engine The AES.Engine name.
+     * @param mode The AES.Mode name.
+     * @param size The message length in bytes.
+     */
+    void init(String engine, String mode, int size);
+
+    /**
+     * <h3>expandKey</h3>
+     * @return The last word of a fresh key schedule for the fixed key.
+     */
+    int expandKey();
+
+    /**
+     * <h3>cipherBlock</h3>
+     * @param encrypt True to encrypt the random block in place, false to decrypt it.
+     * @return The result of AES.cipher() on the block.
+     */
+    String cipherBlock(boolean encrypt);
+
+    /**
+     * <h3>encryptBinary</h3>
+     * @return The ciphertext length written by the byte[] encrypt().
+     */
+    int encryptBinary();
+
+    /**
+     * <h3>decryptBinary</h3>
+     * @return The plaintext length written by the byte[] decrypt().
+     */
+    int decryptBinary();
+
+    /**
+     * <h3>encryptHex</h3>
+     * @return The hex ciphertext from the String encrypt().
+     */
+    String encryptHex();
+
+    /**
+     * <h3>decryptHex</h3>
+     * @return The plaintext from the String decrypt().
+     */
+    String decryptHex();
+}
@@ -0,0 +1,225 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * <h1>VectorAES</h1>
+ * <p>An AES-128 block function built on the JDK Vector API, which encrypts as many blocks at once as fit in the
+ * platform's preferred vector (1 block for 128-bit SIMD, 2 for AVX2, 4 for AVX-512).</p>
+ * <p>Every step works on whole vectors: ShiftRows is a byte shuffle, MixColumns is lane-wise xtime plus shuffles that
+ * rotate each column, and SubBytes is a split lookup where the low bits of each byte select an entry of one slice of
+ * the S-box through a shuffle, and the high bits select the slice with a compare and blend.</p>
+ * <p>This file needs the <b>jdk.incubator.vector</b> module, so it lives outside the main source directory and is
+ * compiled separately after the other classes:</p>
+ * <pre>
+ *     javac --add-modules jdk.incubator.vector -cp . -d . vector/VectorAES.java
+ *     java --add-modules jdk.incubator.vector AES
+ * </pre>
+ * <p>AES loads this class reflectively and falls back to the table engine when it or the module is missing.</p>
+ */
+public class VectorAES implements BlockCipherEngine {
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  TABLES                                                                                                            ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    static final VectorSpecies<Byte> SPECIES = species();
+    static final int LANES = SPECIES.length();
+    static final int BLOCKS = LANES / 16; // Blocks per vector
+
+    private static final int ROW_SHIFT = Integer.numberOfTrailingZeros(LANES); // High bits of a byte pick the S-box slice
+    private static final ByteVector[] SBOX = slices(TableAES.SB);
+    private static final ByteVector[] INV_SBOX = slices(TableAES.ISB);
+
+    private static final VectorShuffle<Byte> SHIFT_ROWS = shuffle((r, c) -> r + 4 * ((c + r) % 4));
+    private static final VectorShuffle<Byte> INV_SHIFT_ROWS = shuffle((r, c) -> r + 4 * ((c - r + 4) % 4));
+    private static final VectorShuffle<Byte> ROTATE_1 = shuffle((r, c) -> (r + 1) % 4 + 4 * c); // Row r takes row r+1 of its column
+    private static final VectorShuffle<Byte> ROTATE_2 = shuffle((r, c) -> (r + 2) % 4 + 4 * c);
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  VARIABLES                                                                                                         ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private final ByteVector[] roundKeys = new ByteVector[11]; // Each round key repeated once per block in the vector
+    private final TableAES single; // Single blocks are cheaper through the tables than through a mostly empty vector
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  CONSTRUCTORS                                                                                                      ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>VectorAES Constructor</h3>
+     * <p>Accepts an expanded key. Decryption runs the inverse cipher directly, so only the encryption round keys are used.</p>
+     * @param key The expanded key.
+     */
+    public VectorAES(ExpandedKey key) {
+        this.single = new TableAES(key);
+        byte[] rk = new byte[LANES];
+        for (int round = 0; round <= 10; round++) {
+            for (int i = 0; i < LANES; i++) {
+                int pos = i % 16;
+                rk[i] = (byte) (key.enc[round * 4 + pos / 4] >>> (24 - 8 * (pos % 4)));
+            }
+            this.roundKeys[round] = ByteVector.fromArray(SPECIES, rk, 0);
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///  FUNCTIONS                                                                                                         ///
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * <h3>encryptBlocks</h3>
+     * <p>Encrypts consecutive blocks, BLOCKS per vector. The input and output ranges may be the same but must not partially overlap.</p>
+     * @param in The input buffer.
+     * @param inOff The offset of the first input block.
+     * @param out The output buffer.
+     * @param outOff The offset of the first output block.
+     * @param blocks The number of blocks.
+     */
+    @Override
+    public void encryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        int whole = blocks / BLOCKS;
+        encryptVectors(in, inOff, out, outOff, whole);
+        int rest = blocks - whole * BLOCKS;
+        if (rest > 0) { // The last partial vector goes through a scratch buffer
+            byte[] tail = new byte[LANES];
+            System.arraycopy(in, inOff + whole * LANES, tail, 0, rest * 16);
+            encryptVectors(tail, 0, tail, 0, 1);
+            System.arraycopy(tail, 0, out, outOff + whole * LANES, rest * 16);
+        }
+    }
+
+    /**
+     * <h3>decryptBlocks</h3>
+     * <p>Decrypts consecutive blocks, BLOCKS per vector. The input and output ranges may be the same but must not partially overlap.</p>
+     * @param in The input buffer.
+     * @param inOff The offset of the first input block.
+     * @param out The output buffer.
+     * @param outOff The offset of the first output block.
+     * @param blocks The number of blocks.
+     */
+    @Override
+    public void decryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        int whole = blocks / BLOCKS;
+        decryptVectors(in, inOff, out, outOff, whole);
+        int rest = blocks - whole * BLOCKS;
+        if (rest > 0) {
+            byte[] tail = new byte[LANES];
+            System.arraycopy(in, inOff + whole * LANES, tail, 0, rest * 16);
+            decryptVectors(tail, 0, tail, 0, 1);
+            System.arraycopy(tail, 0, out, outOff + whole * LANES, rest * 16);
+        }
+    }
+
+    /**
+     * <h3>encryptBlock</h3>
+     * <p>Encrypts one 16 byte block with the table engine.</p>
+     */
+    @Override
+    public void encryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        this.single.encryptBlock(in, inOff, out, outOff);
+    }
+
+    /**
+     * <h3>decryptBlock</h3>
+     * <p>Decrypts one 16 byte block with the table engine.</p>
+     */
+    @Override
+    public void decryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        this.single.decryptBlock(in, inOff, out, outOff);
+    }
+
+    // The rounds are written out in one method on purpose: the JIT only keeps vectors in registers when every step is
+    // inlined, and it stops inlining small helper methods once the caller has grown large
+    private void encryptVectors(byte[] in, int inOff, byte[] out, int outOff, int vectors) {
+        final ByteVector[] rk = this.roundKeys;
+        for (int v = 0; v < vectors; v++) {
+            ByteVector s = ByteVector.fromArray(SPECIES, in, inOff + v * LANES).lanewise(VectorOperators.XOR, rk[0]);
+            for (int round = 1; round <= 10; round++) {
+                // SubBytes: the low bits of each byte index every slice of the S-box, the high bits pick the slice
+                VectorShuffle<Byte> index = s.and((byte) (LANES - 1)).toShuffle();
+                ByteVector slice = s.lanewise(VectorOperators.LSHR, ROW_SHIFT);
+                ByteVector sub = SBOX[0].rearrange(index);
+                for (int i = 1; i < SBOX.length; i++) {
+                    sub = sub.blend(SBOX[i].rearrange(index), slice.eq((byte) i));
+                }
+                s = sub.rearrange(SHIFT_ROWS);
+                if (round < 10) { // Final round has no MixColumns
+                    // b[r] = 2a[r] ^ 3a[r+1] ^ a[r+2] ^ a[r+3] = 2t[r] ^ a[r+1] ^ t[r+2], with t[r] = a[r] ^ a[r+1]
+                    ByteVector r1 = s.rearrange(ROTATE_1);
+                    ByteVector t = s.lanewise(VectorOperators.XOR, r1);
+                    ByteVector t2 = t.lanewise(VectorOperators.LSHL, 1).lanewise(VectorOperators.XOR, (byte) 0x1b, t.lt((byte) 0));
+                    s = t2.lanewise(VectorOperators.XOR, r1).lanewise(VectorOperators.XOR, t.rearrange(ROTATE_2));
+                }
+                s = s.lanewise(VectorOperators.XOR, rk[round]);
+            }
+            s.intoArray(out, outOff + v * LANES);
+        }
+    }
+
+    private void decryptVectors(byte[] in, int inOff, byte[] out, int outOff, int vectors) {
+        final ByteVector[] rk = this.roundKeys;
+        for (int v = 0; v < vectors; v++) {
+            ByteVector s = ByteVector.fromArray(SPECIES, in, inOff + v * LANES).lanewise(VectorOperators.XOR, rk[10]);
+            for (int round = 9; round >= 0; round--) {
+                s = s.rearrange(INV_SHIFT_ROWS);
+                VectorShuffle<Byte> index = s.and((byte) (LANES - 1)).toShuffle();
+                ByteVector slice = s.lanewise(VectorOperators.LSHR, ROW_SHIFT);
+                ByteVector sub = INV_SBOX[0].rearrange(index);
+                for (int i = 1; i < INV_SBOX.length; i++) {
+                    sub = sub.blend(INV_SBOX[i].rearrange(index), slice.eq((byte) i));
+                }
+                s = sub.lanewise(VectorOperators.XOR, rk[round]);
+                if (round > 0) { // Final round has no InvMixColumns
+                    // InvMixColumns is MixColumns after a[r] ^= 4(a[r] ^ a[r+2])
+                    ByteVector u = s.lanewise(VectorOperators.XOR, s.rearrange(ROTATE_2));
+                    u = u.lanewise(VectorOperators.LSHL, 1).lanewise(VectorOperators.XOR, (byte) 0x1b, u.lt((byte) 0));
+                    u = u.lanewise(VectorOperators.LSHL, 1).lanewise(VectorOperators.XOR, (byte) 0x1b, u.lt((byte) 0));
+                    s = s.lanewise(VectorOperators.XOR, u);
+                    ByteVector r1 = s.rearrange(ROTATE_1);
+                    ByteVector t = s.lanewise(VectorOperators.XOR, r1);
+                    ByteVector t2 = t.lanewise(VectorOperators.LSHL, 1).lanewise(VectorOperators.XOR, (byte) 0x1b, t.lt((byte) 0));
+                    s = t2.lanewise(VectorOperators.XOR, r1).lanewise(VectorOperators.XOR, t.rearrange(ROTATE_2));
+                }
+            }
+            s.intoArray(out, outOff + v * LANES);
+        }
+    }
+
+    // The preferred species, limited to between 128 and 512 bits so the shuffles and S-box slices stay simple
+    private static VectorSpecies<Byte> species() {
+        VectorSpecies<Byte> preferred = ByteVector.SPECIES_PREFERRED;
+        if (preferred.length() < 16) {
+            return ByteVector.SPECIES_128;
+        }
+        return preferred.length() > 64 ? ByteVector.SPECIES_512 : preferred;
+    }
+
+    private static ByteVector[] slices(int[] table) {
+        ByteVector[] slices = new ByteVector[256 / LANES];
+        byte[] slice = new byte[LANES];
+        for (int i = 0; i < slices.length; i++) {
+            for (int j = 0; j < LANES; j++) {
+                slice[j] = (byte) table[i * LANES + j];
+            }
+            slices[i] = ByteVector.fromArray(SPECIES, slice, 0);
+        }
+        return slices;
+    }
+
+    private interface Permutation {
+        int source(int row, int col);
+    }
+
+    // The same permutation of state positions (4 * column + row) applied to every block in the vector
+    private static VectorShuffle<Byte> shuffle(Permutation p) {
+        int[] index = new int[LANES];
+        for (int i = 0; i < LANES; i++) {
+            int pos = i % 16;
+            index[i] = i - pos + p.source(pos % 4, pos / 4);
+        }
+        return VectorShuffle.fromArray(SPECIES, index, 0);
+    }
+}